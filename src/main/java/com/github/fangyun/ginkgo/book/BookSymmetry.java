@@ -0,0 +1,97 @@
+package com.github.fangyun.ginkgo.book;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.RESIGN;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+
+/**
+ * 棋盘的8种对称(4种旋转, 以及镜像后的4种旋转), 用来把棋谱的键规范化: 一个局面及其所有对称局面只存一次,
+ * 键是8种变换后的getFancyHash中最小的一个, 着子按同一变换存储.
+ * <p>
+ * 不是线程安全的: canonicalize把结果存在字段中.
+ */
+public final class BookSymmetry {
+
+	/** 对称的个数. */
+	public static final int SYMMETRIES = 8;
+
+	/** 最近一次canonicalize找到的最小哈希. */
+	private long canonicalHash;
+
+	private final CoordinateSystem coords;
+
+	/** inverses[t][transforms[t][p]] == p. */
+	private final short[][] inverses;
+
+	/** transforms[t][p]为点p在第t个变换下的像. 第0个为恒等变换. */
+	private final short[][] transforms;
+
+	public BookSymmetry(CoordinateSystem coords) {
+		this.coords = coords;
+		final int n = coords.getFirstPointBeyondBoard();
+		transforms = new short[SYMMETRIES][n];
+		inverses = new short[SYMMETRIES][n];
+		for (int t = 0; t < SYMMETRIES; t++) {
+			for (final short p : new short[] { NO_POINT, PASS, RESIGN }) {
+				transforms[t][p] = p;
+				inverses[t][p] = p;
+			}
+			for (final short p : coords.getAllPointsOnBoard()) {
+				if (t == 0) {
+					transforms[t][p] = p;
+				} else if (t == 4) {
+					transforms[t][p] = reflect(p);
+				} else {
+					transforms[t][p] = rotate90(transforms[t - 1][p]);
+				}
+				inverses[t][transforms[t][p]] = p;
+			}
+		}
+	}
+
+	/**
+	 * 返回使变换后的棋盘哈希最小的变换的下标. 最小的哈希可以用getCanonicalHash得到.
+	 */
+	public int canonicalize(Board board) {
+		int result = 0;
+		canonicalHash = board.getFancyHash();
+		for (int t = 1; t < SYMMETRIES; t++) {
+			final long hash = board.getFancyHash(transforms[t]);
+			if (hash < canonicalHash) {
+				canonicalHash = hash;
+				result = t;
+			}
+		}
+		return result;
+	}
+
+	/** 返回最近一次canonicalize找到的规范化的哈希. */
+	public long getCanonicalHash() {
+		return canonicalHash;
+	}
+
+	/** 返回点p在第t个变换的逆变换下的像, 即把规范化的着子变换回实际棋盘. */
+	public short inverse(int t, short p) {
+		return inverses[t][p];
+	}
+
+	/** 返回着子在线c=r的镜像点. */
+	private short reflect(short p) {
+		final int width = coords.getWidth();
+		return coords.at(width - 1 - coords.column(p), width - 1 - coords.row(p));
+	}
+
+	/** 返回着子反时针旋转90度的点. */
+	private short rotate90(short p) {
+		return coords.at(coords.getWidth() - 1 - coords.column(p), coords.row(p));
+	}
+
+	/** 返回点p在第t个变换下的像. */
+	public short transform(int t, short p) {
+		return transforms[t][p];
+	}
+
+}
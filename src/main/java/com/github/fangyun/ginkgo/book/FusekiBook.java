@@ -9,7 +9,8 @@ import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 
 /**
- * 产生着子来自强大的棋手棋谱.
+ * 产生着子来自强大的棋手棋谱. 棋谱是序列化的SmallHashMap, 键为BookSymmetry规范化的哈希. 较大的或多种棋盘宽度的棋谱
+ * 应当用FusekiBookConverter转换为MappedFusekiBook的格式.
  * 
  * @see FusekiBookBuilder
  */
@@ -21,12 +22,16 @@ public final class FusekiBook implements OpeningBook {
 	/** 在这之后，不要再去看这本棋谱了. */
 	private int maxMoves;
 
+	/** 19路棋盘的对称. */
+	private final BookSymmetry symmetry;
+
 	public FusekiBook() {
 		this("books");
 	}
 
 	/** 得到哈希Map从文件中. */
 	public FusekiBook(String directory) {
+		symmetry = new BookSymmetry(CoordinateSystem.forWidth(19));
 		final InputStream is = getClass().getResourceAsStream("/books/ginkgo_fuseki19.data");
 		log("开始读布局棋谱");
 		try (ObjectInputStream in = new ObjectInputStream(is)) {
@@ -41,10 +46,11 @@ public final class FusekiBook implements OpeningBook {
 
 	@Override
 	public short nextMove(Board board) {
-		final long fancyHash = board.getFancyHash();
 		if (board.getTurn() < maxMoves) {
+			final int t = symmetry.canonicalize(board);
+			final long fancyHash = symmetry.getCanonicalHash();
 			if (book.containsKey(fancyHash)) {
-				final short move = book.get(fancyHash);
+				final short move = symmetry.inverse(t, book.get(fancyHash));
 				if (board.isLegal(move)) {
 					return move;
 				}
@@ -1,272 +1,380 @@
 package com.github.fangyun.ginkgo.book;
 
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
 import static com.github.fangyun.ginkgo.experiment.PropertyPaths.GINKGO_ROOT;
-import static java.util.Arrays.sort;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
-import com.github.fangyun.ginkgo.sgf.SgfParser;
-
-import com.github.fangyun.ginkgo.book.SmallHashMap;
+import com.github.fangyun.ginkgo.sgf.SgfStream;
 
 /**
- * 构建布局棋谱从(可能嵌套)SGF文件目录. 首先处理数据产生初略棋谱, 然后处理创建为FusekiBook的最终棋谱.
+ * 构建布局棋谱从(可能嵌套)SGF文件目录. 每个局面按BookSymmetry规范化, 所以对称的局面合并计数, 棋谱也只存一次.
+ * <p>
+ * 用fork-join并行地解析文件. 每个线程在自己的MoveCounter中对(局面哈希, 着子)计数, 表满时把它排序后写入磁盘成为一个段.
+ * 所有文件处理完后, 多路归并所有的段, 对每个局面选出至少出现countThreshold次的最常见着子, 直接写为MappedFusekiBook的格式.
+ * 因此堆的大小只取决于内存预算, 不取决于棋局数. 不同宽度的棋谱可以用FusekiBookConverter合并为一个文件.
+ * <p>
+ * 用法: FusekiBookBuilder SGF目录 [宽度 [最大手数 [计数阈值 [线程数 [内存兆字节]]]]], 缺省为19, 20, 50, 可用处理器数和512.
+ * 棋谱写到ginkgo.root下books目录中的fuseki宽度.book.
  */
 public final class FusekiBookBuilder {
 
-	/**
-	 * 在和低于这个响应数, 存储响应为列表. 高于此，存储为响应的频率(着子为索引).
-	 */
-	public static final int MEDIUM_ARRAY_LIMIT = 50;
+	/** 计数表中每个条目大约占的字节数: 两个槽, 每个槽8 + 2 + 4字节. */
+	private static final int BYTES_PER_ENTRY = 28;
 
 	public static void main(String[] args) {
-		final FusekiBookBuilder builder = new FusekiBookBuilder(20, 50, "books", true);
-		// Directory below contains SGF
-		builder.processFiles(new File("/Network/Servers/maccsserver.lclark.edu/Users/mdreyer/Desktop/KGS Files/"));
-		builder.writeRawBook();
-		// To only build final book from raw book, comment two lines above
-		builder.buildFinalBook();
+		if (args.length < 1) {
+			System.err.println("用法: FusekiBookBuilder SGF目录 [宽度 [最大手数 [计数阈值 [线程数 [内存兆字节]]]]]");
+			System.exit(1);
+		}
+		final int width = args.length > 1 ? Integer.parseInt(args[1]) : 19;
+		final int maxMoves = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		final int countThreshold = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+		final int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		final int megabytes = args.length > 5 ? Integer.parseInt(args[5]) : 512;
+		final FusekiBookBuilder builder = new FusekiBookBuilder(width, maxMoves, countThreshold, "books", true,
+				threads, megabytes);
+		try {
+			builder.build(new File(args[0]));
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
 	}
 
-	/**
-	 * 映射棋盘哈希值到short数组. 或者中型数组(响应棋盘的着子列表)或者长数组(响应棋盘的多少次每个着子的计数).
-	 */
-	private BigHashMap<short[]> bigMap;
+	/** 处理一部分文件的任务, 分割到每个任务一个文件. */
+	private final class FileTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
 
-	/** 为每个旋转与反射. */
-	private final Board[] boards;
+		private final List<File> files;
 
-	private final CoordinateSystem coords;
+		private final int from;
 
-	/**
-	 * 当着子至少这多次时，此着子才被存储在最终的map中.
-	 */
-	private final int countThreshold;
+		private final int to;
 
-	/** 写出到输出文件中的对象. */
-	private final SmallHashMap finalMap;
+		FileTask(List<File> files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
 
-	/** 棋局中在和超过此深度的着子被忽略. */
-	private final int maxMoves;
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from) {
+					workers.get().processFile(files.get(from));
+				}
+			} else {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new FileTask(files, from, middle), new FileTask(files, middle, to));
+			}
+		}
+	}
 
-	/** 目录存储粗略和最终的棋谱. */
-	private final String objectFilePath;
+	/** 一个段的读者, 按(哈希, 着子)升序读出条目. */
+	private static final class RunReader implements Comparable<RunReader> {
 
-	/**
-	 * 映射棋盘哈希值到响应. 一旦有第二次响应，则采用bigMap.
-	 */
-	private final SmallHashMap smallMap;
+		int count;
 
-	/** 如果true，通过打印消息到标准输出指出进度. */
-	private final boolean verbose;
+		long hash;
 
-	public FusekiBookBuilder(int maxMoves, int countThreshold, String directoryName, boolean verbose) {
-		// 如果countThreshold为1，我们就必须在buildFinalBook中查找smallMap。
-		assert countThreshold > 1;
-		smallMap = new SmallHashMap();
-		bigMap = new BigHashMap<>();
-		finalMap = new SmallHashMap();
-		this.maxMoves = maxMoves;
-		this.countThreshold = countThreshold;
-		boards = new Board[8];
-		coords = CoordinateSystem.forWidth(19);
-		for (int i = 0; i < boards.length; i++) {
-			boards[i] = new Board(coords.getWidth());
+		private final DataInputStream in;
+
+		short move;
+
+		RunReader(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
 		}
-		objectFilePath = GINKGO_ROOT + directoryName;
-		new File(objectFilePath).mkdir();
-		this.verbose = verbose;
-	}
 
-	/** 从粗略棋谱构建最终棋谱. */
-	@SuppressWarnings("unchecked")
-	void buildFinalBook() {
-		try {
-			try (ObjectInputStream in = new ObjectInputStream(
-					new FileInputStream(objectFilePath + File.separator + "rawfuseki19.data"))) {
-				bigMap = (BigHashMap<short[]>) in.readObject();
+		void close() throws IOException {
+			in.close();
+		}
+
+		@Override
+		public int compareTo(RunReader that) {
+			if (hash != that.hash) {
+				return hash < that.hash ? -1 : 1;
 			}
-			try (ObjectOutputStream out = new ObjectOutputStream(
-					new FileOutputStream(objectFilePath + File.separator + "fuseki19.data"))) {
-				findHighestCounts();
-				out.writeObject(maxMoves);
-				out.writeObject(finalMap);
+			return Short.compare(move, that.move);
+		}
+
+		/** 读下一个条目. 返回false如果段已经读完. */
+		boolean next() throws IOException {
+			try {
+				hash = in.readLong();
+			} catch (final EOFException e) {
+				return false;
 			}
-		} catch (final Exception e) {
-			e.printStackTrace();
-			System.exit(1);
+			move = in.readShort();
+			count = in.readInt();
+			return true;
 		}
 	}
 
-	/**
-	 * 查找大约等于countThreshold的最常见着子，否则，返回NO_POINT.
-	 */
-	private short findHighest(short[] counts) {
-		short winner = CoordinateSystem.NO_POINT;
-		if (counts.length <= MEDIUM_ARRAY_LIMIT) {
-			sort(counts);
-			final short[] frequency = new short[coords.getFirstPointBeyondBoard()];
-			short mostFrequent = 0;
-			for (short p = 0; p < counts.length; p++) {
-				frequency[counts[p]]++;
-				if (frequency[counts[p]] >= mostFrequent) {
-					mostFrequent = frequency[counts[p]];
-					if (mostFrequent >= countThreshold) {
-						winner = counts[p];
-					}
+	/** 每个线程的状态: 重放棋局的棋盘和计数表. */
+	private final class Worker {
+
+		private final Board board;
+
+		private final MoveCounter counter;
+
+		private final SgfStream stream;
+
+		private final BookSymmetry symmetry;
+
+		Worker() {
+			board = new Board(coords.getWidth());
+			counter = new MoveCounter(entriesPerThread);
+			stream = new SgfStream(coords, true, maxMoves);
+			symmetry = new BookSymmetry(coords);
+			allWorkers.add(this);
+		}
+
+		/** 处理棋局中的着子，按规范化的局面计数. */
+		private void processGame(short[] moves, int length) {
+			board.clear();
+			for (int i = 0; i < length; i++) {
+				final short move = moves[i];
+				final int t = symmetry.canonicalize(board);
+				if (counter.add(symmetry.getCanonicalHash(), symmetry.transform(t, move))) {
+					spill(counter);
 				}
+				board.play(move);
 			}
-		} else {
-			for (final short p : coords.getAllPointsOnBoard()) {
-				if (counts[p] >= countThreshold && counts[p] >= counts[winner]) {
-					winner = p;
-				}
+		}
+
+		void processFile(File file) {
+			try {
+				gamesProcessed.addAndGet(stream.parseFile(file, this::processGame));
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			final int n = filesProcessed.incrementAndGet();
+			if (verbose && n % 10000 == 0) {
+				System.out.println(n + " 个文件, " + gamesProcessed.get() + " 局");
 			}
 		}
-		return winner;
 	}
 
+	/** 所有线程的状态, 在最后写出剩下的计数. */
+	private final Queue<Worker> allWorkers;
+
+	private final CoordinateSystem coords;
+
 	/**
-	 * 对每一个棋盘配置查找最流行的下一步，存储在finalMap中.
+	 * 当着子至少这多次时，此着子才被存储在最终的棋谱中.
 	 */
-	private void findHighestCounts() {
-		for (final long boardHash : bigMap.getKeys()) {
-			final short[] moves = bigMap.get(boardHash);
-			// This null check is necessary -- see BigHashMap.getKeys()
-			if (moves != null) {
-				final short move = findHighest(moves);
-				if (move != CoordinateSystem.NO_POINT) {
-					finalMap.put(boardHash, move);
-				}
-			}
-		}
+	private final int countThreshold;
+
+	/** 每个线程的计数表满以前的条目数. */
+	private final int entriesPerThread;
+
+	private final AtomicInteger filesProcessed;
+
+	private final AtomicLong gamesProcessed;
+
+	/** 棋局中在和超过此深度的着子被忽略. */
+	private final int maxMoves;
+
+	/** 目录存储段和最终的棋谱. */
+	private final String objectFilePath;
+
+	/** 下一个段的编号. */
+	private final AtomicInteger runNumbers;
+
+	/** 已写出的段. */
+	private final List<File> runs;
+
+	private final int threads;
+
+	/** 如果true，通过打印消息到标准输出指出进度. */
+	private final boolean verbose;
+
+	/** 每个线程的状态. */
+	private final ThreadLocal<Worker> workers;
+
+	public FusekiBookBuilder(int width, int maxMoves, int countThreshold, String directoryName, boolean verbose) {
+		this(width, maxMoves, countThreshold, directoryName, verbose, Runtime.getRuntime().availableProcessors(),
+				512);
 	}
 
 	/**
-	 * 分析文件，修改smallMap and bigMap. 如果文件是目录，递归分析.
+	 * @param width
+	 *            棋盘宽度. 只处理这个宽度的棋局.
+	 * @param threads
+	 *            解析文件的线程数.
+	 * @param megabytes
+	 *            所有线程的计数表共用的内存预算.
 	 */
-	void processFiles(File file) {
-		if (file.isDirectory()) {
-			if (verbose) {
-				System.out.println("Analyzing files in " + file.getName());
-			}
-			for (final File tempFile : file.listFiles()) {
-				processFiles(tempFile);
-			}
-		} else if (file.getPath().endsWith(".sgf")) {
-			final SgfParser parser = new SgfParser(coords, true);
-			final List<List<Short>> games = parser.parseGamesFromFile(file, maxMoves);
-			processGames(games);
-		}
+	public FusekiBookBuilder(int width, int maxMoves, int countThreshold, String directoryName, boolean verbose,
+			int threads, int megabytes) {
+		this.maxMoves = maxMoves;
+		this.countThreshold = countThreshold;
+		this.threads = threads;
+		this.verbose = verbose;
+		coords = CoordinateSystem.forWidth(width);
+		entriesPerThread = (int) Math.min(Integer.MAX_VALUE / 2, (long) megabytes * (1 << 20) / threads
+				/ BYTES_PER_ENTRY);
+		objectFilePath = GINKGO_ROOT + directoryName;
+		new File(objectFilePath).mkdir();
+		allWorkers = new ConcurrentLinkedQueue<>();
+		runNumbers = new AtomicInteger();
+		runs = Collections.synchronizedList(new ArrayList<>());
+		workers = ThreadLocal.withInitial(Worker::new);
+		filesProcessed = new AtomicInteger();
+		gamesProcessed = new AtomicLong();
 	}
 
-	/** 处理棋局中的着子，更新bigMap和smallMap. */
-	private void processGame(List<Short> game) {
-		final short[] transformations = new short[8];
-		for (final short move : game) {
-			transformations[0] = move;
-			transformations[1] = rotate90(move);
-			transformations[2] = rotate90(transformations[1]);
-			transformations[3] = rotate90(transformations[2]);
-			transformations[4] = reflect(move);
-			transformations[5] = rotate90(transformations[4]);
-			transformations[6] = rotate90(transformations[5]);
-			transformations[7] = rotate90(transformations[6]);
-			for (int i = 0; i < transformations.length; i++) {
-				processMove(transformations[i], boards[i].getFancyHash());
-				boards[i].play(transformations[i]);
+	/**
+	 * 处理目录中的所有SGF文件, 把棋谱写到fuseki宽度.book. 返回棋谱文件.
+	 */
+	public File build(File directory) throws IOException {
+		final long start = System.currentTimeMillis();
+		final List<File> files = new ArrayList<>();
+		findFiles(directory, files);
+		if (verbose) {
+			System.out.println("找到 " + files.size() + " 个SGF文件, 用 " + threads + " 个线程, 每线程 "
+					+ entriesPerThread + " 个条目");
+		}
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new FileTask(files, 0, files.size()));
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		for (final Worker worker : allWorkers) {
+			if (worker.counter.size() > 0) {
+				spill(worker.counter);
 			}
 		}
+		final long parsed = System.currentTimeMillis();
+		final File book = new File(objectFilePath, "fuseki" + coords.getWidth() + ".book");
+		final int entries = merge(book);
+		for (final File run : runs) {
+			Files.delete(run.toPath());
+		}
+		if (verbose) {
+			final long end = System.currentTimeMillis();
+			System.out.println(gamesProcessed.get() + " 局, " + runs.size() + " 个段, 解析 " + (parsed - start)
+					+ " 毫秒 (" + gamesProcessed.get() * 1000 / Math.max(1, parsed - start) + " 局/秒), 归并 "
+					+ (end - parsed) + " 毫秒, 写入 " + entries + " 个条目到 " + book);
+		}
+		return book;
 	}
 
-	/** 对所有指定的棋局更新smallMap和bigMap. */
-	private void processGames(List<List<Short>> games) {
-		for (final List<Short> game : games) {
-			for (final Board board : boards) {
-				board.clear();
+	/** 把file中或file下(递归)的所有SGF文件加入files. */
+	private void findFiles(File file, List<File> files) {
+		if (file.isDirectory()) {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				for (final File child : children) {
+					findFiles(child, files);
+				}
 			}
-			processGame(game);
+		} else if (file.getPath().endsWith(".sgf")) {
+			files.add(file);
 		}
 	}
 
 	/**
-	 * 分析着子作为fancyHash的响应, 更新bigMap和smallMap.
+	 * 多路归并所有的段, 把每个局面至少出现countThreshold次的最常见着子(相同时取较大的点)写入book. 返回条目数.
 	 */
-	private void processMove(short move, long fancyHash) {
-		if (bigMap.containsKey(fancyHash)) {
-			// bigMap中的条目要么是一个着子列表(中型)，要么是一个计数的着子索引数组。
-			final short[] array = bigMap.get(fancyHash);
-			if (array.length < MEDIUM_ARRAY_LIMIT) {
-				// 它是中等的，但是有空间让它变大
-				final short[] temp = new short[array.length + 1];
-				for (int i = 0; i < array.length; i++) {
-					temp[i] = array[i];
-				}
-				temp[temp.length - 1] = move;
-				bigMap.put(fancyHash, temp);
-			} else if (array.length == MEDIUM_ARRAY_LIMIT) {
-				// 它达到了中等大小的极限;把它转换成大
-				final short[] temp = new short[coords.getFirstPointBeyondBoard()];
-				for (int i = 0; i < array.length; i++) {
-					temp[array[i]]++;
-				}
-				temp[move]++;
-				bigMap.put(fancyHash, temp);
+	private int merge(File book) throws IOException {
+		final File entriesFile = new File(objectFilePath, "fuseki" + coords.getWidth() + ".entries");
+		final PriorityQueue<RunReader> queue = new PriorityQueue<>();
+		for (final File run : runs) {
+			final RunReader reader = new RunReader(run);
+			if (reader.next()) {
+				queue.add(reader);
 			} else {
-				// 它已经大;只是增加一个计数
-				array[move]++;
-				if (array[move] < 0) {
-					array[move] = Short.MAX_VALUE;
+				reader.close();
+			}
+		}
+		int entries = 0;
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(entriesFile), 1 << 16))) {
+			long hash = 0;
+			short move = NO_POINT;
+			int count = 0;
+			short bestMove = NO_POINT;
+			int bestCount = 0;
+			while (!queue.isEmpty() || count > 0) {
+				final RunReader reader = queue.poll();
+				if (reader != null && reader.hash == hash && reader.move == move && count > 0) {
+					count += reader.count;
+				} else {
+					// 上一个(哈希, 着子)的计数完整了
+					if (count >= bestCount) {
+						bestMove = move;
+						bestCount = count;
+					}
+					if (reader == null || reader.hash != hash) {
+						// 上一个局面完整了
+						if (bestCount >= countThreshold) {
+							out.writeLong(hash);
+							out.writeShort(bestMove);
+							entries++;
+						}
+						bestCount = 0;
+					}
+					if (reader == null) {
+						break;
+					}
+					hash = reader.hash;
+					move = reader.move;
+					count = reader.count;
+				}
+				if (reader.next()) {
+					queue.add(reader);
+				} else {
+					reader.close();
 				}
 			}
-		} else if (smallMap.containsKey(fancyHash)) {
-			// 我们以前见过这个哈希;变小到中。
-			final short[] temp = new short[2];
-			temp[0] = smallMap.get(fancyHash);
-			temp[1] = move;
-			bigMap.put(fancyHash, temp);
-		} else {
-			// 我们第一次看到这个散列;添加到smallmap
-			smallMap.put(fancyHash, move);
 		}
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(book), 1 << 16))) {
+			MappedFusekiBook.writeHeader(out, new int[] { coords.getWidth() }, new int[] { maxMoves },
+					new int[] { entries });
+			Files.copy(entriesFile.toPath(), out);
+		}
+		Files.delete(entriesFile.toPath());
+		return entries;
 	}
 
-	/** 返回着子在线c=r的镜像点. */
-	public short reflect(short move) {
-		final int row = coords.row(move);
-		final int col = coords.column(move);
-		final int r2 = coords.getWidth() - 1 - col;
-		final int c2 = coords.getWidth() - 1 - row;
-		final short p = coords.at(r2, c2);
-		return p;
-	}
-
-	/** 返回着子反时针旋转90度的点. */
-	public short rotate90(short move) {
-		final int row = coords.row(move);
-		final int col = coords.column(move);
-		final int r2 = coords.getWidth() - 1 - col;
-		final int c2 = row;
-		final short p = coords.at(r2, c2);
-		return p;
-	}
-
-	/** 写粗略棋谱到文件中. */
-	public void writeRawBook() {
-		final File directory = new File(objectFilePath + File.separator + "rawfuseki19.data");
-		try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(directory))) {
-			out.writeObject(bigMap);
+	/** 把计数表写为一个新的段并清空它. */
+	private void spill(MoveCounter counter) {
+		final File run = new File(objectFilePath, "fuseki" + coords.getWidth() + "-" + runNumbers.getAndIncrement()
+				+ ".run");
+		try {
+			counter.writeSorted(run);
 		} catch (final IOException e) {
-			e.printStackTrace();
-			System.exit(1);
+			throw new UncheckedIOException(e);
 		}
+		runs.add(run);
 	}
+
 }
@@ -0,0 +1,55 @@
+package com.github.fangyun.ginkgo.book;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把一个或多个布局棋谱合并为MappedFusekiBook可内存映射的文件, 每种棋盘宽度成为一节. 输入可以是序列化的棋谱(宽度:文件, 例如
+ * books/ginkgo_fuseki19.data), 或FusekiBookBuilder产生的可映射的棋谱(文件, 复制其中所有的节).
+ * <p>
+ * 用法: FusekiBookConverter 输出文件 输入 [输入 ...]
+ */
+public final class FusekiBookConverter {
+
+	public static void main(String[] args) throws IOException, ClassNotFoundException {
+		if (args.length < 2) {
+			System.err.println("用法: FusekiBookConverter 输出文件 宽度:序列化的棋谱|可映射的棋谱 ...");
+			System.exit(1);
+		}
+		final long start = System.currentTimeMillis();
+		final List<Integer> widths = new ArrayList<>();
+		final List<Integer> maxMoves = new ArrayList<>();
+		final List<SmallHashMap> books = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			final String argument = args[i];
+			final int j = argument.indexOf(':');
+			if (j > 0 && argument.substring(0, j).matches("\\d+")) {
+				try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(argument.substring(j + 1)))) {
+					widths.add(Integer.parseInt(argument.substring(0, j)));
+					maxMoves.add((Integer) in.readObject());
+					books.add((SmallHashMap) in.readObject());
+				}
+			} else {
+				final MappedFusekiBook book = new MappedFusekiBook(argument);
+				for (final int width : book.getWidths()) {
+					widths.add(width);
+					maxMoves.add(book.getMaxMoves(width));
+					books.add(book.toMap(width));
+				}
+			}
+		}
+		final int n = widths.size();
+		for (int i = 0; i < n; i++) {
+			if (widths.indexOf(widths.get(i)) != i) {
+				throw new IllegalArgumentException("重复的棋盘宽度: " + widths.get(i));
+			}
+		}
+		MappedFusekiBook.write(args[0], widths.stream().mapToInt(Integer::intValue).toArray(),
+				maxMoves.stream().mapToInt(Integer::intValue).toArray(), books.toArray(new SmallHashMap[n]));
+		System.out.println("写入 " + args[0] + " (" + n + "节), 用时 " + (System.currentTimeMillis() - start) + " 毫秒");
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.github.fangyun.ginkgo.book;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.MAX_POSSIBLE_BOARD_WIDTH;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
+import static com.github.fangyun.ginkgo.experiment.Logging.isLoggable;
+import static com.github.fangyun.ginkgo.experiment.Logging.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+
+/**
+ * 只读地内存映射的布局棋谱. 载入时只读文件头, 查找时在映射的文件中二分查找, 所以载入不花时间, 也不受棋谱大小影响,
+ * 同一主机上的多个进程共享同一份物理内存.
+ * <p>
+ * 键是BookSymmetry规范化的哈希, 着子按同一变换存储. 一个文件可以有多节, 每节对应一种棋盘宽度.
+ * 文件格式见{@link #write(String, int[], int[], SmallHashMap[])}. 因为用一个MappedByteBuffer, 文件不能超过2GB.
+ */
+public final class MappedFusekiBook implements OpeningBook {
+
+	/** 文件格式的魔数, "GKFB". */
+	private static final int MAGIC = 0x474B4642;
+
+	/** 文件格式的版本. */
+	private static final int VERSION = 1;
+
+	/** 文件头的字节数. */
+	private static final int HEADER_BYTES = 16;
+
+	/** 每节目录项的字节数. */
+	private static final int SECTION_BYTES = 24;
+
+	/** 每个条目的字节数: 8字节的键和2字节的着子. */
+	private static final int ENTRY_BYTES = 10;
+
+	/** 映射的文件. */
+	private final MappedByteBuffer buffer;
+
+	/** entries[w]为宽度w的节的条目数, 没有这一节时为0. */
+	private final int[] entries;
+
+	/** maxMoves[w]为宽度w的节中最大的手数; 到了这一手就不再查棋谱. */
+	private final int[] maxMoves;
+
+	/** offsets[w]为宽度w的节的第一个条目在文件中的位置. */
+	private final long[] offsets;
+
+	/** symmetries[w]为宽度w的对称, 在第一次查找时创建. */
+	private final BookSymmetry[] symmetries;
+
+	public MappedFusekiBook(String filePath) {
+		entries = new int[MAX_POSSIBLE_BOARD_WIDTH + 1];
+		maxMoves = new int[MAX_POSSIBLE_BOARD_WIDTH + 1];
+		offsets = new long[MAX_POSSIBLE_BOARD_WIDTH + 1];
+		symmetries = new BookSymmetry[MAX_POSSIBLE_BOARD_WIDTH + 1];
+		MappedByteBuffer mapped = null;
+		try (RandomAccessFile file = new RandomAccessFile(filePath, "r");
+				FileChannel channel = file.getChannel()) {
+			mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+				throw new IOException("不支持的布局棋谱文件: " + filePath);
+			}
+			final int sections = mapped.getInt(8);
+			for (int i = 0; i < sections; i++) {
+				final int position = HEADER_BYTES + i * SECTION_BYTES;
+				final int width = mapped.getInt(position);
+				final long offset = mapped.getLong(position + 16);
+				final int count = mapped.getInt(position + 8);
+				if (width < 1 || width > MAX_POSSIBLE_BOARD_WIDTH
+						|| offset + (long) count * ENTRY_BYTES > channel.size()) {
+					throw new IOException("布局棋谱文件的第" + i + "节损坏: " + filePath);
+				}
+				maxMoves[width] = mapped.getInt(position + 4);
+				entries[width] = count;
+				offsets[width] = offset;
+			}
+			if (isLoggable()) {
+				log("映射布局棋谱 " + filePath + ", " + sections + "节");
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		buffer = mapped;
+	}
+
+	/**
+	 * 在宽度width的节中二分查找键, 返回存储的着子, 没有时返回NO_POINT.
+	 */
+	private short find(int width, long key) {
+		final long base = offsets[width];
+		int low = 0;
+		int high = entries[width] - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int position = (int) (base + (long) middle * ENTRY_BYTES);
+			final long k = buffer.getLong(position);
+			if (k < key) {
+				low = middle + 1;
+			} else if (k > key) {
+				high = middle - 1;
+			} else {
+				return buffer.getShort(position + 8);
+			}
+		}
+		return NO_POINT;
+	}
+
+	/** 返回宽度width的节的最大手数. */
+	int getMaxMoves(int width) {
+		return maxMoves[width];
+	}
+
+	/** 返回有节的所有棋盘宽度. */
+	int[] getWidths() {
+		int n = 0;
+		for (final int count : entries) {
+			if (count > 0) {
+				n++;
+			}
+		}
+		final int[] result = new int[n];
+		n = 0;
+		for (int w = 0; w < entries.length; w++) {
+			if (entries[w] > 0) {
+				result[n++] = w;
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public short nextMove(Board board) {
+		final CoordinateSystem coords = board.getCoordinateSystem();
+		final int width = coords.getWidth();
+		if (board.getTurn() >= maxMoves[width] || entries[width] == 0) {
+			return NO_POINT;
+		}
+		if (symmetries[width] == null) {
+			symmetries[width] = new BookSymmetry(coords);
+		}
+		final BookSymmetry symmetry = symmetries[width];
+		final int t = symmetry.canonicalize(board);
+		final short stored = find(width, symmetry.getCanonicalHash());
+		if (stored == NO_POINT) {
+			return NO_POINT;
+		}
+		final short move = symmetry.inverse(t, stored);
+		if (board.isLegal(move)) {
+			return move;
+		}
+		return NO_POINT;
+	}
+
+	/** 把宽度width的节读入一个SmallHashMap. */
+	SmallHashMap toMap(int width) {
+		final SmallHashMap result = new SmallHashMap();
+		for (int i = 0; i < entries[width]; i++) {
+			final int position = (int) (offsets[width] + (long) i * ENTRY_BYTES);
+			result.put(buffer.getLong(position), buffer.getShort(position + 8));
+		}
+		return result;
+	}
+
+	/**
+	 * 把几个棋谱写为可映射的格式. 文件头为魔数、版本、节数和保留的0(16字节, 大端); 其后每节的目录项为宽度、最大手数、条目数、
+	 * 保留的0和第一个条目的位置(24字节); 最后是各节的条目, 每个条目为规范化的哈希(long)和着子(short), 按哈希(有符号)升序.
+	 *
+	 * @param widths
+	 *            每节的棋盘宽度, 不能重复.
+	 * @param maxMoves
+	 *            每节中最大的手数.
+	 * @param books
+	 *            每节的棋谱, 键是规范化的哈希.
+	 */
+	public static void write(String filePath, int[] widths, int[] maxMoves, SmallHashMap[] books)
+			throws IOException {
+		final long[][] keys = new long[books.length][];
+		for (int i = 0; i < books.length; i++) {
+			keys[i] = books[i].getSortedKeys();
+		}
+		final int[] counts = new int[books.length];
+		for (int i = 0; i < books.length; i++) {
+			counts[i] = keys[i].length;
+		}
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16))) {
+			writeHeader(out, widths, maxMoves, counts);
+			for (int i = 0; i < books.length; i++) {
+				for (final long key : keys[i]) {
+					out.writeLong(key);
+					out.writeShort(books[i].get(key));
+				}
+			}
+		}
+	}
+
+	/**
+	 * 写文件头和各节的目录项. 其后应当依次写各节的counts[i]个条目.
+	 */
+	static void writeHeader(DataOutputStream out, int[] widths, int[] maxMoves, int[] counts) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(widths.length);
+		out.writeInt(0);
+		long offset = HEADER_BYTES + (long) widths.length * SECTION_BYTES;
+		for (int i = 0; i < widths.length; i++) {
+			out.writeInt(widths[i]);
+			out.writeInt(maxMoves[i]);
+			out.writeInt(counts[i]);
+			out.writeInt(0);
+			out.writeLong(offset);
+			offset += (long) counts[i] * ENTRY_BYTES;
+		}
+	}
+
+}
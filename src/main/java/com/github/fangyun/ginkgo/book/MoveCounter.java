@@ -0,0 +1,153 @@
+package com.github.fangyun.ginkgo.book;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 对(局面哈希, 着子)计数. 用基本类型数组的开放定址哈希表, 不创建对象. 满了以后由FusekiBookBuilder把它按(哈希, 着子)排序写入磁盘
+ * (一个"段")并清空.
+ */
+final class MoveCounter {
+
+	/** 最多的条目数, 使槽数(两倍)仍是int范围内的2的幂. */
+	private static final int MAX_ENTRIES = 1 << 29;
+
+	/** counts[i]为槽i的计数, 0表示空槽. */
+	private final int[] counts;
+
+	private final long[] hashes;
+
+	/** 表满以前最多的条目数, 为槽数的一半. */
+	private final int maxEntries;
+
+	private final short[] moves;
+
+	/** 槽数减1. */
+	private final int mask;
+
+	/** 不同的(哈希, 着子)数. */
+	private int size;
+
+	/**
+	 * @param maxEntries
+	 *            表满以前最多的条目数(预算). 实际取不超过它的最大的2的幂, 所以不会超出预算.
+	 */
+	MoveCounter(int maxEntries) {
+		this.maxEntries = Integer.highestOneBit(Math.max(1, Math.min(maxEntries, MAX_ENTRIES)));
+		final int capacity = this.maxEntries * 2;
+		mask = capacity - 1;
+		hashes = new long[capacity];
+		moves = new short[capacity];
+		counts = new int[capacity];
+	}
+
+	/**
+	 * 把(hash, move)的计数加1. 返回true如果表已经满了, 应当写出.
+	 */
+	boolean add(long hash, short move) {
+		int slot = (int) ((hash ^ move * 0xC2B2AE3D27D4EB4FL) * 0x9E3779B97F4A7C15L >>> 32) & mask;
+		while (counts[slot] != 0) {
+			if (hashes[slot] == hash && moves[slot] == move) {
+				counts[slot]++;
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot] = hash;
+		moves[slot] = move;
+		counts[slot] = 1;
+		size++;
+		return size >= maxEntries;
+	}
+
+	/** 返回i号条目是否排在j号条目之前. */
+	private boolean before(int i, int j) {
+		return hashes[i] < hashes[j] || hashes[i] == hashes[j] && moves[i] < moves[j];
+	}
+
+	/** 返回不同的(哈希, 着子)数. */
+	int size() {
+		return size;
+	}
+
+	/** 把条目[low, high]按(哈希, 着子)排序. */
+	private void sort(int low, int high) {
+		while (high - low > 16) {
+			final int middle = (low + high) >>> 1;
+			// 三数取中作为枢轴, 放在high
+			if (before(middle, low)) {
+				swap(middle, low);
+			}
+			if (before(high, low)) {
+				swap(high, low);
+			}
+			if (before(middle, high)) {
+				swap(middle, high);
+			}
+			int i = low;
+			for (int j = low; j < high; j++) {
+				if (before(j, high)) {
+					swap(i++, j);
+				}
+			}
+			swap(i, high);
+			// 先递归较小的一边, 使栈深度为对数
+			if (i - low < high - i) {
+				sort(low, i - 1);
+				low = i + 1;
+			} else {
+				sort(i + 1, high);
+				high = i - 1;
+			}
+		}
+		for (int i = low + 1; i <= high; i++) {
+			for (int j = i; j > low && before(j, j - 1); j--) {
+				swap(j, j - 1);
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		final long hash = hashes[i];
+		hashes[i] = hashes[j];
+		hashes[j] = hash;
+		final short move = moves[i];
+		moves[i] = moves[j];
+		moves[j] = move;
+		final int count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+	}
+
+	/**
+	 * 把所有条目按(哈希, 着子)升序写入file, 每个条目为哈希(long)、着子(short)和计数(int), 然后清空表.
+	 */
+	void writeSorted(File file) throws IOException {
+		// 把非空的槽移到前面; 此后表不再是哈希表, 直到清空
+		int n = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0) {
+				hashes[n] = hashes[i];
+				moves[n] = moves[i];
+				counts[n] = counts[i];
+				n++;
+			}
+		}
+		sort(0, n - 1);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (int i = 0; i < n; i++) {
+				out.writeLong(hashes[i]);
+				out.writeShort(moves[i]);
+				out.writeInt(counts[i]);
+			}
+		}
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+}
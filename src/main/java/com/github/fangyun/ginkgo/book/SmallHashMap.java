@@ -4,6 +4,7 @@ import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
 import static com.github.fangyun.ginkgo.core.SuperKoTable.IGNORE_SIGN_BIT;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 /**
  * 映射longs到shorts.
@@ -62,6 +63,19 @@ public final class SmallHashMap implements Serializable {
 		return keys;
 	}
 
+	/** 返回所有的键, 按升序排列. */
+	long[] getSortedKeys() {
+		final long[] result = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (values[i] != NO_POINT) {
+				result[n++] = keys[i];
+			}
+		}
+		Arrays.sort(result, 0, n);
+		return n == size ? result : Arrays.copyOf(result, n);
+	}
+
 	/** 关联key和value，如果map太满了，则伸展map.*/
 	public void put(long key, short value) {
 		assert value != NO_POINT;
@@ -32,6 +32,17 @@ public final class Board implements Serializable {
 	/** 被最近着子提走的棋子. */
 	private final ShortList capturedStones;
 
+	/**
+	 * chainIndex[r]为以r为根的棋串在chainsByLiberties中的位置(颜色 * 3 + 气数分类), 如果r不是被索引的根则为-1.
+	 */
+	private final byte[] chainIndex;
+
+	/**
+	 * chainsByLiberties[c][k]为颜色c的有k + 1口气(k = 2时为3口或更多)的所有棋串的根. 随着棋串的创建、合并、被提和气数改变而维护,
+	 * 因此可以不扫描地列举被打吃或气少的棋串.
+	 */
+	private final ShortSet[][] chainsByLiberties;
+
 	/** 下步棋的棋子颜色. */
 	private StoneColor colorToPlay;
 
@@ -43,6 +54,12 @@ public final class Board implements Serializable {
 	 */
 	private final ShortList enemyNeighboringChainIds;
 
+	/**
+	 * eyeCounts[c]为颜色c的单点眼数, 即每个邻居都是颜色c的棋子或棋盘外的空点数. 与stoneDifference一起随着子和提子维护,
+	 * 所以棋局结束时数子不必扫描棋盘.
+	 */
+	private final int[] eyeCounts;
+
 	/** 最近着子后己方的棋串ID. */
 	private final ShortList friendlyNeighboringChainIds;
 
@@ -53,6 +70,9 @@ public final class Board implements Serializable {
 	 */
 	private long hash;
 
+	/** playFast之后为true, 表示hash不再是当前位置的哈希, 由getHash重新计算. */
+	private boolean hashStale;
+
 	/**
 	 * 用于撤销着子，因此我们有一个初始化已下棋子的记录.
 	 */
@@ -84,6 +104,9 @@ public final class Board implements Serializable {
 	 */
 	private final SuperKoTable superKoTable;
 
+	/** 黑子数减去白子数. */
+	private int stoneDifference;
+
 	/** @see #getTurn() */
 	private short turn;
 
@@ -106,6 +129,14 @@ public final class Board implements Serializable {
 		neighborsOfCapturedStone = new ShortList(4);
 		observers = new BoardObserver[0];
 		initialStones = new ShortSet[] { new ShortSet(n), new ShortSet(n) };
+		chainIndex = new byte[n];
+		eyeCounts = new int[2];
+		chainsByLiberties = new ShortSet[2][3];
+		for (final ShortSet[] sets : chainsByLiberties) {
+			for (int k = 0; k < sets.length; k++) {
+				sets[k] = new ShortSet(n);
+			}
+		}
 		clear();
 	}
 
@@ -128,6 +159,7 @@ public final class Board implements Serializable {
 		for (int i = 0; i < enemyNeighboringChainIds.size(); i++) {
 			final short enemy = enemyNeighboringChainIds.get(i);
 			if (points[enemy].isInAtari()) {
+				unindexChain(enemy);
 				short s = enemy;
 				do {
 					removeStone(s);
@@ -135,6 +167,7 @@ public final class Board implements Serializable {
 				} while (s != enemy);
 			} else {
 				points[enemy].liberties.removeKnownPresent(p);
+				indexChain(enemy);
 			}
 		}
 	}
@@ -147,6 +180,9 @@ public final class Board implements Serializable {
 			// 如果没有己方邻居，创建单子棋串
 			points[p].becomeOneStoneChain(lastPlayLiberties);
 		} else {
+			for (int i = 0; i < friendlyNeighboringChainIds.size(); i++) {
+				unindexChain(friendlyNeighboringChainIds.get(i));
+			}
 			short c = friendlyNeighboringChainIds.get(0);
 			points[p].addToChain(points[c]);
 			points[c].liberties.addAll(lastPlayLiberties);
@@ -165,6 +201,7 @@ public final class Board implements Serializable {
 			}
 			points[c].liberties.removeKnownPresent(p);
 		}
+		indexChain(points[p].chainId);
 	}
 
 	/**
@@ -174,14 +211,24 @@ public final class Board implements Serializable {
 	public void clear() {
 		colorToPlay = BLACK;
 		hash = SuperKoTable.EMPTY;
+		hashStale = false;
+		eyeCounts[0] = 0;
+		eyeCounts[1] = 0;
 		koPoint = NO_POINT;
 		passes = 0;
+		stoneDifference = 0;
 		superKoTable.clear();
 		turn = 0;
 		vacantPoints.clear();
 		for (final ShortSet stones : initialStones) {
 			stones.clear();
 		}
+		Arrays.fill(chainIndex, (byte) -1);
+		for (final ShortSet[] sets : chainsByLiberties) {
+			for (final ShortSet set : sets) {
+				set.clear();
+			}
+		}
 		for (final short p : coords.getAllPointsOnBoard()) {
 			points[p].clear();
 			vacantPoints.addKnownAbsent(p);
@@ -218,8 +265,17 @@ public final class Board implements Serializable {
 	 * 拷贝棋盘.
 	 */
 	public void copyDataFrom(Board that) {
+		System.arraycopy(that.chainIndex, 0, chainIndex, 0, chainIndex.length);
+		for (int c = 0; c < chainsByLiberties.length; c++) {
+			for (int k = 0; k < chainsByLiberties[c].length; k++) {
+				chainsByLiberties[c][k].copyDataFrom(that.chainsByLiberties[c][k]);
+			}
+		}
 		colorToPlay = that.colorToPlay;
+		eyeCounts[0] = that.eyeCounts[0];
+		eyeCounts[1] = that.eyeCounts[1];
 		hash = that.hash;
+		hashStale = that.hashStale;
 		koPoint = that.koPoint;
 		for (int i = 0; i < observers.length; i++) {
 			observers[i].copyDataFrom(that.observers[i]);
@@ -228,11 +284,25 @@ public final class Board implements Serializable {
 		for (final short p : coords.getAllPointsOnBoard()) {
 			points[p].copyDataFrom(that.points[p]);
 		}
+		stoneDifference = that.stoneDifference;
 		superKoTable.copyDataFrom(that.superKoTable);
 		turn = that.turn;
 		vacantPoints.copyDataFrom(that.vacantPoints);
 	}
 
+	/**
+	 * 如果p是单点眼，把delta加到它的颜色的眼数上. 在改变p的颜色或邻居计数之前用-1调用, 之后用1调用.
+	 */
+	private void countEye(short p, int delta) {
+		if (points[p].color == VACANT) {
+			if (points[p].hasMaxNeighborsForColor(BLACK)) {
+				eyeCounts[BLACK.index()] += delta;
+			} else if (points[p].hasMaxNeighborsForColor(WHITE)) {
+				eyeCounts[WHITE.index()] += delta;
+			}
+		}
+	}
+
 	/**
 	 * 着子后更新数据结构.
 	 *
@@ -243,12 +313,17 @@ public final class Board implements Serializable {
 	 */
 	private void finalizePlay(StoneColor color, short p) {
 		final int lastVacantPointCount = vacantPoints.size();
+		countEye(p, -1);
 		points[p].color = color;
+		stoneDifference += color == BLACK ? 1 : -1;
 		vacantPoints.remove(p);
 		final boolean surrounded = points[p].hasMaxNeighborsForColor(color.opposite());
 		final short[] neighbors = coords.getNeighbors(p);
 		for (int i = FIRST_ORTHOGONAL_NEIGHBOR; i <= LAST_ORTHOGONAL_NEIGHBOR; i++) {
-			points[neighbors[i]].neighborCounts += Point.NEIGHBOR_INCREMENT[color.index()];
+			final short n = neighbors[i];
+			countEye(n, -1);
+			points[n].neighborCounts += Point.NEIGHBOR_INCREMENT[color.index()];
+			countEye(n, 1);
 		}
 		adjustFriendlyNeighbors(p);
 		adjustEnemyNeighbors(p);
@@ -259,6 +334,22 @@ public final class Board implements Serializable {
 		}
 	}
 
+	/**
+	 * 返回给定颜色的有给定气数的所有棋串的根. 不要修改返回的集合.
+	 *
+	 * @param liberties
+	 *            1, 2, 或3(3口或更多气).
+	 */
+	public ShortSet getChainsByLiberties(StoneColor color, int liberties) {
+		assert liberties >= 1 && liberties <= 3;
+		return chainsByLiberties[color.index()][liberties - 1];
+	}
+
+	/** 返回给定颜色的被打吃的所有棋串的根. 不要修改返回的集合. */
+	public ShortSet getChainsInAtari(StoneColor color) {
+		return chainsByLiberties[color.index()][0];
+	}
+
 	/** 返回此点在棋串中临近点. */
 	public short getChainNextPoint(short p) {
 		return points[p].chainNextPoint;
@@ -284,11 +375,16 @@ public final class Board implements Serializable {
 		return coords;
 	}
 
+	/** 返回颜色的单点眼数(每个邻居都是该颜色的棋子或棋盘外的空点数). */
+	public int getEyeCount(StoneColor color) {
+		return eyeCounts[color.index()];
+	}
+
 	/**
 	 * 返回当前棋盘位置的Zobrist哈希, 合并简单劫点和着子颜色。这用在转换表中.
 	 */
 	public long getFancyHash() {
-		long result = hash;
+		long result = getHash();
 		if (koPoint != NO_POINT) {
 			result ^= coords.getHash(colorToPlay, koPoint);
 		}
@@ -300,12 +396,51 @@ public final class Board implements Serializable {
 	}
 
 	/**
-	 * 返回当前棋盘位置的Zobrist哈希,这用在超级劫表中.
+	 * 返回按transform变换后的棋盘的getFancyHash. transform[p]为点p的像, 例如旋转或镜像. 用于按对称规范化的棋谱键.
+	 */
+	public long getFancyHash(short[] transform) {
+		long result = SuperKoTable.EMPTY;
+		for (final short p : coords.getAllPointsOnBoard()) {
+			final Color color = points[p].color;
+			if (color != VACANT) {
+				result ^= coords.getHash(color, transform[p]);
+			}
+		}
+		if (koPoint != NO_POINT) {
+			result ^= coords.getHash(colorToPlay, transform[koPoint]);
+		}
+		if (colorToPlay == WHITE) {
+			result = ~result;
+		}
+		return result;
+	}
+
+	/**
+	 * 返回当前棋盘位置的Zobrist哈希,这用在超级劫表中. playFast不维护它, 所以playFast之后第一次调用时扫描棋盘重新计算.
 	 */
 	public long getHash() {
+		if (hashStale) {
+			long result = SuperKoTable.EMPTY;
+			for (final short p : coords.getAllPointsOnBoard()) {
+				final Color color = points[p].color;
+				if (color != VACANT) {
+					result ^= coords.getHash(color, p);
+				}
+			}
+			hash = result;
+			hashStale = false;
+		}
 		return hash;
 	}
 
+	/**
+	 * 返回true，如果getHash不必扫描棋盘. playFast之后为false, 直到下一次调用getHash. 只在哈希不是必需时用它的调用者(例如缓存)
+	 * 可以在false时不用哈希.
+	 */
+	public boolean isHashCurrent() {
+		return !hashStale;
+	}
+
 	/**
 	 * 返回点p的气.
 	 */
@@ -329,6 +464,11 @@ public final class Board implements Serializable {
 		return passes;
 	}
 
+	/** 返回黑子数减去白子数. */
+	public int getStoneDifference() {
+		return stoneDifference;
+	}
+
 	/**
 	 * 返回当前着子手数 (1基).
 	 */
@@ -352,7 +492,7 @@ public final class Board implements Serializable {
 	 *            将要着子的位置.
 	 */
 	private long hashAfterRemovingCapturedStones(StoneColor color, short p) {
-		long result = hash;
+		long result = getHash();
 		result ^= coords.getHash(color, p);
 		final StoneColor enemy = color.opposite();
 		for (int i = 0; i < enemyNeighboringChainIds.size(); i++) {
@@ -458,6 +598,16 @@ public final class Board implements Serializable {
 		return OK;
 	}
 
+	/** 把以root为根的棋串放入与其颜色和气数对应的chainsByLiberties中. */
+	private void indexChain(short root) {
+		final int code = points[root].color.index() * 3 + Math.min(points[root].liberties.size(), 3) - 1;
+		if (chainIndex[root] != code) {
+			unindexChain(root);
+			chainsByLiberties[code / 3][code % 3].addKnownAbsent(root);
+			chainIndex[root] = (byte) code;
+		}
+	}
+
 	/**
 	 * 从基点合并附加点棋串中. 每个参数都是将合并到棋串中的棋子.
 	 *
@@ -539,7 +689,7 @@ public final class Board implements Serializable {
 	}
 
 	/**
-	 * 相似与着子，但假定p点在棋盘上且没出现过. 不维护哈希值，也不检查超级劫.
+	 * 相似与着子，但假定p点在棋盘上且没出现过. 不维护哈希值(只标记为过时, 见{@link #getHash()})，也不检查超级劫.
 	 */
 	public Legality playFast(short p) {
 		final Legality result = legalityFast(colorToPlay, p);
@@ -547,6 +697,7 @@ public final class Board implements Serializable {
 			return result;
 		}
 		finalizePlay(colorToPlay, p);
+		hashStale = true;
 		colorToPlay = colorToPlay.opposite();
 		passes = 0;
 		turn++;
@@ -557,24 +708,41 @@ public final class Board implements Serializable {
 
 	/** 提掉在点p的棋子. */
 	private void removeStone(short p) {
+		final StoneColor captured = (StoneColor) points[p].color;
 		points[p].color = VACANT;
+		stoneDifference -= captured == BLACK ? 1 : -1;
 		vacantPoints.addKnownAbsent(p);
 		neighborsOfCapturedStone.clear();
 		final short[] neighbors = coords.getNeighbors(p);
 		for (int i = FIRST_ORTHOGONAL_NEIGHBOR; i <= LAST_ORTHOGONAL_NEIGHBOR; i++) {
 			final short n = neighbors[i];
+			countEye(n, -1);
 			points[n].neighborCounts -= Point.NEIGHBOR_INCREMENT[colorToPlay.opposite().index()];
+			countEye(n, 1);
 			if (points[n].color == BLACK | points[n].color == WHITE) {
 				neighborsOfCapturedStone.addIfNotPresent(points[n].chainId);
 			}
 		}
 		for (int k = 0; k < neighborsOfCapturedStone.size(); k++) {
-			final int c = neighborsOfCapturedStone.get(k);
+			final short c = neighborsOfCapturedStone.get(k);
 			points[c].liberties.addKnownAbsent(p);
+			if (points[c].color == captured.opposite()) {
+				indexChain(c);
+			}
 		}
+		countEye(p, 1);
 		capturedStones.add(p);
 	}
 
+	/** 如果root在chainsByLiberties中，把它移除. */
+	private void unindexChain(short root) {
+		final int code = chainIndex[root];
+		if (code >= 0) {
+			chainsByLiberties[code / 3][code % 3].removeKnownPresent(root);
+			chainIndex[root] = -1;
+		}
+	}
+
 	/**
 	 * 设置将要着子棋的颜色, 用在像GoGui中初始化棋子.
 	 */
@@ -638,8 +806,11 @@ public final class Board implements Serializable {
 
 	public void removeStones(ShortSet ourDead) {
 		for (int i = 0; i < ourDead.size(); i++) {
+			unindexChain(ourDead.get(i));
+			stoneDifference -= points[ourDead.get(i)].color == BLACK ? 1 : -1;
 			points[ourDead.get(i)].color = VACANT;
 			vacantPoints.addKnownAbsent(ourDead.get(i));
+			countEye(ourDead.get(i), 1);
 		}
 	}
 }
@@ -0,0 +1,289 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.RESIGN;
+import static com.github.fangyun.ginkgo.core.Legality.OK;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
+import static com.github.fangyun.ginkgo.experiment.ExperimentConfiguration.EXPERIMENT;
+import static com.github.fangyun.ginkgo.experiment.SystemConfiguration.SYSTEM;
+import static com.github.fangyun.ginkgo.sgf.SgfWriter.toSgf;
+import static java.io.File.separator;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.Color;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.mcts.Player;
+import com.github.fangyun.ginkgo.mcts.PlayerBuilder;
+import com.github.fangyun.ginkgo.score.ChineseFinalScorer;
+import com.github.fangyun.ginkgo.score.FinalScorer;
+
+/**
+ * 在一个JVM中让Ginkgo棋手同时对弈. 与GameBatch不同, 不为每个棋手启动进程并用GTP通信, 而是直接创建Player对象,
+ * 省去JVM启动、即时编译的预热和管道I/O, 因此适合很快的棋局.
+ * <p>
+ * 每个条件(见ExperimentConfiguration)与基准棋手(参数为always加上baseline)对弈gamesPerCondition局, 各执黑一半. 最多同时进行
+ * concurrentGames局, 每局占棋局线程池的一个线程; 所有棋手的McRunnables在一个共享的线程池中运行. 每个棋局线程保留它的棋手,
+ * 只在条件改变时重新构建, 新的一局只需清除棋手. 每局写为结果目录中的一个SGF文件, 结果追加到目录的ResultStore中;
+ * 如果配置了SPRT, 已有结论的条件不再下剩下的棋局. 最后打印每个条件的胜局数.
+ * <p>
+ * 用法: Arena [同时的棋局数 [每个棋手的线程数 [结果目录]]], 缺省为可用处理器数除以每个棋手的线程数, 1和系统结果目录下的新目录.
+ */
+public final class Arena {
+
+	/** 一局的手数达到棋盘面积的这个倍数时, 停止并计分. */
+	private static final int MAX_MOVES_PER_POINT = 3;
+
+	public static void main(String[] args) {
+		final int threadsPerPlayer = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+		final int concurrentGames = args.length > 0 ? Integer.parseInt(args[0])
+				: Math.max(1, Runtime.getRuntime().availableProcessors() / threadsPerPlayer);
+		final String results = args.length > 2 ? args[2] : SYSTEM.resultsDirectory + GameBatch.timeStamp(true);
+		try {
+			new Arena(concurrentGames, threadsPerPlayer, results).run();
+		} catch (final Throwable e) {
+			e.printStackTrace(System.out);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/** 一个棋局线程的棋手. */
+	private static final class Seat {
+
+		Player baseline;
+
+		Player condition;
+
+		/** condition的条件名. */
+		String conditionName;
+	}
+
+	private final int concurrentGames;
+
+	/** 每个棋手的转换表的兆字节数, 使所有棋手能同时放在堆中. 条件可以用memory参数覆盖. */
+	private final int megabytes;
+
+	private final String resultsDirectory;
+
+	/** 结果目录的结果文件. */
+	private final ResultStore store;
+
+	/** 所有棋手的McRunnables共享的线程池. */
+	private final ExecutorService searchPool;
+
+	/** 每个棋局线程的棋手. */
+	private final ThreadLocal<Seat> seats;
+
+	private final int threadsPerPlayer;
+
+	/**
+	 * @param concurrentGames
+	 *            同时进行的棋局数.
+	 * @param threadsPerPlayer
+	 *            每个棋手的线程数. 条件可以用threads参数覆盖.
+	 * @param resultsDirectory
+	 *            写SGF文件的目录.
+	 */
+	public Arena(int concurrentGames, int threadsPerPlayer, String resultsDirectory) throws IOException {
+		this.concurrentGames = concurrentGames;
+		this.threadsPerPlayer = threadsPerPlayer;
+		this.resultsDirectory = resultsDirectory.endsWith(separator) ? resultsDirectory
+				: resultsDirectory + separator;
+		new File(this.resultsDirectory).mkdirs();
+		store = ResultStore.forDirectory(this.resultsDirectory);
+		// 每个棋局线程有两个棋手, 给它们堆的一半
+		megabytes = (int) Math.max(16, Runtime.getRuntime().maxMemory() / (1 << 20) / (4 * concurrentGames));
+		searchPool = Executors.newCachedThreadPool();
+		seats = ThreadLocal.withInitial(() -> {
+			final Seat seat = new Seat();
+			seat.baseline = build(EXPERIMENT.baseline);
+			return seat;
+		});
+	}
+
+	/** 返回true如果SPRT对条件已有结论. */
+	private boolean isDecided(String conditionName) throws IOException {
+		if (EXPERIMENT.sprt == null) {
+			return false;
+		}
+		final int[] tally = store.tally(conditionName);
+		return EXPERIMENT.sprt.decide(tally[0], tally[1]) != Sprt.Decision.CONTINUE;
+	}
+
+	/** 构建有always和给定参数的棋手. */
+	private Player build(String arguments) {
+		final Player result = new PlayerBuilder().boardWidth(EXPERIMENT.rules.boardWidth)
+				.komi(EXPERIMENT.rules.komi).memorySize(megabytes).threads(threadsPerPlayer)
+				.arguments(EXPERIMENT.always + " " + arguments).build();
+		result.setExecutor(searchPool);
+		return result;
+	}
+
+	/**
+	 * 对弈一局并写SGF文件.
+	 *
+	 * @param conditionName
+	 *            与基准棋手对弈的条件.
+	 * @param conditionIsBlack
+	 *            如果true，条件执黑.
+	 * @return 棋局的胜方.
+	 */
+	private Color playGame(String conditionName, int number, boolean conditionIsBlack) throws IOException {
+		final Seat seat = seats.get();
+		if (!conditionName.equals(seat.conditionName)) {
+			// 先放开旧的棋手, 使它的转换表可以在构建新的棋手时被回收
+			seat.condition = null;
+			seat.condition = build(EXPERIMENT.conditions.get(conditionName));
+			seat.conditionName = conditionName;
+		}
+		final Player[] players = conditionIsBlack ? new Player[] { seat.condition, seat.baseline }
+				: new Player[] { seat.baseline, seat.condition };
+		for (final Player player : players) {
+			player.clear();
+		}
+		final Rules rules = EXPERIMENT.rules;
+		final Board board = new Board(rules.boardWidth);
+		final CoordinateSystem coords = board.getCoordinateSystem();
+		final FinalScorer scorer = new ChineseFinalScorer(board, rules.komi);
+		final long[] timeUsed = new long[2];
+		final StringBuilder moves = new StringBuilder();
+		final long startTime = System.currentTimeMillis();
+		final int maxMoves = MAX_MOVES_PER_POINT * coords.getArea();
+		Color winner;
+		String result;
+		while (true) {
+			final StoneColor color = board.getColorToPlay();
+			final Player player = players[color.index()];
+			if (rules.time > 0) {
+				player.setRemainingTime(Math.max(0, rules.time - (int) (timeUsed[color.index()] / 1000)));
+			}
+			final long requested = System.currentTimeMillis();
+			final short move = player.bestMove();
+			timeUsed[color.index()] += System.currentTimeMillis() - requested;
+			if (move == RESIGN) {
+				winner = color.opposite();
+				result = (winner == BLACK ? "B" : "W") + "+Resign";
+				break;
+			}
+			if (board.play(move) != OK) {
+				System.err.println(conditionName + " 第 " + number + " 局的非法着子: " + coords.toString(move));
+				winner = color.opposite();
+				result = (winner == BLACK ? "B" : "W") + "+Forfeit";
+				break;
+			}
+			for (final Player p : players) {
+				p.acceptMove(move);
+			}
+			moves.append(color == BLACK ? ";B[" : ";W[").append(toSgf(move, coords)).append(']');
+			if (rules.time > 0) {
+				moves.append(color == BLACK ? "BL[" : "WL[")
+						.append(rules.time - (int) (timeUsed[color.index()] / 1000)).append(']');
+			}
+			moves.append('\n');
+			if (board.getPasses() == 2 || board.getTurn() >= maxMoves) {
+				winner = scorer.winner();
+				result = (winner == BLACK ? "B" : "W") + "+" + Math.abs(scorer.score());
+				break;
+			}
+		}
+		for (final Player player : players) {
+			player.endGame();
+		}
+		final String condition = EXPERIMENT.always + " " + EXPERIMENT.conditions.get(conditionName);
+		final String baseline = EXPERIMENT.always + " " + EXPERIMENT.baseline;
+		final String filename = resultsDirectory + conditionName + "-" + number + ".sgf";
+		try (PrintWriter out = new PrintWriter(filename)) {
+			out.println("(;FF[4]CA[UTF-8]AP[Ginkgo1]KM[" + rules.komi + "]GM[1]RU[Chinese]SZ[" + rules.boardWidth
+					+ "]");
+			out.println("PB[" + (conditionIsBlack ? condition : baseline) + "]");
+			out.println("PW[" + (conditionIsBlack ? baseline : condition) + "]");
+			out.println("RE[" + result + "]");
+			out.println("C[开始时间:" + new Date(startTime) + ", 结束时间:" + new Date() + ", moves:" + board.getTurn()
+					+ "]");
+			out.print(moves);
+			out.println(")");
+		} catch (final FileNotFoundException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		if (winner == BLACK || winner == WHITE) {
+			store.record(conditionName, winner == (conditionIsBlack ? BLACK : WHITE), "arena", number, filename);
+		}
+		return winner;
+	}
+
+	/**
+	 * 对弈所有条件的棋局. 返回每个条件在这次运行中的胜局数; 打印的是结果文件中的总数.
+	 */
+	public Map<String, Integer> run() throws InterruptedException, IOException {
+		final long start = System.currentTimeMillis();
+		final ExecutorService games = Executors.newFixedThreadPool(concurrentGames);
+		final Map<String, AtomicInteger> wins = new TreeMap<>();
+		final List<Future<?>> futures = new ArrayList<>();
+		for (final String conditionName : EXPERIMENT.conditions.keySet()) {
+			wins.put(conditionName, new AtomicInteger());
+			System.out.println(conditionName + ": " + EXPERIMENT.conditions.get(conditionName));
+			for (int i = 0; i < EXPERIMENT.gamesPerCondition; i++) {
+				final int number = i;
+				final boolean conditionIsBlack = i % 2 == 0;
+				futures.add(games.submit(() -> {
+					if (isDecided(conditionName)) {
+						return null;
+					}
+					final Color winner = playGame(conditionName, number, conditionIsBlack);
+					if (winner == (conditionIsBlack ? BLACK : WHITE)) {
+						wins.get(conditionName).incrementAndGet();
+					}
+					return null;
+				}));
+			}
+		}
+		try {
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} catch (final ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			games.shutdownNow();
+			searchPool.shutdownNow();
+		}
+		final Map<String, Integer> result = new TreeMap<>();
+		int played = 0;
+		for (final String conditionName : wins.keySet()) {
+			final int w = wins.get(conditionName).get();
+			final int[] tally = store.tally(conditionName);
+			final int n = Math.max(1, tally[0] + tally[1]);
+			final double rate = (double) tally[0] / n;
+			System.out.printf("%s: 赢 %d/%d (%.1f%% ± %.1f%%)", conditionName, tally[0], n, 100 * rate,
+					100 * Math.sqrt(rate * (1 - rate) / n));
+			if (EXPERIMENT.sprt != null) {
+				System.out.printf(", SPRT %s (LLR %.2f)", EXPERIMENT.sprt.decide(tally[0], tally[1]),
+						EXPERIMENT.sprt.llr(tally[0], tally[1]));
+			}
+			System.out.println();
+			result.put(conditionName, w);
+			played += tally[0] + tally[1];
+		}
+		final double hours = (System.currentTimeMillis() - start) / 3.6e6;
+		System.out.printf("%d 局, 每小时 %.0f 局, 结果在 %s%n", played, played / hours, resultsDirectory);
+		return result;
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
+
+import com.github.fangyun.ginkgo.core.Color;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.mcts.McRunnable;
+import com.github.fangyun.ginkgo.mcts.Player;
+import com.github.fangyun.ginkgo.mcts.PlayerBuilder;
+import com.github.fangyun.ginkgo.mcts.RunStatistics;
+import com.github.fangyun.ginkgo.mcts.SearchNode;
+
+/**
+ * 比较不同的棋局截断着数. 对每个截断着数, 在空棋盘上搜索, 报告每秒的棋局数, 超出树的平均着数, 被截断的棋局的比例, 选出的着子和它的赢率,
+ * 以及估计的准确度: 搜索后从实际棋盘下SAMPLES局被截断的棋局, 把每局从截断处下完, 报告估计的黑胜概率对实际结果的Brier分数
+ * (平方误差的平均, 0最好, 总猜0.5时为0.25). 截断着数0是不截断的基准; 最终要用Arena对局比较棋力.
+ * <p>
+ * 用法: CutoffBenchmark [棋盘宽度 [每次搜索的毫秒数 [截断着数...]]], 缺省为19, 5000和0 20 40 80.
+ */
+public final class CutoffBenchmark {
+
+	/** 计算Brier分数的截断棋局数. */
+	private static final int SAMPLES = 500;
+
+	public static void main(String[] args) {
+		final int width = args.length > 0 ? Integer.parseInt(args[0]) : 19;
+		final int msec = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		int[] cutoffs = { 0, 20, 40, 80 };
+		if (args.length > 2) {
+			cutoffs = new int[args.length - 2];
+			for (int i = 0; i < cutoffs.length; i++) {
+				cutoffs[i] = Integer.parseInt(args[i + 2]);
+			}
+		}
+		final int threads = Runtime.getRuntime().availableProcessors();
+		// 预热, 使第一行的结果不包括即时编译
+		search(width, threads, msec, cutoffs[0]);
+		System.out.println(width + "x" + width + ", " + threads + "线程, " + msec + "毫秒");
+		System.out.println("截断\t每秒棋局\t平均长度\t截断比例\t着子\t赢率\tBrier");
+		for (final int cutoff : cutoffs) {
+			System.out.println(search(width, threads, msec, cutoff));
+		}
+		System.exit(0);
+	}
+
+	/** 用给定的截断着数搜索msec毫秒, 返回结果的一行. */
+	private static String search(int width, int threads, int msec, int cutoff) {
+		final Player player = new PlayerBuilder().boardWidth(width).threads(threads).msecPerMove(msec)
+				.timeManagement("simple").openingBook(false).playoutCutoff(cutoff).build();
+		final short move = player.bestMove();
+		final RunStatistics total = player.getStatistics().getTotal();
+		final SearchNode root = player.getRoot();
+		final CoordinateSystem coords = player.getBoard().getCoordinateSystem();
+		final String brier = cutoff > 0 ? String.format("%.4f", brierScore(player)) : "-";
+		return String.format("%d\t%.0f\t%.1f\t%.3f\t%s\t%.3f\t%s", cutoff, total.getPlayoutsPerSecond() * threads,
+				total.getAveragePlayoutLength(), total.getRuns() == 0 ? 0 : (double) total.getCutoffPlayouts()
+						/ total.getRuns(), coords.toString(move), root.getWinRate(move), brier);
+	}
+
+	/**
+	 * 在搜索停止后的第一个McRunnable上从实际棋盘下棋局, 直到有SAMPLES局被截断. 每局从截断处不截断地下完, 返回截断时估计的黑胜概率对实际结果的
+	 * Brier分数. 没有截断或者下完后平局的棋局不计入.
+	 */
+	private static double brierScore(Player player) {
+		final McRunnable runnable = player.getMcRunnable(0);
+		double sum = 0;
+		int samples = 0;
+		for (int i = 0; i < 20 * SAMPLES && samples < SAMPLES; i++) {
+			runnable.copyDataFrom(player.getBoard());
+			runnable.playout(true);
+			final float estimate = runnable.getEvaluation();
+			if (estimate < 0) {
+				continue;
+			}
+			final Color winner = runnable.playout(false, false);
+			if (winner == BLACK || winner == WHITE) {
+				final double error = estimate - (winner == BLACK ? 1 : 0);
+				sum += error * error;
+				samples++;
+			}
+		}
+		return samples == 0 ? Double.NaN : sum / samples;
+	}
+
+}
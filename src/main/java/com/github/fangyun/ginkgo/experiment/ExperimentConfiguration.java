@@ -20,6 +20,9 @@ enum ExperimentConfiguration {
 	/** 用于所有条件下的命令行参数. */
 	final String always;
 
+	/** Arena中与每个条件对弈的基准棋手在always之后的命令行参数. 缺省为空. */
+	final String baseline;
+
 	/**
 	 * 用于Ginkgo命令行参数的Maps条件名.
 	 */
@@ -44,6 +47,11 @@ enum ExperimentConfiguration {
 	/** 保留棋盘尺寸，贴目和游戏时间. */
 	final Rules rules;
 
+	/**
+	 * 决定何时提前停止一个条件的序贯概率比检验. 如果没有设置sprtElo1，则为null, 每个条件下完所有棋局.
+	 */
+	final Sprt sprt;
+
 	/** 从config/experiment.properties读配置. */
 	private ExperimentConfiguration() {
 		final Properties properties = new Properties();
@@ -67,7 +75,17 @@ enum ExperimentConfiguration {
 		gnugo = SYSTEM.gnugoHome + " --boardsize " + boardSize
 				+ " --mode gtp --quiet --chinese-rules --capture-all-dead --positional-superko --komi " + komi;
 		System.out.println("Gnugo是： " + gnugo);
+		if (properties.getProperty("sprtElo1") != null) {
+			sprt = new Sprt(parseDouble(properties.getProperty("sprtElo0", "0")),
+					parseDouble(properties.getProperty("sprtElo1")),
+					parseDouble(properties.getProperty("sprtAlpha", "0.05")),
+					parseDouble(properties.getProperty("sprtBeta", "0.05")));
+			System.out.println(sprt);
+		} else {
+			sprt = null;
+		}
 		always = properties.getProperty("always");
+		baseline = properties.getProperty("baseline", "");
 		conditions = new TreeMap<>();
 		for (final String s : properties.stringPropertyNames()) {
 			if (s.startsWith("condition")) {
@@ -0,0 +1,145 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java飞行记录器(JFR)的自定义事件, 覆盖引擎的各个阶段. 没有记录时这些事件几乎没有开销, 所以可以在比赛中一直开启.
+ * 用-XX:StartFlightRecording启动JVM即可把它们与GC暂停、安全点一起记录下来. 需要Java 11或更新版本, 所以pom的source和target是11.
+ * <p>
+ * McRun事件缺省关闭, 因为每秒有上万次运行; 需要时在JFR配置中打开ginkgo.McRun, 并且只对每SAMPLE_INTERVAL次运行记录一次.
+ */
+public final class FlightEvents {
+
+	/** 一条GTP命令从收到到应答. */
+	@Name("ginkgo.GtpCommand")
+	@Label("GTP Command")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class GtpCommand extends Event {
+
+		@Label("Command")
+		public String command;
+
+		@Label("Succeeded")
+		@Description("false如果应答是错误")
+		public boolean succeeded;
+
+	}
+
+	/** 启动McRunnable线程. */
+	@Name("ginkgo.StartThreads")
+	@Label("Start Threads")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class StartThreads extends Event {
+
+		@Label("Threads")
+		public int threads;
+
+	}
+
+	/** 停止McRunnable线程, 持续时间是等待所有线程完成当前运行的时间. */
+	@Name("ginkgo.StopThreads")
+	@Label("Stop Threads")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class StopThreads extends Event {
+
+		@Label("Threads")
+		public int threads;
+
+	}
+
+	/** 时间管理器分配的一段思考时间. */
+	@Name("ginkgo.TimeSlice")
+	@Label("Time Slice")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class TimeSlice extends Event {
+
+		@Label("Turn")
+		public int turn;
+
+		@Label("Allocated")
+		@Timespan(Timespan.MILLISECONDS)
+		public long allocated;
+
+		@Label("Playouts")
+		public long playouts;
+
+	}
+
+	/** 标识可到达的节点并清理转换表. */
+	@Name("ginkgo.TreeMaintenance")
+	@Label("Tree Maintenance")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class TreeMaintenance extends Event {
+
+		@Label("Marked Nodes")
+		public int marked;
+
+		@Label("Nodes In Use")
+		@Description("清理后在用的节点数")
+		public int nodesInUse;
+
+	}
+
+	/** 查询开局棋谱. */
+	@Name("ginkgo.BookLookup")
+	@Label("Book Lookup")
+	@Category("Ginkgo")
+	@StackTrace(false)
+	public static final class BookLookup extends Event {
+
+		@Label("Turn")
+		public int turn;
+
+		@Label("Hit")
+		public boolean hit;
+
+	}
+
+	/** 单次蒙特卡洛运行. 缺省关闭. */
+	@Name("ginkgo.McRun")
+	@Label("MC Run")
+	@Category("Ginkgo")
+	@Enabled(false)
+	@StackTrace(false)
+	public static final class McRun extends Event {
+
+		/** 每这么多次运行才采样一次. 必须是2的幂. */
+		public static final int SAMPLE_INTERVAL = 64;
+
+		@Label("Descend")
+		@Timespan(Timespan.NANOSECONDS)
+		public long descend;
+
+		@Label("Playout")
+		@Timespan(Timespan.NANOSECONDS)
+		public long playout;
+
+		@Label("Update Tree")
+		@Timespan(Timespan.NANOSECONDS)
+		public long update;
+
+		@Label("Depth")
+		public int depth;
+
+		@Label("Playout Length")
+		public int playoutLength;
+
+	}
+
+	private FlightEvents() {
+		// 只有静态类
+	}
+
+}
@@ -1,14 +1,24 @@
 package com.github.fangyun.ginkgo.experiment;
 
+import static com.github.fangyun.ginkgo.core.NonStoneColor.OFF_BOARD;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
 import static com.github.fangyun.ginkgo.experiment.ExperimentConfiguration.EXPERIMENT;
 import static com.github.fangyun.ginkgo.experiment.SystemConfiguration.SYSTEM;
 import static java.io.File.separator;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-/** 在一台计算机上运行一系列的实验性的棋局。 */
+import com.github.fangyun.ginkgo.core.Color;
+import com.github.fangyun.ginkgo.core.StoneColor;
+
+/**
+ * 在一台计算机上运行一系列的实验性的棋局。每局的结果追加到结果目录的ResultStore中; 如果配置了SPRT,
+ * 每局之前用所有批次的结果检验, 已有结论的条件不再下剩下的棋局.
+ */
 public final class GameBatch implements Runnable {
 
 	/**
@@ -61,6 +71,9 @@ public final class GameBatch implements Runnable {
 
 	private final String resultsDirectory;
 
+	/** 所有批次共享的结果文件. */
+	private final ResultStore store;
+
 	public GameBatch(int batchNumber, String hostname, String resultsDirectory) {
 		this.batchNumber = batchNumber;
 		if (hostname.contains(".")) {
@@ -69,6 +82,31 @@ public final class GameBatch implements Runnable {
 			host = hostname;
 		}
 		this.resultsDirectory = resultsDirectory;
+		ResultStore store = null;
+		try {
+			store = ResultStore.forDirectory(resultsDirectory);
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		this.store = store;
+	}
+
+	/**
+	 * 返回true如果SPRT对条件已有结论(根据所有批次的结果).
+	 */
+	private boolean isDecided(String conditionName) throws IOException {
+		if (EXPERIMENT.sprt == null) {
+			return false;
+		}
+		final int[] tally = store.tally(conditionName);
+		final Sprt.Decision decision = EXPERIMENT.sprt.decide(tally[0], tally[1]);
+		if (decision == Sprt.Decision.CONTINUE) {
+			return false;
+		}
+		System.out.printf("批次 %d 在 %s: %s 已有结论 %s (赢 %d, 输 %d, LLR %.2f), 取消剩下的棋局%n", batchNumber, host,
+				conditionName, decision, tally[0], tally[1], EXPERIMENT.sprt.llr(tally[0], tally[1]));
+		return true;
 	}
 
 	@Override
@@ -81,19 +119,35 @@ public final class GameBatch implements Runnable {
 					+ "M com.github.fangyun.ginkgo.ui.Ginkgo " + "boardsize=" + EXPERIMENT.rules.boardWidth + " komi="
 					+ EXPERIMENT.rules.komi + " memory=" + SYSTEM.megabytes + " " + EXPERIMENT.always + " " + condition;
 			System.out.println("Ginkgo is: " + ginkgo);
-			runGames(ginkgo, EXPERIMENT.gnugo);
-			runGames(EXPERIMENT.gnugo, ginkgo);
+			runGames(conditionName, ginkgo);
 		}
 		System.out.println("完成运行批次 " + batchNumber + " 在 " + host);
 	}
 
-	/** 用指定黑白棋手来运行一系列的棋局. */
-	public void runGames(String black, String white) {
-		final int[] wins = new int[3];
-		for (int i = 0; i < EXPERIMENT.gamesPerColor; i++) {
-			final String outFile = resultsDirectory + host + "-b" + batchNumber + "-" + timeStamp(false) + ".sgf";
-			final Game game = new Game(outFile, EXPERIMENT.rules, black, white);
-			wins[game.play().index()]++;
+	/**
+	 * 运行条件的一系列的棋局, Ginkgo交替执黑和执白. 如果SPRT已有结论, 停止.
+	 *
+	 * @param ginkgo
+	 *            启动条件下的Ginkgo的命令.
+	 */
+	public void runGames(String conditionName, String ginkgo) {
+		try {
+			for (int i = 0; i < 2 * EXPERIMENT.gamesPerColor; i++) {
+				if (isDecided(conditionName)) {
+					return;
+				}
+				final StoneColor ginkgoColor = i % 2 == 0 ? BLACK : WHITE;
+				final String outFile = resultsDirectory + host + "-b" + batchNumber + "-" + timeStamp(false) + ".sgf";
+				final Game game = ginkgoColor == BLACK ? new Game(outFile, EXPERIMENT.rules, ginkgo, EXPERIMENT.gnugo)
+						: new Game(outFile, EXPERIMENT.rules, EXPERIMENT.gnugo, ginkgo);
+				final Color winner = game.play();
+				if (winner != OFF_BOARD) {
+					store.record(conditionName, winner == ginkgoColor, host, batchNumber, outFile);
+				}
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
 		}
 	}
 
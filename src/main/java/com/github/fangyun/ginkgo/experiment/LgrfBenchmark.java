@@ -0,0 +1,133 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
+
+import java.util.Arrays;
+
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.feature.LgrfTable;
+import com.github.fangyun.ginkgo.mcts.Player;
+import com.github.fangyun.ginkgo.mcts.PlayerBuilder;
+import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+
+/**
+ * 比较LGRF表的几种共享方式: 旧的不加保护的short数组(会丢失更新), 无锁共享的LgrfTable, 和每个线程自己的LgrfTable.
+ * <p>
+ * 第一部分测量每次update的纳秒数, 第二部分测量19x19空棋盘上每秒的棋局数. 线程数从1倍增到给定的最大值.
+ * <p>
+ * 用法: LgrfBenchmark [最大线程数 [每次搜索的毫秒数]], 缺省为可用处理器数和5000.
+ */
+public final class LgrfBenchmark {
+
+	/** 每个线程在第一部分做的更新次数. */
+	private static final int UPDATES = 1 << 23;
+
+	/** 不加保护的旧表, 作为比较的基准. 条目[(c * n + i) * n + j]. */
+	private static final class PlainTable {
+
+		private final int n;
+
+		private final short[] replies1;
+
+		private final short[] replies2;
+
+		PlainTable(CoordinateSystem coords) {
+			n = coords.getFirstPointBeyondBoard();
+			replies1 = new short[2 * n];
+			replies2 = new short[2 * n * n];
+		}
+
+		void update(int color, boolean won, short penultimate, short previous, short reply) {
+			final int i = color * n + previous;
+			final int j = (color * n + penultimate) * n + previous;
+			if (won) {
+				replies1[i] = reply;
+				replies2[j] = reply;
+			} else {
+				if (replies1[i] == reply) {
+					replies1[i] = NO_POINT;
+				}
+				if (replies2[j] == reply) {
+					replies2[j] = NO_POINT;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		final int maxThreads = args.length > 0 ? Integer.parseInt(args[0])
+				: Runtime.getRuntime().availableProcessors();
+		final int msec = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		final CoordinateSystem coords = CoordinateSystem.forWidth(19);
+		System.out.println("每次更新的纳秒数");
+		System.out.println("线程\t旧数组\t共享\t每线程");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			System.out.printf("%d\t%.1f\t%.1f\t%.1f%n", threads, updateCost(coords, threads, 0),
+					updateCost(coords, threads, 1), updateCost(coords, threads, 2));
+		}
+		// 预热, 使第一行的结果不包括即时编译
+		playoutRate(1, msec, false);
+		System.out.println("每秒棋局数(19x19, " + msec + "毫秒)");
+		System.out.println("线程\t共享\t每线程");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			System.out.printf("%d\t%.0f\t%.0f%n", threads, playoutRate(threads, msec, false),
+					playoutRate(threads, msec, true));
+		}
+		System.exit(0);
+	}
+
+	/** 返回在空19x19棋盘上搜索msec毫秒时每秒的棋局数. */
+	private static double playoutRate(int threads, int msec, boolean perThread) {
+		final Player player = new PlayerBuilder().boardWidth(19).threads(threads).msecPerMove(msec)
+				.timeManagement("simple").openingBook(false).lgrf2(true).lgrfPerThread(perThread).build();
+		final long start = System.nanoTime();
+		player.bestMove();
+		return player.getPlayoutCount() * 1e9 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * 返回threads个线程同时更新时每次update的平均纳秒数.
+	 *
+	 * @param mode
+	 *            0为共享的旧数组, 1为共享的LgrfTable, 2为每线程的LgrfTable.
+	 */
+	private static double updateCost(CoordinateSystem coords, int threads, int mode)
+			throws InterruptedException {
+		final short[] points = coords.getAllPointsOnBoard();
+		final PlainTable plain = new PlainTable(coords);
+		final LgrfTable shared = new LgrfTable(coords);
+		final Thread[] workers = new Thread[threads];
+		final long[] elapsed = new long[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			final LgrfTable table = mode == 2 ? new LgrfTable(coords) : shared;
+			workers[t] = new Thread(() -> {
+				final MersenneTwisterFast random = new MersenneTwisterFast(id);
+				final long start = System.nanoTime();
+				for (int i = 0; i < UPDATES; i++) {
+					// 只用前32个点, 使更新集中在少数条目上, 增加竞争
+					final short penultimate = points[random.nextInt(32)];
+					final short previous = points[random.nextInt(32)];
+					final short reply = points[random.nextInt(32)];
+					final boolean won = random.nextBoolean();
+					if (mode == 0) {
+						plain.update(i & 1, won, penultimate, previous, reply);
+					} else {
+						table.update((i & 1) == 0 ? BLACK : WHITE, won, penultimate, previous, reply);
+					}
+				}
+				elapsed[id] = System.nanoTime() - start;
+			});
+		}
+		for (final Thread worker : workers) {
+			worker.start();
+		}
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+		return (double) Arrays.stream(elapsed).sum() / threads / UPDATES;
+	}
+
+}
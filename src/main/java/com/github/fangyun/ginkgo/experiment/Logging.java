@@ -1,48 +1,205 @@
 package com.github.fangyun.ginkgo.experiment;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
 import java.io.File;
-import java.util.logging.FileHandler;
-import java.util.logging.Formatter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
-import java.util.logging.LogRecord;
-import java.util.logging.Logger;
 
-/** 一些记录日志的便利方法. */
+/**
+ * 一些记录日志的便利方法.
+ * <p>
+ * 记录日志的线程从不做文件I/O: 消息和时间、线程号一起放进一个固定大小的无锁环形缓冲区, 由一个后台的守护线程取出,
+ * 格式化并写入文件. 缓冲区满时消息被丢弃并计数, 不会阻塞调用者. 没有打开日志(或级别低于阈值)时, log只读一个volatile字段;
+ * 消息需要拼接的地方应该先检查{@link #isLoggable()}, 使没有打开日志时不构建消息.
+ * <p>
+ * 这里有意不提供接受Supplier的log: 在热路径上捕获局部变量的lambda每次调用都要分配对象, 而isLoggable()的检查没有分配,
+ * 也在打开日志时只构建一次消息.
+ */
 public final class Logging {
 
-	/** 被使用的logger，如果没有打开则为null */
-	private static Logger logger = null;
+	/** 环形缓冲区的大小, 必须是2的幂. */
+	private static final int CAPACITY = 1 << 14;
+
+	private static final int MASK = CAPACITY - 1;
+
+	/** 写线程没有消息可写时的等待时间. */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+	/** 两条消息之间超过这个时间则记录"LONG DELAY!". */
+	private static final long LONG_DELAY_MSEC = TimeUnit.MINUTES.toMillis(5);
+
+	/** 每个槽中消息的时间. */
+	private static final long[] times = new long[CAPACITY];
+
+	/** 每个槽中消息的线程号. */
+	private static final long[] threadIds = new long[CAPACITY];
+
+	/** 每个槽中的消息. 写线程取出后置为null. */
+	private static final String[] messages = new String[CAPACITY];
+
+	/** 槽i中的消息已写好时为它的序号加一. 写好槽的其它数组后才(以release语义)设置它. */
+	private static final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+
+	/** 下一个要分配的序号. */
+	private static final AtomicLong head = new AtomicLong();
+
+	/** 写线程下一个要取的序号. 只有写线程修改它. */
+	private static volatile long tail;
+
+	/** 因为缓冲区满被丢弃的消息数. */
+	private static final AtomicLong dropped = new AtomicLong();
+
+	/** 被记录的最低级别的值. 没有打开日志时为Integer.MAX_VALUE, 所以什么都不记录. */
+	private static volatile int threshold = Integer.MAX_VALUE;
+
+	/** 打开日志后设置的级别. */
+	private static Level level = Level.ALL;
+
+	/** 日志文件, 如果没有打开则为null. 只在持有类锁时访问. */
+	private static Writer out = null;
+
+	/** 后台的写线程, 如果还没有启动则为null. */
+	private static Thread writer = null;
 
-	private static String previousTimeStamp = null;
+	/** 上一条写出的消息的时间. 只有写线程访问. */
+	private static long previousTime = -1;
+
+	/** 写线程用来格式化时间的格式, 与GameBatch.timeStamp(false)相同. 只有写线程访问. */
+	private static final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss.SSS");
+
+	/** 返回是否会记录指定级别的消息. */
+	public static boolean isLoggable(Level level) {
+		return level.intValue() >= threshold;
+	}
+
+	/** 返回是否会记录默认INFO级别的消息. */
+	public static boolean isLoggable() {
+		return isLoggable(Level.INFO);
+	}
 
 	/**
-	 * 用指定的级别记录一个消息.
-	 *
-	 * @see Logger#log(Level, String)
+	 * 用指定的级别记录一个消息. 只把消息放进缓冲区, 不等待它被写出.
 	 */
-	public static synchronized void log(Level level, String message) {
-		if (logger != null) {
-			String stamp = GameBatch.timeStamp(false);
-			logger.log(level, stamp + " thread "
-					+ Thread.currentThread().getId() + " " + message);
-			// 注意: 这不会造成包括午夜在内的长时间延误。
-			if (previousTimeStamp != null && rawTime(stamp) - rawTime(previousTimeStamp) > 5) {
-				logger.log(level, stamp + " thread "
-						+ Thread.currentThread().getId() + " " + "LONG DELAY!");
-			}
-			previousTimeStamp = stamp;
+	public static void log(Level level, String message) {
+		if (isLoggable(level)) {
+			enqueue(message);
 		}
 	}
 
 	/**
 	 * 在默认INFO级别上记录消息.
-	 *
-	 * @see Logger#log(Level, String)
 	 */
 	public static void log(String message) {
 		log(Level.INFO, message);
 	}
 
+	/** 把消息放进环形缓冲区. 如果缓冲区满了, 丢弃它. */
+	private static void enqueue(String message) {
+		long sequence;
+		do {
+			sequence = head.get();
+			if (sequence - tail >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!head.compareAndSet(sequence, sequence + 1));
+		final int slot = (int) sequence & MASK;
+		times[slot] = System.currentTimeMillis();
+		threadIds[slot] = Thread.currentThread().getId();
+		messages[slot] = message;
+		published.lazySet(slot, sequence + 1);
+	}
+
+	/**
+	 * 把缓冲区中已写好的消息写入文件. 只由写线程(或退出时的钩子)在持有类锁时调用.
+	 *
+	 * @return 写出的消息数.
+	 */
+	private static int drain() throws IOException {
+		int count = 0;
+		long t = tail;
+		while (true) {
+			final int slot = (int) t & MASK;
+			if (published.get(slot) != t + 1) {
+				break;
+			}
+			final long time = times[slot];
+			final long thread = threadIds[slot];
+			final String message = messages[slot];
+			messages[slot] = null;
+			t++;
+			tail = t;
+			if (out != null) {
+				final String stamp = format.format(new Date(time));
+				write(stamp, thread, message);
+				if (previousTime >= 0 && time - previousTime > LONG_DELAY_MSEC) {
+					write(stamp, thread, "LONG DELAY!");
+				}
+			}
+			previousTime = time;
+			count++;
+		}
+		final long lost = dropped.getAndSet(0);
+		if (lost > 0 && out != null) {
+			write(format.format(new Date()), Thread.currentThread().getId(), "缓冲区满, 丢弃了 " + lost + " 条消息");
+		}
+		if (count > 0 && out != null) {
+			out.flush();
+		}
+		return count;
+	}
+
+	private static void write(String stamp, long thread, String message) throws IOException {
+		out.write(stamp);
+		out.write(" thread ");
+		out.write(Long.toString(thread));
+		out.write(' ');
+		out.write(message);
+		out.write('\n');
+	}
+
+	/** 写线程的循环: 取出消息并写入文件, 没有消息时短暂等待. */
+	private static void runWriter() {
+		while (true) {
+			int count;
+			synchronized (Logging.class) {
+				try {
+					count = drain();
+				} catch (final IOException e) {
+					e.printStackTrace();
+					threshold = Integer.MAX_VALUE;
+					return;
+				}
+			}
+			if (count == 0) {
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+	}
+
+	/** 写出缓冲区中剩下的消息. 在JVM退出时调用. */
+	private static synchronized void flush() {
+		try {
+			drain();
+			if (out != null) {
+				out.flush();
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * 返回时间戳表示的从一天开始的分钟时间.
 	 */
@@ -52,11 +209,20 @@ public final class Logging {
 		return 60 * hour + minute;
 	}
 
+	/**
+	 * 设置记录的最低级别. 只在打开日志后起作用.
+	 */
+	public static synchronized void setLevel(Level level) {
+		Logging.level = level;
+		if (out != null) {
+			threshold = level.intValue();
+		}
+	}
+
 	/**
 	 * 设置日志记录以显示在目录中一个时间戳的文件中。如果两个Ginkgo的实例在同一毫秒内启动，行为就没有意义了.
 	 */
-	public static void setFilePath(String directory) {
-		logger = Logger.getLogger("ginkgo-default");
+	public static synchronized void setFilePath(String directory) {
 		new File(directory).mkdir();
 		if(directory.endsWith(File.separator)) {
 			directory += GameBatch.timeStamp(false) + ".log";
@@ -64,20 +230,22 @@ public final class Logging {
 			directory += File.separator + GameBatch.timeStamp(false) + ".log";
 		}
 		try {
-			final FileHandler handler = new FileHandler(directory);
-			handler.setFormatter(new Formatter() {
-				@Override
-				public String format(LogRecord record) {
-					return record.getMessage() + "\n";
-				}
-			});
-			logger.addHandler(handler);
-			logger.setLevel(Level.ALL);
-			logger.setUseParentHandlers(false);
+			if (out != null) {
+				drain();
+				out.close();
+			}
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(directory), UTF_8), 1 << 16);
 		} catch (final Exception e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
+		if (writer == null) {
+			writer = new Thread(Logging::runWriter, "ginkgo-logging");
+			writer.setDaemon(true);
+			writer.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(Logging::flush, "ginkgo-logging-flush"));
+		}
+		threshold = level.intValue();
 	}
 
 }
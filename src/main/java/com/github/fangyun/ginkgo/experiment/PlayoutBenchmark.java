@@ -0,0 +1,90 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import com.github.fangyun.ginkgo.mcts.Player;
+import com.github.fangyun.ginkgo.mcts.PlayerBuilder;
+import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
+import com.github.fangyun.ginkgo.util.Xoroshiro128PlusPlus;
+
+/**
+ * 比较棋局使用的随机数发生器和落子器. 第一部分测量每次有界的nextInt的纳秒数, 第二部分测量19x19空棋盘上每种发生器每秒的棋局数,
+ * 第三部分比较SuggesterMover链和PolicyMover每秒的棋局数. 各种设置交替测量多轮, 以减少即时编译和机器负载变化的影响.
+ * <p>
+ * 用法: PlayoutBenchmark [线程数 [每次搜索的毫秒数 [轮数]]], 缺省为可用处理器数, 5000和3.
+ */
+public final class PlayoutBenchmark {
+
+	/** 发生器的名字, 与PlayerBuilder的random参数相同. */
+	private static final String[] GENERATORS = { "mersenne", "xoroshiro" };
+
+	/** 落子器的名字, 对应PlayerBuilder的fused-policy参数false和true. */
+	private static final String[] MOVERS = { "chain", "fused" };
+
+	/** 第一部分每轮调用nextInt的次数. */
+	private static final int CALLS = 1 << 26;
+
+	public static void main(String[] args) {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final int msec = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		System.out.println("每次nextInt(n)的纳秒数");
+		System.out.println("轮\t" + String.join("\t", GENERATORS));
+		for (int round = 1; round <= rounds; round++) {
+			System.out.print(round);
+			for (final String generator : GENERATORS) {
+				System.out.printf("\t%.2f", nextIntCost(create(generator)));
+			}
+			System.out.println();
+		}
+		// 预热, 使第一行的结果不包括即时编译
+		playoutRate(GENERATORS[0], true, threads, msec);
+		System.out.println("每秒棋局数(19x19, " + threads + "线程, " + msec + "毫秒)");
+		System.out.println("轮\t" + String.join("\t", GENERATORS));
+		for (int round = 1; round <= rounds; round++) {
+			System.out.print(round);
+			for (final String generator : GENERATORS) {
+				System.out.printf("\t%.0f", playoutRate(generator, true, threads, msec));
+			}
+			System.out.println();
+		}
+		System.out.println("每秒棋局数(19x19, " + threads + "线程, " + msec + "毫秒)");
+		System.out.println("轮\t" + String.join("\t", MOVERS));
+		for (int round = 1; round <= rounds; round++) {
+			System.out.print(round);
+			for (final String mover : MOVERS) {
+				System.out.printf("\t%.0f", playoutRate(GENERATORS[0], mover.equals("fused"), threads, msec));
+			}
+			System.out.println();
+		}
+		System.exit(0);
+	}
+
+	private static RandomSource create(String generator) {
+		return generator.equals("xoroshiro") ? new Xoroshiro128PlusPlus(0L) : new MersenneTwisterFast(0L);
+	}
+
+	/** 返回每次nextInt的平均纳秒数. 上界在棋局中常见的范围内变化. */
+	private static double nextIntCost(RandomSource random) {
+		int sum = 0;
+		final long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			sum += random.nextInt(1 + (i & 511));
+		}
+		final long elapsed = System.nanoTime() - start;
+		if (sum == 42) {
+			// 使结果被使用, 以免循环被优化掉
+			System.out.print("");
+		}
+		return (double) elapsed / CALLS;
+	}
+
+	/** 返回用generator在空19x19棋盘上搜索msec毫秒时每秒的棋局数. */
+	private static double playoutRate(String generator, boolean fused, int threads, int msec) {
+		final Player player = new PlayerBuilder().boardWidth(19).threads(threads).msecPerMove(msec)
+				.timeManagement("simple").openingBook(false).random(generator).fusedPolicy(fused).build();
+		final long start = System.nanoTime();
+		player.bestMove();
+		return player.getPlayoutCount() * 1e9 / (System.nanoTime() - start);
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 结果目录中只追加的棋局结果文件. 所有批次(包括别的主机上写同一目录的批次)在每局之后追加一行, 因此任何一方都可以汇总整个实验的结果.
+ * <p>
+ * 每行是以制表符分隔的时间、主机、批次、条件名、结果(1为条件赢, 0为条件输)和SGF文件名. 追加时锁住文件, 每行用一次写入,
+ * 所以并发的追加不会交错. 读时只解析上次读之后追加的完整的行. 同一JVM中每个目录只有一个实例(见{@link #forDirectory(String)}),
+ * 因为文件锁是按进程持有的.
+ */
+final class ResultStore {
+
+	/** 结果目录中结果文件的名字. */
+	static final String FILE_NAME = "results.tsv";
+
+	/** 目录的规范路径到它的结果文件. */
+	private static final Map<String, ResultStore> STORES = new HashMap<>();
+
+	/** 返回结果目录的结果文件. */
+	static synchronized ResultStore forDirectory(String resultsDirectory) throws IOException {
+		return STORES.computeIfAbsent(new File(resultsDirectory).getCanonicalPath(), ResultStore::new);
+	}
+
+	private final File file;
+
+	/** 已经解析的字节数. */
+	private long position;
+
+	/** 条件名到{赢的局数, 输的局数}. */
+	private final Map<String, int[]> tallies;
+
+	private ResultStore(String resultsDirectory) {
+		file = new File(resultsDirectory, FILE_NAME);
+		tallies = new HashMap<>();
+	}
+
+	/** 追加一局的结果. */
+	synchronized void record(String condition, boolean conditionWon, String host, int batch, String sgfFile)
+			throws IOException {
+		final String line = GameBatch.timeStamp(false) + "\t" + host + "\t" + batch + "\t" + condition + "\t"
+				+ (conditionWon ? 1 : 0) + "\t" + sgfFile + "\n";
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			final FileLock lock = channel.lock();
+			try {
+				channel.write(ByteBuffer.wrap(line.getBytes(UTF_8)));
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/** 解析上次读之后追加的完整的行. */
+	private void refresh() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			final long length = in.length();
+			if (length <= position) {
+				return;
+			}
+			final byte[] bytes = new byte[(int) (length - position)];
+			in.seek(position);
+			in.readFully(bytes);
+			int start = 0;
+			for (int i = 0; i < bytes.length; i++) {
+				if (bytes[i] == '\n') {
+					final String[] fields = new String(bytes, start, i - start, UTF_8).split("\t");
+					if (fields.length >= 5) {
+						final int[] tally = tallies.computeIfAbsent(fields[3], k -> new int[2]);
+						tally[fields[4].equals("1") ? 0 : 1]++;
+					}
+					start = i + 1;
+				}
+			}
+			// 没有换行符的最后一行可能还在写, 下次再读
+			position += start;
+		}
+	}
+
+	/** 返回所有批次中条件{赢的局数, 输的局数}. */
+	synchronized int[] tally(String condition) throws IOException {
+		refresh();
+		return tallies.getOrDefault(condition, new int[2]).clone();
+	}
+
+}
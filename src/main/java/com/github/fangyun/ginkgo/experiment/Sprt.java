@@ -0,0 +1,98 @@
+package com.github.fangyun.ginkgo.experiment;
+
+import static java.lang.Math.log;
+import static java.lang.Math.pow;
+
+/**
+ * 序贯概率比检验(SPRT). 每局之后比较假设H0(条件比对手强elo0)和H1(强elo1): 对数似然比超过上界时接受H1, 低于下界时接受H0,
+ * 否则继续. 在给定的两类错误率alpha和beta下, 平均所需的棋局数远少于固定局数的实验.
+ * <p>
+ * 棋局只有胜负, 所以用二项分布的似然比: 赢的概率为p = 1 / (1 + 10^(-elo / 400)).
+ */
+final class Sprt {
+
+	/** 检验的结论. */
+	static enum Decision {
+		/** 还没有结论. */
+		CONTINUE,
+		/** 接受H0: 条件不比elo0强多少. */
+		H0,
+		/** 接受H1: 条件至少强elo1. */
+		H1
+	}
+
+	/** 返回比对手强elo时赢的概率. */
+	private static double winProbability(double elo) {
+		return 1 / (1 + pow(10, -elo / 400));
+	}
+
+	final double alpha;
+
+	final double beta;
+
+	final double elo0;
+
+	final double elo1;
+
+	/** 每赢一局对数似然比的增量. */
+	private final double winIncrement;
+
+	/** 每输一局对数似然比的增量. */
+	private final double lossIncrement;
+
+	/** 接受H0的对数似然比. */
+	private final double lowerBound;
+
+	/** 接受H1的对数似然比. */
+	private final double upperBound;
+
+	/**
+	 * @param elo0
+	 *            H0的等级分差.
+	 * @param elo1
+	 *            H1的等级分差, 必须大于elo0.
+	 * @param alpha
+	 *            H0为真时接受H1的概率.
+	 * @param beta
+	 *            H1为真时接受H0的概率.
+	 */
+	Sprt(double elo0, double elo1, double alpha, double beta) {
+		if (elo1 <= elo0) {
+			throw new IllegalArgumentException("elo1必须大于elo0: " + elo0 + ", " + elo1);
+		}
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.alpha = alpha;
+		this.beta = beta;
+		final double p0 = winProbability(elo0);
+		final double p1 = winProbability(elo1);
+		winIncrement = log(p1 / p0);
+		lossIncrement = log((1 - p1) / (1 - p0));
+		lowerBound = log(beta / (1 - alpha));
+		upperBound = log((1 - beta) / alpha);
+	}
+
+	/** 返回条件赢wins局, 输losses局时的结论. */
+	Decision decide(int wins, int losses) {
+		final double llr = llr(wins, losses);
+		if (llr >= upperBound) {
+			return Decision.H1;
+		}
+		if (llr <= lowerBound) {
+			return Decision.H0;
+		}
+		return Decision.CONTINUE;
+	}
+
+	/** 返回条件赢wins局, 输losses局时的对数似然比. */
+	double llr(int wins, int losses) {
+		return wins * winIncrement + losses * lossIncrement;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("SPRT(elo0=%.1f, elo1=%.1f, alpha=%.3f, beta=%.3f, 界限 [%.2f, %.2f])", elo0, elo1,
+				alpha, beta, lowerBound, upperBound);
+	}
+
+}
@@ -23,6 +23,9 @@ public final class EscapeSuggester implements Suggester {
 	
 	private final CoordinateSystem coords;
 
+	/** 长出或合并的着子必须满足此过滤器(例如不被征吃), 如果为null则不过滤. */
+	private final Predicate filter;
+
 	/**
 	 * 当前棋手的所有着子的列表将允许一个组从打吃中逃脱
 	 */
@@ -38,7 +41,16 @@ public final class EscapeSuggester implements Suggester {
 	}
 
 	public EscapeSuggester(Board board, AtariObserver atariObserver, int bias) {
+		this(board, atariObserver, bias, null);
+	}
+
+	/**
+	 * @param filter
+	 *            长出或合并的着子必须满足的过滤器, 例如LadderReader. 用吃子逃脱的着子不过滤.
+	 */
+	public EscapeSuggester(Board board, AtariObserver atariObserver, int bias, Predicate filter) {
 		this.bias = bias;
+		this.filter = filter;
 		this.board = board;
 		coords = board.getCoordinateSystem();
 		this.atariObserver = atariObserver;
@@ -115,10 +127,13 @@ public final class EscapeSuggester implements Suggester {
 		for (int i = 0; i < chainsInAtari.size(); i++) {
 			final short chain = chainsInAtari.get(i);
 			final short p = board.getLiberties(chain).get(0);
-			if (board.getNeighborsOfColor(p, VACANT) >= 2) {
-				movesToEscape.add(p);
-			} else if (board.getNeighborsOfColor(p, colorToPlay) > 0) {
-				escapeByMerging(p);
+			// 如果长出无用(例如被征吃)，仍可能吃子逃脱
+			if (filter == null || filter.at(p)) {
+				if (board.getNeighborsOfColor(p, VACANT) >= 2) {
+					movesToEscape.add(p);
+				} else if (board.getNeighborsOfColor(p, colorToPlay) > 0) {
+					escapeByMerging(p);
+				}
 			}
 			escapeByCapturing(chain);
 		}
@@ -0,0 +1,49 @@
+package com.github.fangyun.ginkgo.feature;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.mcts.SearchNode;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 用征子给新节点偏置: 从被征吃的己方棋串长出的着子加上输棋, 能征吃对方两口气棋串的打吃加上赢棋.
+ */
+@SuppressWarnings("serial")
+public class LadderRater implements Rater {
+
+	private final int bias;
+
+	private final Board board;
+
+	private final LadderReader ladders;
+
+	public LadderRater(Board board, LadderReader ladders, int bias) {
+		this.board = board;
+		this.ladders = ladders;
+		this.bias = bias;
+	}
+
+	@Override
+	public void updateNode(SearchNode node) {
+		final StoneColor color = board.getColorToPlay();
+		ShortSet chains = board.getChainsInAtari(color);
+		for (int i = 0; i < chains.size(); i++) {
+			final short chain = chains.get(i);
+			if (ladders.isCaughtInLadder(chain)) {
+				node.update(board.getLiberties(chain).get(0), bias, 0);
+			}
+		}
+		chains = board.getChainsByLiberties(color.opposite(), 2);
+		for (int i = 0; i < chains.size(); i++) {
+			final short chain = chains.get(i);
+			final ShortSet liberties = board.getLiberties(chain);
+			for (int j = 0; j < 2; j++) {
+				final short atari = liberties.get(j);
+				if (ladders.isLadderCapture(chain, atari)) {
+					node.update(atari, bias, bias);
+				}
+			}
+		}
+	}
+
+}
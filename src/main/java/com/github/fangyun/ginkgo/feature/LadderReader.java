@@ -0,0 +1,307 @@
+package com.github.fangyun.ginkgo.feature;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.FIRST_ORTHOGONAL_NEIGHBOR;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.LAST_ORTHOGONAL_NEIGHBOR;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
+import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+
+import java.util.Arrays;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.util.ShortList;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 读征子. 在一个只有颜色的临时棋盘上用落子/撤销来读, 因此不复制棋盘也不通知观察者; 读的深度有上限, 超过时认为逃脱.
+ * 结果按棋盘的Zobrist哈希和棋串(以及打吃的着子)缓存, 所以同一局面中的重复询问(过滤器、评价器、多次棋局)不必再读. playFast之后哈希不是当前的,
+ * 这时不用缓存直接读, 因为重新计算哈希要扫描整个棋盘, 而棋局中的局面很少重复.
+ * <p>
+ * 作为谓词, 在p为真除非p是当前棋手的某个被打吃的棋串的唯一的气, 而从p长出会被征子吃掉.
+ * 读法是简化的: 逃方先看能否提掉相邻的被打吃的棋串, 否则长出; 攻方在剩下的两口气中依次打吃. 不考虑劫.
+ */
+public final class LadderReader implements Predicate {
+	private static final long serialVersionUID = -2392158622637096286L;
+
+	/** 缓存的条目数, 必须是2的幂. */
+	private static final int CACHE_SIZE = 1 << 12;
+
+	/** 逃方最多长出的次数. 超过时认为逃脱. */
+	private static final int MAX_DEPTH = 40;
+
+	/** 临时棋盘上空点的颜色下标. */
+	private static final byte VACANT_INDEX = (byte) VACANT.index();
+
+	private final Board board;
+
+	/** 缓存的键，0表示空. */
+	private final long[] cacheKeys;
+
+	/** 缓存的结果. */
+	private final boolean[] cacheValues;
+
+	/** 最近一次数气所遍历的棋串的棋子. */
+	private final ShortList chainStones;
+
+	/** 临时棋盘上改变过的点的颜色下标, 只有written[p]等于generation时有效. */
+	private final byte[] colors;
+
+	private final CoordinateSystem coords;
+
+	/** 最近一次数气找到的气. */
+	private final ShortList liberties;
+
+	/** 数气时标记已访问的点. */
+	private final int[] marks;
+
+	/** 当前的标记值. */
+	private int stamp;
+
+	/** 当前这次读的编号. 临时棋盘不复制棋盘, 而是记录本次改变过的点. */
+	private int generation;
+
+	/** written[p]等于generation如果点p在本次读中改变过. */
+	private final int[] written;
+
+	/** 撤销用的栈: 每次落子依次压入被提的子、被提的子数和着子. */
+	private final ShortList undo;
+
+	public LadderReader(Board board) {
+		this.board = board;
+		coords = board.getCoordinateSystem();
+		final int n = coords.getFirstPointBeyondExtendedBoard();
+		colors = new byte[n];
+		written = new int[n];
+		marks = new int[n];
+		chainStones = new ShortList(coords.getArea());
+		liberties = new ShortList(coords.getArea());
+		undo = new ShortList(coords.getArea() + 8 * MAX_DEPTH);
+		cacheKeys = new long[CACHE_SIZE];
+		cacheValues = new boolean[CACHE_SIZE];
+	}
+
+	@Override
+	public boolean at(short p) {
+		final ShortSet chains = board.getChainsInAtari(board.getColorToPlay());
+		for (int i = 0; i < chains.size(); i++) {
+			final short chain = chains.get(i);
+			if (board.getLiberties(chain).get(0) == p && isCaughtInLadder(chain)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 返回true如果在p的棋子有相邻的对方棋串只有一口气(逃方可以提它).
+	 */
+	private boolean canCaptureNeighbor(short p) {
+		final byte enemy = (byte) (1 - colorAt(p));
+		libertiesOf(p, Integer.MAX_VALUE);
+		// chainStones会被下面的数气覆盖, 所以先存到撤销栈的顶上
+		final int base = undo.size();
+		for (int i = 0; i < chainStones.size(); i++) {
+			undo.add(chainStones.get(i));
+		}
+		boolean result = false;
+		for (int i = base; i < undo.size() && !result; i++) {
+			final short[] neighbors = coords.getNeighbors(undo.get(i));
+			for (int j = FIRST_ORTHOGONAL_NEIGHBOR; j <= LAST_ORTHOGONAL_NEIGHBOR; j++) {
+				if (colorAt(neighbors[j]) == enemy && libertiesOf(neighbors[j], 2) == 1) {
+					result = true;
+					break;
+				}
+			}
+		}
+		while (undo.size() > base) {
+			undo.removeLast();
+		}
+		return result;
+	}
+
+	/**
+	 * 返回true如果在临时棋盘上, 轮到在p的被打吃的棋串走时, 它仍会被征子吃掉.
+	 */
+	private boolean escapeFails(short p, int depth) {
+		if (depth >= MAX_DEPTH || libertiesOf(p, 2) != 1) {
+			return false;
+		}
+		final short liberty = liberties.get(0);
+		if (canCaptureNeighbor(p)) {
+			return false;
+		}
+		final byte color = colorAt(p);
+		play(color, liberty);
+		final int n = libertiesOf(liberty, 3);
+		boolean result;
+		if (n <= 1) {
+			result = true;
+		} else if (n >= 3) {
+			result = false;
+		} else {
+			final short a = liberties.get(0);
+			final short b = liberties.get(1);
+			result = attackSucceeds(liberty, a, depth) || attackSucceeds(liberty, b, depth);
+		}
+		unplay();
+		return result;
+	}
+
+	/** 返回true如果攻方在atari打吃在p的棋串后能征吃它. */
+	private boolean attackSucceeds(short p, short atari, int depth) {
+		play((byte) (1 - colorAt(p)), atari);
+		// 不能下没有气的子
+		final boolean result = libertiesOf(atari, 1) > 0 && escapeFails(p, depth + 1);
+		unplay();
+		return result;
+	}
+
+	/**
+	 * 返回true如果轮到棋串的一方走时, 被打吃的棋串即使长出也会被征子吃掉.
+	 *
+	 * @param chain
+	 *            被打吃的棋串的任何一个棋子.
+	 */
+	public boolean isCaughtInLadder(short chain) {
+		// 长出后至少有3口气时不必读
+		if (board.getNeighborsOfColor(board.getLiberties(chain).get(0), VACANT) >= 3) {
+			return false;
+		}
+		return read(board.getChainRoot(chain), NO_POINT);
+	}
+
+	/**
+	 * 返回true如果当前棋手在atari落子打吃有两口气的对方棋串chain后, 能把它征吃.
+	 */
+	public boolean isLadderCapture(short chain, short atari) {
+		return read(board.getChainRoot(chain), atari);
+	}
+
+	/**
+	 * 返回在p的棋串的气数, 但数到max就停止. 作为副作用, 把遍历的棋子放入chainStones, 气放入liberties.
+	 */
+	private int libertiesOf(short p, int max) {
+		stamp++;
+		if (stamp == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			stamp = 1;
+		}
+		chainStones.clear();
+		liberties.clear();
+		final byte color = colorAt(p);
+		chainStones.add(p);
+		marks[p] = stamp;
+		for (int i = 0; i < chainStones.size(); i++) {
+			final short[] neighbors = coords.getNeighbors(chainStones.get(i));
+			for (int j = FIRST_ORTHOGONAL_NEIGHBOR; j <= LAST_ORTHOGONAL_NEIGHBOR; j++) {
+				final short n = neighbors[j];
+				if (marks[n] != stamp) {
+					if (colorAt(n) == VACANT_INDEX) {
+						marks[n] = stamp;
+						liberties.add(n);
+						if (liberties.size() >= max) {
+							return liberties.size();
+						}
+					} else if (colorAt(n) == color) {
+						marks[n] = stamp;
+						chainStones.add(n);
+					}
+				}
+			}
+		}
+		return liberties.size();
+	}
+
+	/** 返回临时棋盘上p的颜色下标. */
+	private byte colorAt(short p) {
+		return written[p] == generation ? colors[p] : (byte) board.getColorAt(p).index();
+	}
+
+	/** 开始新的一次读, 使临时棋盘等于棋盘. */
+	private void load() {
+		generation++;
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(written, 0);
+			generation = 1;
+		}
+		undo.clear();
+	}
+
+	/** 设置临时棋盘上p的颜色下标. */
+	private void set(short p, byte color) {
+		colors[p] = color;
+		written[p] = generation;
+	}
+
+	/** 在临时棋盘上落子并提掉没有气的对方棋子. */
+	private void play(byte color, short p) {
+		set(p, color);
+		final byte enemy = (byte) (1 - color);
+		short captured = 0;
+		final short[] neighbors = coords.getNeighbors(p);
+		for (int i = FIRST_ORTHOGONAL_NEIGHBOR; i <= LAST_ORTHOGONAL_NEIGHBOR; i++) {
+			final short n = neighbors[i];
+			// 没有气时遍历是完整的, 所以chainStones是整个棋串
+			if (colorAt(n) == enemy && libertiesOf(n, 1) == 0) {
+				for (int j = 0; j < chainStones.size(); j++) {
+					set(chainStones.get(j), VACANT_INDEX);
+					undo.add(chainStones.get(j));
+				}
+				captured += chainStones.size();
+			}
+		}
+		undo.add(captured);
+		undo.add(p);
+	}
+
+	/**
+	 * 读征子. 棋盘的哈希是当前的时缓存结果.
+	 *
+	 * @param atari
+	 *            攻方先下的打吃着子, 或者NO_POINT如果轮到棋串一方走.
+	 */
+	private boolean read(short root, short atari) {
+		final boolean cached = board.isHashCurrent();
+		long key = 0;
+		int slot = 0;
+		if (cached) {
+			key = board.getHash() ^ (root * 0x9E3779B97F4A7C15L) ^ ((atari + 1) * 0xC2B2AE3D27D4EB4FL);
+			if (board.getColorToPlay() == StoneColor.WHITE) {
+				key = ~key;
+			}
+			if (key == 0) {
+				key = 1;
+			}
+			slot = (int) (key ^ key >>> 32) & (CACHE_SIZE - 1);
+			if (cacheKeys[slot] == key) {
+				return cacheValues[slot];
+			}
+		}
+		load();
+		final boolean result;
+		if (atari == NO_POINT) {
+			result = escapeFails(root, 0);
+		} else {
+			play((byte) (1 - colorAt(root)), atari);
+			result = libertiesOf(atari, 1) > 0 && escapeFails(root, 0);
+			unplay();
+		}
+		if (cached) {
+			cacheKeys[slot] = key;
+			cacheValues[slot] = result;
+		}
+		return result;
+	}
+
+	/** 撤销临时棋盘上最近的一次落子. */
+	private void unplay() {
+		final short p = undo.removeLast();
+		final byte enemy = (byte) (1 - colorAt(p));
+		for (int i = undo.removeLast(); i > 0; i--) {
+			set(undo.removeLast(), enemy);
+		}
+		set(p, VACANT_INDEX);
+	}
+
+}
@@ -4,40 +4,62 @@ import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
 import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
 
 import java.io.Serializable;
-import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 
 /**
- * 带遗忘的最好回复表. 这不是线程安全的；我们只是忽略偶尔的更新丢失.
+ * 带遗忘的最好回复表. 可以被多个线程无锁地共享.
+ * <p>
+ * 每个条目是一个int: 低16位为回复(或NO_POINT), 高16位为版本号, 每次写入加1. 所有写入都用比较并交换,
+ * 所以赢棋时存的回复不会被另一个线程根据过时的读值清除: 输棋时只有条目自读取以来没有改变才清除它.
+ * 同一条目上比较并交换失败的写入被丢弃(另一线程的写入更新), 而不是重试.
  */
 public final class LgrfTable implements Serializable {
 	private static final long serialVersionUID = 5216955850220022701L;
 
+	/** 回复所占的位. */
+	private static final int REPLY_MASK = 0xFFFF;
+
+	/** 版本号的增量. */
+	private static final int VERSION_INCREMENT = 1 << 16;
+
+	/** 点的个数, 即每一维的长度. */
+	private final int n;
+
 	/**
-	 * 条目 [c][i] 是着子i对颜色c最好的回复(或者NO_POINT，如果没有).
+	 * 条目 [c * n + i] 是着子i对颜色c最好的回复(或者NO_POINT，如果没有).
 	 */
-	private final short[][] replies1;
+	private final AtomicIntegerArray replies1;
 
 	/**
-	 * 条目 [c][i][j] 是着子i,j对颜色c最好的回复(或者NO_POINT，如果没有).
+	 * 条目 [(c * n + i) * n + j] 是着子i,j对颜色c最好的回复(或者NO_POINT，如果没有).
 	 */
-	private final short[][][] replies2;
+	private final AtomicIntegerArray replies2;
 
 	public LgrfTable(CoordinateSystem coords) {
-		replies1 = new short[2][coords.getFirstPointBeyondBoard()];
-		replies2 = new short[2][coords.getFirstPointBeyondBoard()][coords.getFirstPointBeyondBoard()];
+		n = coords.getFirstPointBeyondBoard();
+		replies1 = new AtomicIntegerArray(2 * n);
+		replies2 = new AtomicIntegerArray(2 * n * n);
 	}
 
 	public void clear() {
-		for (final short[] array : replies1) {
-			Arrays.fill(array, NO_POINT);
+		for (int i = 0; i < replies1.length(); i++) {
+			replies1.set(i, NO_POINT);
 		}
-		for (final short[][] array : replies2) {
-			for (final short[] array2 : array) {
-				Arrays.fill(array2, NO_POINT);
-			}
+		for (int i = 0; i < replies2.length(); i++) {
+			replies2.set(i, NO_POINT);
+		}
+	}
+
+	/**
+	 * 如果条目i的回复等于reply, 清除它. 如果条目在读取后被别的线程改变, 什么也不做.
+	 */
+	private static void forget(AtomicIntegerArray replies, int i, short reply) {
+		final int entry = replies.get(i);
+		if ((short) entry == reply) {
+			replies.compareAndSet(i, entry, (entry & ~REPLY_MASK) + VERSION_INCREMENT | NO_POINT);
 		}
 	}
 
@@ -45,28 +67,34 @@ public final class LgrfTable implements Serializable {
 	 * 返回上一着子对颜色c最好存储的回复.或者NO_POINT，如果没有
 	 */
 	public short getFirstLevelReply(Color color, short previousMove) {
-		return replies1[color.index()][previousMove];
+		return (short) replies1.get(color.index() * n + previousMove);
 	}
 
 	/**
 	 * 返回上连续两次着子对颜色c最好存储的回复.或者NO_POINT，如果没有.
 	 */
 	public short getSecondLevelReply(Color color, short penultimateMove, short previousMove) {
-		return replies2[color.index()][penultimateMove][previousMove];
+		return (short) replies2.get((color.index() * n + penultimateMove) * n + previousMove);
+	}
+
+	/** 把条目i的回复设为reply. 如果条目已经是reply，不写入. */
+	private static void remember(AtomicIntegerArray replies, int i, short reply) {
+		final int entry = replies.get(i);
+		if ((short) entry != reply) {
+			replies.compareAndSet(i, entry, (entry & ~REPLY_MASK) + VERSION_INCREMENT | reply & REPLY_MASK);
+		}
 	}
 
 	public void update(Color colorToPlay, boolean playoutWon, short penultimateMove, short previousMove, short reply) {
 		if (reply != PASS) {
+			final int i = colorToPlay.index() * n + previousMove;
+			final int j = (colorToPlay.index() * n + penultimateMove) * n + previousMove;
 			if (playoutWon) {
-				replies1[colorToPlay.index()][previousMove] = reply;
-				replies2[colorToPlay.index()][penultimateMove][previousMove] = reply;
+				remember(replies1, i, reply);
+				remember(replies2, j, reply);
 			} else {
-				if (replies1[colorToPlay.index()][previousMove] == reply) {
-					replies1[colorToPlay.index()][previousMove] = NO_POINT;
-				}
-				if (replies2[colorToPlay.index()][penultimateMove][previousMove] == reply) {
-					replies2[colorToPlay.index()][penultimateMove][previousMove] = NO_POINT;
-				}
+				forget(replies1, i, reply);
+				forget(replies2, j, reply);
 			}
 		}
 	}
@@ -0,0 +1,97 @@
+package com.github.fangyun.ginkgo.feature;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
+import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.util.ShortList;
+
+/**
+ * 为棋盘上每个点维护其周围8个点的3x3模式码. 落子或提子时只有周围8个点的码改变, 因此查询模式只需读一次数组.
+ * <p>
+ * 码的每个邻居占2位, 顺序同CoordinateSystem.getNeighbors. 内部以白方为当前棋手的形式存储 (己方1, 对方0, 空2, 棋盘外3),
+ * 这样它正好等于各邻居Color.index()的组合; 黑方的码通过交换0和1得到.
+ *
+ * @see PatternSuggester
+ * @see com.github.fangyun.ginkgo.patterns.PatternExtractor
+ */
+public final class PatternObserver implements BoardObserver {
+	private static final long serialVersionUID = -1893021409236148376L;
+
+	/** 每个2位字段的低位. */
+	private static final char LOW_BITS = 0x5555;
+
+	/** 方向i的相反方向在getNeighbors数组中的下标. */
+	private static final int[] OPPOSITE = { 3, 2, 1, 0, 7, 6, 5, 4 };
+
+	private final Board board;
+
+	private final CoordinateSystem coords;
+
+	/** 以白方为当前棋手的每个点的模式码. */
+	private final char[] patterns;
+
+	public PatternObserver(Board board) {
+		this.board = board;
+		coords = board.getCoordinateSystem();
+		patterns = new char[coords.getFirstPointBeyondBoard()];
+		board.addObserver(this);
+		clear();
+	}
+
+	@Override
+	public void clear() {
+		for (final short p : coords.getAllPointsOnBoard()) {
+			char pattern = 0;
+			final short[] neighbors = coords.getNeighbors(p);
+			for (int i = 0; i < neighbors.length; i++) {
+				pattern |= board.getColorAt(neighbors[i]).index() << i * 2;
+			}
+			patterns[p] = pattern;
+		}
+	}
+
+	@Override
+	public void copyDataFrom(BoardObserver that) {
+		final PatternObserver original = (PatternObserver) that;
+		System.arraycopy(original.patterns, 0, patterns, 0, patterns.length);
+	}
+
+	/**
+	 * 返回从colorToPlay看来p周围的模式码, 与PatternExtractor的编码相同.
+	 */
+	public char getPattern(short p, StoneColor colorToPlay) {
+		final char pattern = patterns[p];
+		if (colorToPlay == BLACK) {
+			// 对每个高位为0的字段(即棋子), 翻转低位以交换己方和对方
+			return (char) (pattern ^ (~(pattern >> 1) & LOW_BITS));
+		}
+		return pattern;
+	}
+
+	/** 把p的所有在棋盘上的邻居中指向p的字段设为color. */
+	private void set(short p, int colorIndex) {
+		final short[] neighbors = coords.getNeighbors(p);
+		for (int i = 0; i < neighbors.length; i++) {
+			final short n = neighbors[i];
+			if (coords.isOnBoard(n)) {
+				final int shift = OPPOSITE[i] * 2;
+				patterns[n] = (char) (patterns[n] & ~(3 << shift) | colorIndex << shift);
+			}
+		}
+	}
+
+	@Override
+	public void update(StoneColor color, short location, ShortList capturedStones) {
+		if (location != PASS) {
+			set(location, color.index());
+			for (int i = 0; i < capturedStones.size(); i++) {
+				set(capturedStones.get(i), VACANT.index());
+			}
+		}
+	}
+
+}
@@ -5,7 +5,6 @@ import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
 import java.io.ObjectInputStream;
 
 import com.github.fangyun.ginkgo.core.Board;
-import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.util.BitVector;
 import com.github.fangyun.ginkgo.util.ShortSet;
@@ -33,6 +32,9 @@ public final class PatternSuggester implements Suggester {
 
 	private final ShortSet moves;
 
+	/** 维护每个点的3x3模式码. */
+	private final PatternObserver patterns;
+
 	public PatternSuggester(Board board, HistoryObserver history) {
 		this(board, history, 0);
 	}
@@ -43,6 +45,7 @@ public final class PatternSuggester implements Suggester {
 		coords = board.getCoordinateSystem();
 		this.history = history;
 		moves = new ShortSet(coords.getFirstPointBeyondBoard());
+		patterns = new PatternObserver(board);
 		try (ObjectInputStream objectInputStream = new ObjectInputStream(
 				getClass().getResourceAsStream("/patterns/patterns3x3.data"));) {
 			final int[] fileRuns = (int[]) objectInputStream.readObject();
@@ -58,23 +61,6 @@ public final class PatternSuggester implements Suggester {
 		}
 	}
 
-	/** 返回一个16位的字符，表示p周围8个点的棋子颜色. */
-	private char calculatePattern(short p) {
-		char pattern = 0;
-		final short[] neighbors = coords.getNeighbors(p);
-		for (int i = 0; i < neighbors.length; i++) {
-			final Color color = board.getColorAt(neighbors[i]);
-			if (color == board.getColorToPlay()) {
-				// Friendly stone at this neighbor
-				pattern |= 1 << i * 2;
-			} else if (color != board.getColorToPlay().opposite()) {
-				// neighbor is vacant or off board
-				pattern |= color.index() << i * 2;
-			} // else do nothing, no need to OR 0 with 0
-		}
-		return pattern;
-	}
-
 	@Override
 	public int getBias() {
 		return bias;
@@ -94,8 +80,7 @@ public final class PatternSuggester implements Suggester {
 		final short[] neighbors = coords.getNeighbors(p);
 		for (final short n : neighbors) {
 			if (board.getColorAt(n) == VACANT) {
-				final char pattern = calculatePattern(n);
-				if (goodPatterns.get(pattern)) {
+				if (goodPatterns.get(patterns.getPattern(n, board.getColorToPlay()))) {
 					moves.add(n);
 				}
 			}
@@ -0,0 +1,87 @@
+package com.github.fangyun.ginkgo.feature;
+
+import static java.lang.Math.exp;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.mcts.SearchNode;
+import com.github.fangyun.ginkgo.policy.InferenceQueue;
+import com.github.fangyun.ginkgo.policy.PolicyNetwork;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 用策略网络给节点的子节点偏置. 网络给每个空点一个概率; 概率与平均值(1/空点数)的比值为r时, 给这个点bias次模拟, 其中赢r/(r+1)次.
+ * 所以平均的点的赢率是0.5, 网络偏好的点接近1, 不偏好的接近0.
+ * <p>
+ * 网络在所有McRunnable共享的InferenceQueue中成批计算, 所以队列不随CopiableStructure复制, 由McRunnable从原来的结构中设置.
+ */
+@SuppressWarnings("serial")
+public class PolicyRater implements Rater {
+
+	private final int bias;
+
+	private final Board board;
+
+	private final HistoryObserver history;
+
+	/** 所有McRunnable共享的推理队列. */
+	private transient InferenceQueue queue;
+
+	/** 这个评估器重用的请求, 第一次使用时创建. */
+	private transient InferenceQueue.Request request;
+
+	/** 每个空点的概率, 以点为下标. */
+	private transient float[] probabilities;
+
+	public PolicyRater(Board board, HistoryObserver history, InferenceQueue queue, int bias) {
+		this.board = board;
+		this.history = history;
+		this.queue = queue;
+		this.bias = bias;
+	}
+
+	public InferenceQueue getQueue() {
+		return queue;
+	}
+
+	public void setQueue(InferenceQueue queue) {
+		this.queue = queue;
+		request = null;
+	}
+
+	@Override
+	public void updateNode(SearchNode node) {
+		final PolicyNetwork network = queue.getNetwork();
+		final CoordinateSystem coords = board.getCoordinateSystem();
+		if (request == null) {
+			request = queue.newRequest();
+			probabilities = new float[coords.getFirstPointBeyondBoard()];
+		}
+		network.encode(board, history, request.input);
+		queue.evaluate(request);
+		final float[] logits = request.output;
+		final ShortSet vacant = board.getVacantPoints();
+		final int n = vacant.size();
+		if (n == 0) {
+			return;
+		}
+		// 用最大值使指数不溢出
+		float max = Float.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			final short p = vacant.get(i);
+			max = Math.max(max, logits[network.index(coords.row(p), coords.column(p))]);
+		}
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			final short p = vacant.get(i);
+			probabilities[p] = (float) exp(logits[network.index(coords.row(p), coords.column(p))] - max);
+			sum += probabilities[p];
+		}
+		for (int i = 0; i < n; i++) {
+			final short p = vacant.get(i);
+			final double relative = probabilities[p] / sum * n;
+			node.update(p, bias, (float) (bias * relative / (relative + 1)));
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.mcts.SearchNode;
 import com.github.fangyun.ginkgo.patterns.PatternFinder;
+import com.github.fangyun.ginkgo.patterns.ShapeObserver;
 import com.github.fangyun.ginkgo.patterns.ShapeTable;
 
 /**
@@ -23,10 +24,19 @@ public class ShapeRater implements Rater {
 
 	private final int minStones;
 
+	/** 增量维护的形状哈希，如果为null则每次用PatternFinder计算. */
+	private final ShapeObserver shapeObserver;
+
 	private ShapeTable shapeTable;
 
 	public ShapeRater(Board board, HistoryObserver history,
 			ShapeTable shapeTable, int bias, int minStones) {
+		this(board, history, shapeTable, bias, minStones, null);
+	}
+
+	public ShapeRater(Board board, HistoryObserver history,
+			ShapeTable shapeTable, int bias, int minStones, ShapeObserver shapeObserver) {
+		this.shapeObserver = shapeObserver;
 		this.bias = bias;
 		this.board = board;
 		this.history = history;
@@ -43,8 +53,9 @@ public class ShapeRater implements Rater {
 	public void updateNode(SearchNode node) {
 		for (short p : coords.getAllPointsOnBoard()) {
 			if (board.getColorAt(p) == VACANT) {
-				long hash = PatternFinder.getHash(board, p, minStones,
-						history.get(board.getTurn() - 1));
+				final short lastMove = history.get(board.getTurn() - 1);
+				long hash = shapeObserver != null ? shapeObserver.getHash(p, minStones, lastMove)
+						: PatternFinder.getHash(board, p, minStones, lastMove);
 				node.update(p, bias, (int) (bias * shapeTable.getWinRate(hash)));
 			}
 		}
@@ -3,10 +3,11 @@ package com.github.fangyun.ginkgo.mcts;
 import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
 import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
 import static com.github.fangyun.ginkgo.core.CoordinateSystem.RESIGN;
+import static com.github.fangyun.ginkgo.experiment.Logging.isLoggable;
 import static com.github.fangyun.ginkgo.experiment.Logging.log;
 
 import com.github.fangyun.ginkgo.core.Board;
-import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
 import com.github.fangyun.ginkgo.util.ShortList;
 import com.github.fangyun.ginkgo.util.ShortSet;
 
@@ -42,7 +43,9 @@ public abstract class AbstractDescender implements TreeDescender {
 			mostWins = root.getWins(PASS);
 			// 如果在前一个循环中选择的移动是非法的(例如，因为它从来没有真正尝试过)，那么就把它扔掉
 			if (result != PASS) {
-				log("Rejected " + board.getCoordinateSystem().toString(result) + " as illegal");
+				if (isLoggable()) {
+					log("Rejected " + board.getCoordinateSystem().toString(result) + " as illegal");
+				}
 				root.exclude(result);
 				result = PASS;
 			}
@@ -58,14 +61,16 @@ public abstract class AbstractDescender implements TreeDescender {
 		if (root.getWinRate(result) < RESIGN_PARAMETER) {
 			return RESIGN;
 		}
-		log("Selected " + board.getCoordinateSystem().toString(result) + " with " + root.getWins(result) + " wins in " + root.getRuns(result) + " runs");
+		if (isLoggable()) {
+			log("Selected " + board.getCoordinateSystem().toString(result) + " with " + root.getWins(result) + " wins in " + root.getRuns(result) + " runs");
+		}
 		return result;
 	}
 
 	/** 返回棋局从这里开始最佳的着子. */
 	short bestSearchMove(SearchNode node, McRunnable runnable) {
 		final Board runnableBoard = runnable.getBoard();
-		final MersenneTwisterFast random = runnable.getRandom();
+		final RandomSource random = runnable.getRandom();
 		short result = node.getWinningMove();
 		if (result != NO_POINT && runnableBoard.isLegal(result)) {
 			// 为了避免违反superko规则，需要进行isLegal()检查
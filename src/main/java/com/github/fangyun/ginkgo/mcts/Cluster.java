@@ -0,0 +1,210 @@
+package com.github.fangyun.ginkgo.mcts;
+
+import static com.github.fangyun.ginkgo.experiment.Logging.isLoggable;
+import static com.github.fangyun.ginkgo.experiment.Logging.log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+
+/**
+ * 集群模式的协调者一方. 通过TCP连接到以port=参数启动的工作者Ginkgo进程, 转发改变棋盘的命令, 并在搜索期间周期性地交换浅层树的统计.
+ * <p>
+ * 每次同步时，协调者把自己的增量以及其它工作者的增量发给每个工作者，并把工作者的增量合并到自己的树中.
+ *
+ * @see ClusterStatistics
+ */
+public final class Cluster {
+
+	/** 等待工作者应答的最短毫秒数. */
+	private static final int MIN_TIMEOUT = 5000;
+
+	/** 等待工作者应答的最长时间是多少个同步间隔. */
+	private static final int TIMEOUT_SYNC_INTERVALS = 20;
+
+	/** 到一个工作者进程的连接. */
+	private static final class Worker {
+
+		private final String address;
+
+		private final BufferedReader in;
+
+		private final PrintStream out;
+
+		/** 下次同步时发给此工作者的增量. */
+		private final StringBuilder pending;
+
+		/** 此工作者最近一次同步的增量. */
+		private String received;
+
+		/**
+		 * @param timeout
+		 *            等待应答的毫秒数. 超时的读抛出SocketTimeoutException, 工作者像断开连接一样被移除.
+		 */
+		Worker(String address, int timeout) throws IOException {
+			this.address = address;
+			final int colon = address.lastIndexOf(':');
+			@SuppressWarnings("resource")
+			final Socket socket = new Socket(address.substring(0, colon),
+					Integer.parseInt(address.substring(colon + 1)));
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeout);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			out = new PrintStream(socket.getOutputStream(), true);
+			pending = new StringBuilder();
+			received = "";
+		}
+
+		/**
+		 * 发送一条GTP命令并返回应答的内容(去掉"="前缀).
+		 *
+		 * @throws IOException
+		 *             如果连接中断, 超时或工作者返回错误.
+		 */
+		String send(String command) throws IOException {
+			out.println(command);
+			final String first = in.readLine();
+			if (first == null) {
+				throw new IOException("工作者 " + address + " 断开连接");
+			}
+			final StringBuilder response = new StringBuilder(first);
+			String line = in.readLine();
+			while (line != null && !line.isEmpty()) {
+				response.append('\n').append(line);
+				line = in.readLine();
+			}
+			if (response.charAt(0) != '=') {
+				throw new IOException("工作者 " + address + " 错误: " + response);
+			}
+			final int space = response.indexOf(" ");
+			return space < 0 ? "" : response.substring(space + 1).trim();
+		}
+
+	}
+
+	private final ClusterStatistics statistics;
+
+	/** 搜索期间同步之间的毫秒数. */
+	private final int syncInterval;
+
+	private final List<Worker> workers;
+
+	/**
+	 * @param addresses
+	 *            以逗号分隔的工作者地址, 例如"localhost:5001,localhost:5002".
+	 */
+	public Cluster(String addresses, int syncInterval, int minRuns, CoordinateSystem coords) {
+		this.syncInterval = syncInterval;
+		workers = new ArrayList<>();
+		statistics = new ClusterStatistics(coords, minRuns);
+		final int timeout = Math.max(MIN_TIMEOUT, TIMEOUT_SYNC_INTERVALS * syncInterval);
+		for (final String address : addresses.split(",")) {
+			try {
+				workers.add(new Worker(address.trim(), timeout));
+				if (isLoggable()) {
+					log("连接到工作者 " + address);
+				}
+			} catch (final IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+	}
+
+	/** 发送一条命令给所有工作者. 失败或不应答的工作者被移除. */
+	public void broadcast(String command) {
+		for (int i = 0; i < workers.size(); i++) {
+			try {
+				workers.get(i).send(command);
+			} catch (final IOException e) {
+				drop(i);
+				i--;
+			}
+		}
+	}
+
+	/** 设置工作者的棋盘尺寸和贴目，并清理棋盘. */
+	public void configure(int width, double komi) {
+		broadcast("boardsize " + width);
+		broadcast("komi " + komi);
+		broadcast("clear_board");
+	}
+
+	/** 移除第i个工作者. */
+	private void drop(int i) {
+		if (isLoggable()) {
+			log("移除工作者 " + workers.get(i).address);
+		}
+		workers.remove(i);
+	}
+
+	/** 返回搜索期间同步之间的毫秒数. */
+	public int getSyncInterval() {
+		return syncInterval;
+	}
+
+	/** 返回还在用的工作者个数. */
+	public int getWorkerCount() {
+		return workers.size();
+	}
+
+	/** 让工作者开始搜索当前位置. */
+	public void startSearch(SearchNode root) {
+		statistics.reset(root);
+		for (final Worker worker : workers) {
+			worker.pending.setLength(0);
+		}
+		broadcast("ginkgo-cluster-start");
+	}
+
+	/** 停止工作者的搜索，并做最后一次同步. */
+	public void stopSearch(SearchNode root) {
+		broadcast("ginkgo-cluster-stop");
+		synchronize(root);
+	}
+
+	/**
+	 * 与所有工作者交换浅层树的增量.
+	 */
+	public void synchronize(SearchNode root) {
+		final String local = statistics.collect(root);
+		for (int i = 0; i < workers.size(); i++) {
+			final Worker worker = workers.get(i);
+			try {
+				worker.received = worker.send("ginkgo-cluster-sync " + worker.pending);
+			} catch (final IOException e) {
+				drop(i);
+				i--;
+			}
+		}
+		for (final Worker worker : workers) {
+			statistics.merge(root, worker.received);
+		}
+		for (final Worker worker : workers) {
+			worker.pending.setLength(0);
+			append(worker.pending, local);
+			for (final Worker other : workers) {
+				if (other != worker) {
+					append(worker.pending, other.received);
+				}
+			}
+		}
+	}
+
+	/** 把增量deltas追加到buffer. */
+	private static void append(StringBuilder buffer, String deltas) {
+		if (!deltas.isEmpty()) {
+			if (buffer.length() > 0) {
+				buffer.append(';');
+			}
+			buffer.append(deltas);
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+package com.github.fangyun.ginkgo.mcts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.util.ListNode;
+
+/**
+ * 集群模式下浅层搜索树(根及其深度1、2的节点)的统计快照. 用来计算自上次同步以来的增量，并合并其它进程发来的增量.
+ * <p>
+ * 增量编码为一行文本，便于通过GTP传输: 条目以';'分隔，每个条目为"哈希,着子,运行数,赢数"，哈希为十六进制.
+ * 进程间节点以fancyHash识别，因为Zobrist随机数以固定种子产生，所以各进程相同.
+ * <p>
+ * 为了限制每次同步的代价, 只报告每个节点运行最多的MAX_CHILDREN个子节点, 并且跳过总运行数自上次同步以来没有变化的节点.
+ */
+public final class ClusterStatistics {
+
+	/** 同步的最大深度(根为0). */
+	public static final int MAX_DEPTH = 2;
+
+	/** 每个节点最多报告的子节点数, 按总运行数选取. */
+	public static final int MAX_CHILDREN = 16;
+
+	private final CoordinateSystem coords;
+
+	/** 只同步至少有这么多运行的非根节点. */
+	private final int minRuns;
+
+	/** 上次同步时每个节点每个着子的运行数. */
+	private final Map<Long, int[]> runs;
+
+	/** 上次同步时每个节点的总运行数. */
+	private final Map<Long, Integer> totalRuns;
+
+	/** 上次同步时每个节点每个着子的赢数. */
+	private final Map<Long, float[]> wins;
+
+	/** 当前浅层树的节点，以哈希为键. 由collectNodes填充. */
+	private final Map<Long, SearchNode> nodes;
+
+	public ClusterStatistics(CoordinateSystem coords, int minRuns) {
+		this.coords = coords;
+		this.minRuns = minRuns;
+		runs = new HashMap<>();
+		totalRuns = new HashMap<>();
+		wins = new HashMap<>();
+		nodes = new HashMap<>();
+	}
+
+	/**
+	 * 返回自上次同步以来本进程对浅层树的增量, 并更新快照. 第一次遇到的节点只记录快照而不报告.
+	 */
+	public String collect(SearchNode root) {
+		collectNodes(root, true);
+		final StringBuilder result = new StringBuilder();
+		for (final SearchNode node : nodes.values()) {
+			final long hash = node.getFancyHash();
+			final int[] oldRuns = runs.get(hash);
+			if (oldRuns == null) {
+				snapshot(node);
+				continue;
+			}
+			final int total = node.getTotalRuns();
+			if (total == totalRuns.get(hash)) {
+				// Nothing has changed in this node since the last sync
+				continue;
+			}
+			totalRuns.put(hash, total);
+			final float[] oldWins = wins.get(hash);
+			for (short p = 0; p < oldRuns.length; p++) {
+				if (!isMove(p) || node.getWinRate(p) < 0) {
+					continue;
+				}
+				final int r = node.getRuns(p);
+				final float w = node.getWins(p);
+				if (r > oldRuns[p]) {
+					if (result.length() > 0) {
+						result.append(';');
+					}
+					result.append(Long.toHexString(hash)).append(',').append(p).append(',')
+							.append(r - oldRuns[p]).append(',').append(w - oldWins[p]);
+					oldRuns[p] = r;
+					oldWins[p] = w;
+				}
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * 找到从根到MAX_DEPTH的节点，放入nodes.
+	 *
+	 * @param capped
+	 *            如果true, 每个节点只取运行最多的MAX_CHILDREN个子节点.
+	 */
+	private void collectNodes(SearchNode root, boolean capped) {
+		nodes.clear();
+		collectNodes(root, 0, capped);
+	}
+
+	private void collectNodes(SearchNode node, int depth, boolean capped) {
+		if (node == null || !node.isInUse() || nodes.containsKey(node.getFancyHash())) {
+			return;
+		}
+		if (depth > 0 && node.getTotalRuns() < minRuns) {
+			return;
+		}
+		nodes.put(node.getFancyHash(), node);
+		if (depth < MAX_DEPTH) {
+			final List<SearchNode> children = new ArrayList<>();
+			ListNode<SearchNode> child = node.getChildren();
+			while (child != null) {
+				children.add(child.getKey());
+				child = child.getNext();
+			}
+			if (capped && children.size() > MAX_CHILDREN) {
+				children.sort((a, b) -> Integer.compare(b.getTotalRuns(), a.getTotalRuns()));
+			}
+			final int n = capped ? Math.min(children.size(), MAX_CHILDREN) : children.size();
+			for (int i = 0; i < n; i++) {
+				collectNodes(children.get(i), depth + 1, capped);
+			}
+		}
+	}
+
+	/** True如果p是棋盘上的点或虚手. */
+	private boolean isMove(short p) {
+		return p == CoordinateSystem.PASS || coords.isOnBoard(p);
+	}
+
+	/**
+	 * 合并其它进程发来的增量到本进程的树中. 快照同时增加这些增量，因此它们不会被再次报告. 不在当前浅层树中的节点被忽略.
+	 */
+	public void merge(SearchNode root, String deltas) {
+		if (deltas == null || deltas.isEmpty()) {
+			return;
+		}
+		// Other processes may report children outside our own top MAX_CHILDREN
+		collectNodes(root, false);
+		for (final String entry : deltas.split(";")) {
+			final String[] fields = entry.split(",");
+			final long hash = Long.parseUnsignedLong(fields[0], 16);
+			final SearchNode node = nodes.get(hash);
+			if (node == null) {
+				continue;
+			}
+			final short p = Short.parseShort(fields[1]);
+			final int r = Integer.parseInt(fields[2]);
+			final float w = Float.parseFloat(fields[3]);
+			node.update(p, r, w);
+			final int[] oldRuns = runs.get(hash);
+			if (oldRuns != null) {
+				oldRuns[p] += r;
+				wins.get(hash)[p] += w;
+				totalRuns.merge(hash, r, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * 忘记所有快照，然后对当前浅层树重新建立快照. 在每次搜索开始时调用，因此只有此次搜索的运行被交换.
+	 */
+	public void reset(SearchNode root) {
+		runs.clear();
+		totalRuns.clear();
+		wins.clear();
+		collectNodes(root, true);
+		for (final SearchNode node : nodes.values()) {
+			snapshot(node);
+		}
+	}
+
+	/** 记录节点当前的统计. */
+	private void snapshot(SearchNode node) {
+		final int n = coords.getFirstPointBeyondBoard();
+		final int[] r = new int[n];
+		final float[] w = new float[n];
+		for (short p = 0; p < n; p++) {
+			if (isMove(p)) {
+				r[p] = node.getRuns(p);
+				w[p] = node.getWins(p);
+			}
+		}
+		runs.put(node.getFancyHash(), r);
+		totalRuns.put(node.getFancyHash(), node.getTotalRuns());
+		wins.put(node.getFancyHash(), w);
+	}
+
+}
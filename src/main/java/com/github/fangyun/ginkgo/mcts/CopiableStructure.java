@@ -64,4 +64,15 @@ public final class CopiableStructure implements Serializable {
 		throw new IllegalArgumentException("无此对象在CopiableStructure中");
 	}
 
+	/** 从此CopiableStructure删除一项目(按同一性比较). */
+	public CopiableStructure remove(Serializable item) {
+		for (int i = 0; i < contents.size(); i++) {
+			if (contents.get(i) == item) {
+				contents.remove(i);
+				break;
+			}
+		}
+		return this;
+	}
+
 }
@@ -1,6 +1,9 @@
 package com.github.fangyun.ginkgo.mcts;
 
 import static com.github.fangyun.ginkgo.experiment.PropertyPaths.GINKGO_ROOT;
+
+import java.util.Arrays;
+
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.feature.AtariObserver;
 import com.github.fangyun.ginkgo.feature.CaptureSuggester;
@@ -8,21 +11,29 @@ import com.github.fangyun.ginkgo.feature.Conjunction;
 import com.github.fangyun.ginkgo.feature.Disjunction;
 import com.github.fangyun.ginkgo.feature.EscapeSuggester;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
+import com.github.fangyun.ginkgo.feature.LadderRater;
+import com.github.fangyun.ginkgo.feature.LadderReader;
 import com.github.fangyun.ginkgo.feature.LgrfSuggester;
 import com.github.fangyun.ginkgo.feature.LgrfTable;
 import com.github.fangyun.ginkgo.feature.NearAnotherStone;
 import com.github.fangyun.ginkgo.feature.NotEyeLike;
 import com.github.fangyun.ginkgo.feature.OnThirdOrFourthLine;
 import com.github.fangyun.ginkgo.feature.PatternSuggester;
+import com.github.fangyun.ginkgo.feature.PolicyRater;
 import com.github.fangyun.ginkgo.feature.Rater;
 import com.github.fangyun.ginkgo.feature.ShapeRater;
 import com.github.fangyun.ginkgo.feature.Predicate;
 import com.github.fangyun.ginkgo.feature.StoneCountObserver;
 import com.github.fangyun.ginkgo.feature.Suggester;
+import com.github.fangyun.ginkgo.move.Mover;
 import com.github.fangyun.ginkgo.move.MoverFactory;
+import com.github.fangyun.ginkgo.move.PolicyMover;
 import com.github.fangyun.ginkgo.move.PredicateMover;
 import com.github.fangyun.ginkgo.move.SuggesterMover;
+import com.github.fangyun.ginkgo.patterns.ShapeObserver;
 import com.github.fangyun.ginkgo.patterns.ShapeTable;
+import com.github.fangyun.ginkgo.policy.InferenceQueue;
+import com.github.fangyun.ginkgo.policy.PolicyNetwork;
 import com.github.fangyun.ginkgo.score.ChineseFinalScorer;
 import com.github.fangyun.ginkgo.score.ChinesePlayoutScorer;
 
@@ -85,6 +96,11 @@ public final class CopiableStructureFactory {
 
 	/** 类似于useWithBias，但包含LGRF2. */
 	public static CopiableStructure lgrfWithBias(int width, double komi) {
+		return lgrfWithBias(width, komi, new StructureOptions());
+	}
+
+	/** 类似于useWithBias，但包含LGRF2. */
+	public static CopiableStructure lgrfWithBias(int width, double komi, StructureOptions options) {
 		final CopiableStructure base = basicParts(width, komi);
 		final Board board = base.get(Board.class);
 		// Observers
@@ -105,16 +121,48 @@ public final class CopiableStructureFactory {
 		// the same table. This is handled in the McRunnable constructor.
 		base.add(lgrf);
 		// Suggesters
-		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20);
+		final LadderReader ladder = options.isLadders() ? new LadderReader(board) : null;
+		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20, ladder);
 		final PatternSuggester patterns = new PatternSuggester(board, historyObserver, 20);
 		final CaptureSuggester capture = new CaptureSuggester(board, atariObserver, 20);
 		// Bias
 		base.add(new Suggester[] { escape, patterns, capture });
+		if (ladder != null) {
+			base.add(new Rater[] { new LadderRater(board, ladder, 20) });
+		}
 		// Mover
-		final SuggesterMover mover = new SuggesterMover(board, lgrf,
-				new SuggesterMover(board, escape, new SuggesterMover(board, patterns,
-						new SuggesterMover(board, capture, new PredicateMover(board, filter)))));
-		return base.add(mover);
+		return base.add(playoutMover(board, options, filter, lgrf, escape, patterns, capture));
+	}
+
+	/**
+	 * 给base加上用策略网络偏置节点的PolicyRater. 它被加到base的Rater数组的最后(没有则创建数组), 所以shape结构的第0个位置仍留给ShapeRater.
+	 *
+	 * @param networkPath
+	 *            网络权重文件, 见PolicyNetwork.
+	 * @param maxBatch
+	 *            每批计算的最多局面数, 通常是线程数.
+	 */
+	public static CopiableStructure policy(CopiableStructure base, String networkPath, int bias, int maxBatch) {
+		final Board board = base.get(Board.class);
+		final PolicyNetwork network = new PolicyNetwork(networkPath);
+		if (network.getWidth() != board.getCoordinateSystem().getWidth()) {
+			throw new IllegalArgumentException("策略网络的宽度" + network.getWidth() + "与棋盘的不同");
+		}
+		final PolicyRater rater = new PolicyRater(board, base.get(HistoryObserver.class),
+				new InferenceQueue(network, maxBatch), bias);
+		// The rater is also added on its own so that every McRunnable can
+		// point its copy to the same queue
+		base.add(rater);
+		Rater[] raters = new Rater[0];
+		try {
+			raters = base.get(Rater[].class);
+			base.remove(raters);
+		} catch (final IllegalArgumentException e) {
+			// No other raters
+		}
+		raters = Arrays.copyOf(raters, raters.length + 1);
+		raters[raters.length - 1] = rater;
+		return base.add(raters);
 	}
 
 	/** 返回结构随机落子除了像眼的点. */
@@ -125,29 +173,53 @@ public final class CopiableStructureFactory {
 		return base.add(MoverFactory.simpleRandom(board));
 	}
 
+	/**
+	 * 返回棋局中使用的落子器: 按顺序尝试建议器，最后在满足过滤器的点中随机落子. options.isFused()或者给了权重时返回单个PolicyMover,
+	 * 否则返回等价的SuggesterMover链.
+	 */
+	static Mover playoutMover(Board board, StructureOptions options, Predicate filter, Suggester... suggesters) {
+		if (options.isFused() || options.getPolicyWeights() != null) {
+			return new PolicyMover(board, filter, options.getPolicyWeights(), suggesters);
+		}
+		Mover result = new PredicateMover(board, filter);
+		for (int i = suggesters.length - 1; i >= 0; i--) {
+			result = new SuggesterMover(board, suggesters[i], result);
+		}
+		return result;
+	}
+
 	/**
 	 * 类似{@link#escapePatternCapture}, 但也更新偏置.
 	 */
 	public static CopiableStructure useWithBias(int width, double komi) {
+		return useWithBias(width, komi, new StructureOptions());
+	}
+
+	/**
+	 * 类似{@link#escapePatternCapture}, 但也更新偏置.
+	 */
+	public static CopiableStructure useWithBias(int width, double komi, StructureOptions options) {
 		final CopiableStructure base = basicParts(width, komi);
 		final Board board = base.get(Board.class);
 		// Observers
 		final AtariObserver atariObserver = new AtariObserver(board);
 		final HistoryObserver historyObserver = base.get(HistoryObserver.class);
 		// Suggesters
-		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20);
+		final LadderReader ladder = options.isLadders() ? new LadderReader(board) : null;
+		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20, ladder);
 		final PatternSuggester patterns = new PatternSuggester(board, historyObserver, 20);
 		final CaptureSuggester capture = new CaptureSuggester(board, atariObserver, 20);
 		// Bias
 		base.add(new Suggester[] { escape, patterns, capture });
+		if (ladder != null) {
+			base.add(new Rater[] { new LadderRater(board, ladder, 20) });
+		}
 		// Mover
-		final SuggesterMover mover = new SuggesterMover(board, escape,
-				new SuggesterMover(board, patterns,
-						new SuggesterMover(board, capture,
-								new PredicateMover(board, new Conjunction(new NotEyeLike(board),
-										new Disjunction(
-												OnThirdOrFourthLine.forWidth(board.getCoordinateSystem().getWidth()),
-												new NearAnotherStone(board)))))));
+		final Mover mover = playoutMover(board, options,
+				new Conjunction(new NotEyeLike(board),
+						new Disjunction(OnThirdOrFourthLine.forWidth(board.getCoordinateSystem().getWidth()),
+								new NearAnotherStone(board))),
+				escape, patterns, capture);
 		// Filter
 		base.add(new Conjunction(new NotEyeLike(board), new Disjunction(
 				OnThirdOrFourthLine.forWidth(board.getCoordinateSystem().getWidth()), new NearAnotherStone(board))));
@@ -156,6 +228,14 @@ public final class CopiableStructureFactory {
 
 	public static CopiableStructure shape(int width, double komi, int shapeBias, int minStones,
 			float shapeScalingFactor) {
+		return shape(width, komi, shapeBias, minStones, shapeScalingFactor, new StructureOptions());
+	}
+
+	/**
+	 * 类似于lgrfWithBias，但加上形状评价器. 如果options没有给出形状表文件，用GINKGO_ROOT/patterns下由minStones和伸缩因子确定的文件.
+	 */
+	public static CopiableStructure shape(int width, double komi, int shapeBias, int minStones,
+			float shapeScalingFactor, StructureOptions options) {
 		final CopiableStructure base = basicParts(width, komi);
 		final Board board = base.get(Board.class);
 		// Observers
@@ -173,18 +253,25 @@ public final class CopiableStructureFactory {
 		// to
 		// the same table. This is handled in the McRunnable constructor.
 		base.add(lgrf);
-		String sfString = Float.toString(shapeScalingFactor);
-		sfString = sfString.substring(sfString.indexOf('.') + 1);
+		String shapeTablePath = options.getShapeTablePath();
+		if (shapeTablePath == null) {
+			String sfString = Float.toString(shapeScalingFactor);
+			sfString = sfString.substring(sfString.indexOf('.') + 1);
+			shapeTablePath = GINKGO_ROOT + "patterns/patterns" + minStones + "stones-SHAPE-sf" + sfString + ".data";
+		}
 		// TODO The shape scaling factor (last parameter below) should not be
 		// hard-coded
-		final ShapeTable shapeTable = new ShapeTable(
-				GINKGO_ROOT + "patterns/patterns" + minStones + "stones-SHAPE-sf" + sfString + ".data", 0.99f);
+		final ShapeTable shapeTable = new ShapeTable(shapeTablePath, 0.99f);
 		// Suggesters
-		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20);
+		final LadderReader ladder = options.isLadders() ? new LadderReader(board) : null;
+		final EscapeSuggester escape = new EscapeSuggester(board, atariObserver, 20, ladder);
 		final PatternSuggester patterns = new PatternSuggester(board, historyObserver, 20);
 		final CaptureSuggester capture = new CaptureSuggester(board, atariObserver, 20);
 		// Shape
-		final ShapeRater shape = new ShapeRater(board, historyObserver, shapeTable, shapeBias, minStones);
+		final ShapeObserver shapeObserver = new ShapeObserver(board, ShapeObserver.DEFAULT_RINGS);
+		base.add(shapeObserver);
+		final ShapeRater shape = new ShapeRater(board, historyObserver, shapeTable, shapeBias, minStones,
+				shapeObserver);
 		base.add(shapeTable);
 		base.add(shape);
 		// Bias;
@@ -193,12 +280,9 @@ public final class CopiableStructureFactory {
 		// added to the ShapeRater on the outside, and this avoids resizing
 		// the array; when using this copiable structure, add the ShapeRater
 		// to the 0th slot of this array
-		base.add(new Rater[] { null });
+		base.add(ladder != null ? new Rater[] { null, new LadderRater(board, ladder, 20) } : new Rater[] { null });
 		// Mover
-		final SuggesterMover mover = new SuggesterMover(board, lgrf,
-				new SuggesterMover(board, escape, new SuggesterMover(board, patterns,
-						new SuggesterMover(board, capture, new PredicateMover(board, filter)))));
-		return base.add(mover);
+		return base.add(playoutMover(board, options, filter, lgrf, escape, patterns, capture));
 	}
 
 }
@@ -7,21 +7,27 @@ import com.github.fangyun.ginkgo.core.StoneColor;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
 import com.github.fangyun.ginkgo.feature.LgrfTable;
 
-/** 在一个棋局结束后更新LGRF表. (同样更新树.) */
+/**
+ * 在一个棋局结束后更新LGRF表. (同样更新树.) 每次更新写入运行棋局的McRunnable所用的表,
+ * 它可以是共享的表或线程自己的表.
+ */
 public final class LgrfUpdater implements TreeUpdater {
 
-	private final LgrfTable table;
+	/** 所有McRunnable所用的表, clear时清除. */
+	private final LgrfTable[] tables;
 
 	private final TreeUpdater updater;
 
-	public LgrfUpdater(TreeUpdater updater, LgrfTable table) {
+	public LgrfUpdater(TreeUpdater updater, LgrfTable... tables) {
 		this.updater = updater;
-		this.table = table;
+		this.tables = tables;
 	}
 
 	@Override
 	public void clear() {
-		table.clear();
+		for (final LgrfTable table : tables) {
+			table.clear();
+		}
 		updater.clear();
 	}
 
@@ -37,7 +43,7 @@ public final class LgrfUpdater implements TreeUpdater {
 
 	/** 测试用. */
 	LgrfTable getTable() {
-		return table;
+		return tables[0];
 	}
 
 	@Override
@@ -49,7 +55,8 @@ public final class LgrfUpdater implements TreeUpdater {
 	public void updateTree(Color winner, McRunnable runnable) {
 		updater.updateTree(winner, runnable);
 		HistoryObserver history = runnable.getHistoryObserver();
-		if (winner != VACANT) {
+		if (winner != VACANT && runnable.isResultDecisive()) {
+			final LgrfTable table = runnable.getLgrfTable();
 			Board playerBoard = runnable.getPlayer().getBoard();
 			int turn = runnable.getTurn();
 			boolean win = winner == playerBoard.getColorToPlay();
@@ -2,25 +2,35 @@ package com.github.fangyun.ginkgo.mcts;
 
 import static com.github.fangyun.ginkgo.core.Legality.OK;
 import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
+import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
+import static com.github.fangyun.ginkgo.experiment.Logging.isLoggable;
 import static com.github.fangyun.ginkgo.experiment.Logging.log;
 
+import java.util.Arrays;
+
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.core.Legality;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.McRun;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
 import com.github.fangyun.ginkgo.feature.LgrfSuggester;
 import com.github.fangyun.ginkgo.feature.LgrfTable;
 import com.github.fangyun.ginkgo.feature.Predicate;
+import com.github.fangyun.ginkgo.feature.PolicyRater;
 import com.github.fangyun.ginkgo.feature.Rater;
 import com.github.fangyun.ginkgo.feature.ShapeRater;
 import com.github.fangyun.ginkgo.feature.StoneCountObserver;
 import com.github.fangyun.ginkgo.feature.Suggester;
 import com.github.fangyun.ginkgo.move.Mover;
+import com.github.fangyun.ginkgo.patterns.ShapeObserver;
 import com.github.fangyun.ginkgo.patterns.ShapeTable;
 import com.github.fangyun.ginkgo.score.ChinesePlayoutScorer;
+import com.github.fangyun.ginkgo.score.LeafEvaluator;
 import com.github.fangyun.ginkgo.score.PlayoutScorer;
 import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
 import com.github.fangyun.ginkgo.util.ShortList;
 import com.github.fangyun.ginkgo.util.ShortSet;
 
@@ -29,6 +39,15 @@ import com.github.fangyun.ginkgo.util.ShortSet;
  */
 public final class McRunnable implements Runnable {
 
+	/** 实际棋盘前进不超过此手数时, 所有权统计减半保留而不是清除. */
+	static final int OWNERSHIP_HORIZON = 2;
+
+	/** 每这么多次棋局(2的幂)只有一次计入所有权统计, 因为统计要扫描整个棋盘. */
+	static final int OWNERSHIP_SAMPLE_INTERVAL = 8;
+
+	/** 截断的棋局的估计离0.5超过这么多时, 才被当作确定的结果, 见{@link #isResultDecisive()}. */
+	private static final float DECISIVE_MARGIN = 0.2f;
+
 	/** McRunnable执行所在的棋盘. */
 	private final Board board;
 
@@ -36,6 +55,15 @@ public final class McRunnable implements Runnable {
 
 	private final CoordinateSystem coords;
 
+	/** 棋局超出树至少这么多着后, 在第一个平静的局面截断; 0表示不截断. */
+	private int cutoffMoves;
+
+	/** 截断的棋局中黑棋赢的估计概率, 或者-1如果上一次棋局没有截断. */
+	private float evaluation;
+
+	/** 截断棋局时估计结果的评估器, 如果不截断则为null. */
+	private LeafEvaluator evaluator;
+
 	/** @see #getFancyHashes() */
 	private final long[] fancyHashes;
 
@@ -45,12 +73,29 @@ public final class McRunnable implements Runnable {
 	/** 跟踪着子. */
 	private final HistoryObserver historyObserver;
 
+	/** LGRF建议器，如果不用LGRF则为null. */
+	private LgrfSuggester lgrfSuggester;
+
+	/** LGRF建议器使用的表，通常被所有McRunnable共享. */
+	private LgrfTable lgrfTable;
+
 	/** 着子计数为了快速结束棋局. */
 	private final StoneCountObserver mercyObserver;
 
 	/** 产生超出树的着子. */
 	private final Mover mover;
 
+	/**
+	 * ownership[c][p]为点p在终局中属于颜色c(颜色c的棋子或单点眼)的抽样的已计分棋局数. 只由本线程写, 棋手在线程停止后合并.
+	 */
+	private final int[][] ownership;
+
+	/** 计入ownership的棋局数. */
+	private int ownershipPlayouts;
+
+	/** ownership所属的实际棋盘的手数. */
+	private int ownershipTurn;
+
 	/**
 	 * 被RaveNode.recordPlayout所用. 存在此而不是在RaveNode是为了避免创建百万的ShortSet.
 	 */
@@ -63,11 +108,20 @@ public final class McRunnable implements Runnable {
 	private long playoutsCompleted;
 
 	/** 随机数发生器. */
-	private final MersenneTwisterFast random;
+	private RandomSource random;
+
+	/** 在线形状学习的本地缓冲, 由ShapeUpdater创建. */
+	private ShapeLearningBuffer shapeLearningBuffer;
+
+	/** 增量维护的形状哈希，如果不用形状则为null. */
+	private final ShapeObserver shapeObserver;
 
 	/** 判定棋局的胜方. */
 	private final PlayoutScorer scorer;
 
+	/** 性能计数器. */
+	private final RunStatistics statistics;
+
 	/** 一组建议器用来更新偏置量. */
 	private Suggester[] suggesters;
 
@@ -87,13 +141,27 @@ public final class McRunnable implements Runnable {
 		candidates = new ShortList(coords.getArea());
 		ShapeTable shapeTable = null;
 		ShapeRater shape = null;
+		ShapeObserver shapes = null;
 		try {
 			shapeTable = stuff.get(ShapeTable.class);
 			shape = copy.get(ShapeRater.class);
 			shape.setTable(shapeTable);
+			shapes = copy.get(ShapeObserver.class);
 		} catch (final IllegalArgumentException e) {
 			// If we get here, we're not using shape
 		}
+		shapeObserver = shapes;
+		try {
+			evaluator = copy.get(LeafEvaluator.class);
+		} catch (final IllegalArgumentException e) {
+			// If we get here, playouts are never cut off
+		}
+		evaluation = -1;
+		try {
+			copy.get(PolicyRater.class).setQueue(stuff.get(PolicyRater.class).getQueue());
+		} catch (final IllegalArgumentException e) {
+			// If we get here, we're not using a policy network
+		}
 		suggesters = copy.get(Suggester[].class);
 		try {
 			raters = copy.get(Rater[].class);
@@ -106,16 +174,19 @@ public final class McRunnable implements Runnable {
 		this.player = player;
 		random = new MersenneTwisterFast();
 		mover = copy.get(Mover.class);
+		lgrfTable = table;
 		if (table != null) {
-			final LgrfSuggester lgrf = copy.get(LgrfSuggester.class);
-			lgrf.setTable(table);
+			lgrfSuggester = copy.get(LgrfSuggester.class);
+			lgrfSuggester.setTable(table);
 		}
 		scorer = copy.get(ChinesePlayoutScorer.class);
 		mercyObserver = copy.get(StoneCountObserver.class);
 		historyObserver = copy.get(HistoryObserver.class);
 		filter = copy.get(Predicate.class);
 		fancyHashes = new long[coords.getMaxMovesPerGame() + 1];
+		ownership = new int[2][coords.getFirstPointBeyondBoard()];
 		playedPoints = new ShortSet(coords.getFirstPointBeyondBoard());
+		statistics = new RunStatistics();
 	}
 
 	/**
@@ -132,6 +203,14 @@ public final class McRunnable implements Runnable {
 		fancyHashes[board.getTurn()] = board.getFancyHash();
 	}
 
+	/** 清除所有权统计, 例如在新对局或悔棋时. */
+	public void clearOwnership() {
+		for (final int[] counts : ownership) {
+			Arrays.fill(counts, 0);
+		}
+		ownershipPlayouts = 0;
+	}
+
 	/** 拷贝棋盘数据. */
 	public void copyDataFrom(Board that) {
 		board.copyDataFrom(that);
@@ -171,11 +250,86 @@ public final class McRunnable implements Runnable {
 		return playoutsCompleted;
 	}
 
+	/**
+	 * 返回所有权统计: [c][p]为点p在终局中属于颜色c的棋局数. 其它线程读时数据可能稍有过时.
+	 */
+	public int[][] getOwnership() {
+		return ownership;
+	}
+
+	/** 返回计入所有权统计的棋局数. */
+	public int getOwnershipPlayouts() {
+		return ownershipPlayouts;
+	}
+
+	/** 返回所有权统计所属的实际棋盘的手数. */
+	public int getOwnershipTurn() {
+		return ownershipTurn;
+	}
+
+	/** 返回LGRF建议器使用的表，如果不用LGRF则为null. */
+	public LgrfTable getLgrfTable() {
+		return lgrfTable;
+	}
+
 	/** 返回本次runnable关联的随机数发生器. */
-	public MersenneTwisterFast getRandom() {
+	public RandomSource getRandom() {
 		return random;
 	}
 
+	/** 返回增量维护的形状哈希，如果不用形状则为null. */
+	public ShapeObserver getShapeObserver() {
+		return shapeObserver;
+	}
+
+	/**
+	 * 设置截断棋局的着数. 棋局超出树至少moves着后, 在第一个平静的局面停止, 用评估器估计结果. 0表示不截断. 需要结构中有LeafEvaluator.
+	 */
+	public void setPlayoutCutoff(int moves) {
+		if (moves > 0 && evaluator == null) {
+			throw new IllegalStateException("没有截断棋局的评估器");
+		}
+		cutoffMoves = moves;
+	}
+
+	/** 设置本runnable的随机数发生器. 缺省为MersenneTwisterFast. */
+	public void setRandom(RandomSource random) {
+		this.random = random;
+	}
+
+	/** 让本runnable的LGRF建议器使用给定的表, 例如每个线程自己的表. */
+	public void setLgrfTable(LgrfTable table) {
+		lgrfTable = table;
+		lgrfSuggester.setTable(table);
+	}
+
+	/** 返回在线形状学习的缓冲，如果还没有则为null. */
+	ShapeLearningBuffer getShapeLearningBuffer() {
+		return shapeLearningBuffer;
+	}
+
+	void setShapeLearningBuffer(ShapeLearningBuffer buffer) {
+		shapeLearningBuffer = buffer;
+	}
+
+	/** 返回上一次截断的棋局中黑棋赢的估计概率, 或者-1如果上一次棋局下完了. */
+	public float getEvaluation() {
+		return evaluation;
+	}
+
+	/**
+	 * 返回上一次棋局的胜方是否确定: 棋局下完了, 或者截断时估计的概率离0.5足够远. LGRF和形状表只从确定的棋局学习,
+	 * 因为截断的棋局的胜方只是更可能的一方.
+	 */
+	public boolean isResultDecisive() {
+		return evaluation < 0 || Math.abs(evaluation - 0.5f) > DECISIVE_MARGIN;
+	}
+
+	/** 返回本次runnable的性能计数器. */
+	public RunStatistics getStatistics() {
+		return statistics;
+	}
+
 	/** 返回一组建议器. */
 	public Suggester[] getSuggesters() {
 		return suggesters;
@@ -206,26 +360,74 @@ public final class McRunnable implements Runnable {
 	 *            true，如果在一种棋色远多于另一种棋色时，我们放弃棋局.
 	 */
 	public Color performMcRun(boolean mercy) {
+		return performMcRun(mercy, false);
+	}
+
+	/**
+	 * @param mercy
+	 *            true，如果在一种棋色远多于另一种棋色时，我们放弃棋局.
+	 * @param toEnd
+	 *            true时不截断棋局, 并且棋局终止后总是计入所有权统计, 而不是每OWNERSHIP_SAMPLE_INTERVAL次一次.
+	 *            棋手补足所有权统计时使用: 截断的棋局没有终局, 不能计入.
+	 */
+	public Color performMcRun(boolean mercy, boolean toEnd) {
+		final McRun sample = (playoutsCompleted & (McRun.SAMPLE_INTERVAL - 1)) == 0 ? new McRun() : null;
+		if (sample != null) {
+			sample.begin();
+		}
+		final long start = System.nanoTime();
+		evaluation = -1;
 		copyDataFrom(player.getBoard());
+		final int rootTurn = board.getTurn();
 		player.descend(this);
+		final long descended = System.nanoTime();
+		final int treeTurn = board.getTurn();
 		Color winner;
 		if (board.getPasses() == 2) {
 			winner = scorer.winner();
+			statistics.recordScored();
 		} else {
-			winner = playout(mercy);
+			winner = playout(mercy, !toEnd);
+		}
+		if (board.getPasses() >= 2 && (toEnd || (playoutsCompleted & (OWNERSHIP_SAMPLE_INTERVAL - 1)) == 0)) {
+			recordOwnership(rootTurn);
 		}
+		final long played = System.nanoTime();
 		player.updateTree(winner, this);
 		playoutsCompleted++;
+		final long updated = System.nanoTime();
+		statistics.recordRun(treeTurn - player.getBoard().getTurn(), board.getTurn() - treeTurn,
+				descended - start, played - descended, updated - played);
+		if (sample != null && sample.shouldCommit()) {
+			sample.descend = descended - start;
+			sample.playout = played - descended;
+			sample.update = updated - played;
+			sample.depth = treeTurn - player.getBoard().getTurn();
+			sample.playoutLength = board.getTurn() - treeTurn;
+			sample.commit();
+		}
 		return winner;
 	}
 
 	/**
 	 * 着子到棋局终止，返回胜方: BLACK, WHITE,或 (很少的平局或取消棋局因为达到最大着子数) VACANT.
+	 * 如果棋局被截断, 返回更可能的胜方, 估计的概率见getEvaluation().
 	 * 
 	 * @param mercy
 	 *            true，如果在一种棋色远多于另一种棋色时，我们放弃棋局.
 	 */
 	public Color playout(boolean mercy) {
+		return playout(mercy, true);
+	}
+
+	/**
+	 * @param mercy
+	 *            true，如果在一种棋色远多于另一种棋色时，我们放弃棋局.
+	 * @param cutoff
+	 *            false时即使设置了截断着数也下到棋局终止.
+	 */
+	public Color playout(boolean mercy, boolean cutoff) {
+		evaluation = -1;
 		// The first move is played normally, updating the fancy hashes
 		if (board.getTurn() >= coords.getMaxMovesPerGame()) {
 			// Playout ran out of moves, probably due to superko
@@ -237,16 +439,19 @@ public final class McRunnable implements Runnable {
 		}
 		if (board.getPasses() >= 2) {
 			// Game ended
+			statistics.recordScored();
 			return scorer.winner();
 		}
 		if (mercy) {
 			final Color mercyWinner = mercyObserver.mercyWinner();
 			if (mercyWinner != null) {
 				// One player has far more stones on the board
+				statistics.recordMercy();
 				return mercyWinner;
 			}
 		}
 		// All subsequent moves are played fast
+		final int cutoffTurn = cutoff && cutoffMoves > 0 ? board.getTurn() - 1 + cutoffMoves : Integer.MAX_VALUE;
 		do {
 			if (board.getTurn() >= coords.getMaxMovesPerGame()) {
 				// Playout ran out of moves, probably due to superko
@@ -257,28 +462,73 @@ public final class McRunnable implements Runnable {
 			}
 			if (board.getPasses() >= 2) {
 				// Game ended
+				statistics.recordScored();
 				return scorer.winner();
 			}
 			if (mercy) {
 				final Color mercyWinner = mercyObserver.mercyWinner();
 				if (mercyWinner != null) {
 					// One player has far more stones on the board
+					statistics.recordMercy();
 					return mercyWinner;
 				}
 			}
+			if (board.getTurn() >= cutoffTurn && evaluator.isQuiet()) {
+				// Estimate the rest of the playout
+				statistics.recordCutoff();
+				evaluation = evaluator.getBlackWinProbability();
+				return evaluation > 0.5f ? BLACK : evaluation < 0.5f ? WHITE : VACANT;
+			}
 		} while (true);
 	}
 
+	/**
+	 * 把终局的每个点的所有者计入所有权统计. 实际棋盘前进了不超过OWNERSHIP_HORIZON手时, 旧的统计减半, 否则清除.
+	 *
+	 * @param rootTurn
+	 *            本次运算开始时实际棋盘的手数.
+	 */
+	private void recordOwnership(int rootTurn) {
+		if (rootTurn != ownershipTurn) {
+			if (rootTurn > ownershipTurn && rootTurn - ownershipTurn <= OWNERSHIP_HORIZON) {
+				for (final int[] counts : ownership) {
+					for (int p = 0; p < counts.length; p++) {
+						counts[p] >>= 1;
+					}
+				}
+				ownershipPlayouts >>= 1;
+			} else {
+				clearOwnership();
+			}
+			ownershipTurn = rootTurn;
+		}
+		final int[] black = ownership[BLACK.index()];
+		final int[] white = ownership[WHITE.index()];
+		for (final short p : coords.getAllPointsOnBoard()) {
+			final Color color = board.getColorAt(p);
+			if (color == BLACK || color == VACANT && board.hasMaxNeighborsForColor(BLACK, p)) {
+				black[p]++;
+			} else if (color == WHITE || color == VACANT && board.hasMaxNeighborsForColor(WHITE, p)) {
+				white[p]++;
+			}
+		}
+		ownershipPlayouts++;
+	}
+
 	/**
 	 * 执行计算然后合并结果到棋手的搜索树直到线程中断.
 	 */
 	@Override
 	public void run() {
 		playoutsCompleted = 0;
+		statistics.startRunning();
 		while (getPlayer().shouldKeepRunning()) {
 			performMcRun();
 		}
-		log("Playouts completed: " + playoutsCompleted);
+		statistics.stopRunning();
+		if (isLoggable()) {
+			log("Playouts completed: " + playoutsCompleted);
+		}
 		player.notifyMcRunnableDone();
 	}
 
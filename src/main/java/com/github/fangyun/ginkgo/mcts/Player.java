@@ -7,6 +7,7 @@ import static com.github.fangyun.ginkgo.core.NonStoneColor.*;
 import static com.github.fangyun.ginkgo.core.StoneColor.*;
 import static com.github.fangyun.ginkgo.experiment.Logging.*;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -18,9 +19,15 @@ import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.core.Legality;
 import com.github.fangyun.ginkgo.core.StoneColor;
-import com.github.fangyun.ginkgo.experiment.Logging;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.BookLookup;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.StartThreads;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.StopThreads;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.TimeSlice;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
+import com.github.fangyun.ginkgo.feature.PolicyRater;
+import com.github.fangyun.ginkgo.policy.InferenceQueue;
 import com.github.fangyun.ginkgo.score.FinalScorer;
+import com.github.fangyun.ginkgo.time.Clock;
 import com.github.fangyun.ginkgo.time.TimeManager;
 import com.github.fangyun.ginkgo.util.ShortList;
 import com.github.fangyun.ginkgo.util.ShortSet;
@@ -28,6 +35,9 @@ import com.github.fangyun.ginkgo.util.ShortSet;
 /** 下子. */
 public final class Player {
 
+	/** 判断死子至少需要的已计分棋局数. 搜索没有积累这么多时, 补下不足的棋局. */
+	private static final int MIN_OWNERSHIP_PLAYOUTS = 100;
+
 	private final Board board;
 
 	private OpeningBook book;
@@ -37,6 +47,12 @@ public final class Player {
 	 */
 	private boolean cleanupMode;
 
+	/** 集群模式下的工作者进程，如果不用集群则为null. */
+	private Cluster cluster;
+
+	/** 作为集群工作者时，与协调者交换的浅层树统计. 在第一次集群搜索时创建. */
+	private ClusterStatistics clusterStatistics;
+
 	private final CoordinateSystem coords;
 
 	/**
@@ -49,10 +65,16 @@ public final class Player {
 	/** 管理线程. */
 	private ExecutorService executor;
 
+	/** True如果executor是外部共享的线程池, 不由棋手创建和关闭. */
+	private boolean sharedExecutor;
+
 	private final FinalScorer finalScorer;
 
 	private final HistoryObserver historyObserver;
 
+	/** 策略网络的推理队列，如果不用策略网络则为null. */
+	private final InferenceQueue inferenceQueue;
+
 	/**
 	 * True，如果线程保持运行。例如因为时间还没有用完.
 	 */
@@ -70,6 +92,9 @@ public final class Player {
 	/** 运行的棋局. */
 	private final McRunnable[] runnables;
 
+	/** 性能计数器的汇总. */
+	private final SearchStatistics statistics;
+
 	/**
 	 * True，如果setTimeRemaining已经被调用, 因为一个time_left被收到. 如果true，用时间管理器. 否则只用为每一着子用分配的msecPerMove.
 	 */
@@ -78,6 +103,9 @@ public final class Player {
 	/** 用来计算产生一步着子所用时间. */
 	private TimeManager timeManager;
 
+	/** 时间设置和剩余时间. */
+	private final Clock clock;
+
 	private TreeUpdater updater;
 
 	/**
@@ -94,6 +122,13 @@ public final class Player {
 		coords = board.getCoordinateSystem();
 		historyObserver = copy.get(HistoryObserver.class);
 		finalScorer = copy.get(FinalScorer.class);
+		InferenceQueue queue = null;
+		try {
+			queue = stuff.get(PolicyRater.class).getQueue();
+		} catch (final IllegalArgumentException e) {
+			// If we get here, we're not using a policy network
+		}
+		inferenceQueue = queue;
 		runnables = new McRunnable[threads];
 		for (int i = 0; i < runnables.length; i++) {
 			runnables[i] = new McRunnable(this, stuff);
@@ -102,13 +137,19 @@ public final class Player {
 		updater = new DoNothing();
 		book = new DoNothing();
 		timeLeftWasSent = false;
+		clock = new Clock();
+		statistics = new SearchStatistics(runnables);
 	}
 
 	/** 着子在点p. */
 	public Legality acceptMove(short point) {
 		stopThreads();
+		final StoneColor color = board.getColorToPlay();
 		final Legality legality = board.play(point);
 		assert legality == OK;
+		if (cluster != null) {
+			cluster.broadcast("play " + color + " " + coords.toString(point));
+		}
 		updater.updateForAcceptMove();
 		if (ponder) {
 			startThreads();
@@ -119,7 +160,13 @@ public final class Player {
 	/** 运行McRunnables一段时间，后返回最佳着子. */
 	public short bestMove() {
 		stopThreads();
+		statistics.clear();
+		final BookLookup lookup = new BookLookup();
+		lookup.begin();
 		final short move = book.nextMove(board);
+		lookup.turn = board.getTurn();
+		lookup.hit = move != NO_POINT;
+		lookup.commit();
 		if (move != NO_POINT) {
 			return move;
 		}
@@ -135,36 +182,27 @@ public final class Player {
 		}
 		if (!timeLeftWasSent) {
 			// 没有时间的信号被接收
-			startThreads();
-			try {
-				Thread.sleep(msecPerMove);
-			} catch (final InterruptedException e) {
-				e.printStackTrace();
-				System.exit(1);
-			}
-			stopThreads();
+			think(msecPerMove);
 		} else {
 			// 有时间的信号被接收
 			timeManager.startNewTurn();
 			msecPerMove = timeManager.getMsec();
-			log("Allocating " + msecPerMove + " msec");
+			if (isLoggable()) {
+				log("Allocating " + msecPerMove + " msec");
+			}
 			do {
-				startThreads();
-				try {
-					Thread.sleep(msecPerMove);
-				} catch (final InterruptedException e) {
-					e.printStackTrace();
-					System.exit(1);
-				}
-				stopThreads();
+				think(msecPerMove);
 				msecPerMove = timeManager.getMsec();
 			} while (msecPerMove > 0);
 		}
-		long playouts = 0;
-		for (McRunnable runnable : runnables) {
-			playouts += runnable.getPlayoutsCompleted();
+		if (isLoggable()) {
+			long playouts = 0;
+			for (McRunnable runnable : runnables) {
+				playouts += runnable.getPlayoutsCompleted();
+			}
+			log("Turn : " + board.getTurn() + " Playouts : " + playouts);
 		}
-		Logging.log("Turn : " + board.getTurn() + " Playouts : " + playouts);
+		statistics.logMove(board.getTurn());
 		return descender.bestPlayMove();
 	}
 
@@ -189,13 +227,24 @@ public final class Player {
 		return false;
 	}
 
+	/** 清除每个McRunnable的所有权统计. 线程应当已经停止. */
+	private void clearOwnership() {
+		for (final McRunnable runnable : runnables) {
+			runnable.clearOwnership();
+		}
+	}
+
 	/** 清除棋盘，做必要的事情以开始新的对局. */
 	public void clear() {
 		stopThreads();
 		board.clear();
 		descender.clear();
 		updater.clear();
+		clearOwnership();
 		cleanupMode = false;
+		if (cluster != null) {
+			cluster.broadcast("clear_board");
+		}
 	}
 
 	/** 在树中下任意着子(或其它结构). */
@@ -203,9 +252,12 @@ public final class Player {
 		descender.descend(runnable);
 	}
 
-	/** 终止任何运行的线程. */
+	/** 终止任何运行的线程, 包括推理线程(下次搜索时再启动). */
 	public void endGame() {
 		stopThreads();
+		if (inferenceQueue != null) {
+			inferenceQueue.shutdown();
+		}
 	}
 
 	/** @see com.github.fangyun.ginkgo.score.FinalScorer#score */
@@ -213,6 +265,21 @@ public final class Player {
 		return finalScorer.score();
 	}
 
+	/**
+	 * 移除所有权统计判定的死子后计分.
+	 *
+	 * @param threshold
+	 *            见findDeadStones.
+	 */
+	public double finalScore(double threshold) {
+		final ShortSet deadStones = findDeadStones(threshold, WHITE);
+		deadStones.addAll(findDeadStones(threshold, BLACK));
+		final Board stonesRemoved = new Board(coords.getWidth());
+		stonesRemoved.copyDataFrom(board);
+		stonesRemoved.removeStones(deadStones);
+		return finalScorer.score(stonesRemoved);
+	}
+
 	/**
 	 * 清除对手死链离开棋盘导致的偏置着子. 返回true，如果存在这样的着子.
 	 */
@@ -220,8 +287,9 @@ public final class Player {
 		log("Finding cleanup moves");
 		final ShortSet enemyDeadChains = findDeadStones(1.0, board
 				.getColorToPlay().opposite());
-		log("Dead stones: "
-				+ enemyDeadChains.toString(board.getCoordinateSystem()));
+		if (isLoggable()) {
+			log("Dead stones: " + enemyDeadChains.toString(board.getCoordinateSystem()));
+		}
 		if (enemyDeadChains.size() == 0) {
 			return false;
 		}
@@ -245,7 +313,7 @@ public final class Player {
 	}
 
 	/**
-	 * 返回那些没有幸存许多随机棋局的棋子列表.
+	 * 返回那些没有幸存许多随机棋局的棋子列表. 用搜索中积累的所有权统计; 统计太少时补下棋局. 读统计时线程暂时停止.
 	 * 
 	 * @param threshold
 	 *            棋局部分幸存下才考虑为活棋.
@@ -253,45 +321,72 @@ public final class Player {
 	 *            正在考察的棋子颜色.
 	 */
 	public ShortSet findDeadStones(double threshold, StoneColor color) {
-		final boolean threadsWereRunning = keepRunning;
-		stopThreads();
-		// Perform a bunch of runs to see which stones survive
-		final McRunnable runnable = getMcRunnable(0);
-		final Board runnableBoard = runnable.getBoard();
-		final int runs = 100;
-		final ShortSet deadStones = new ShortSet(board.getCoordinateSystem()
-				.getFirstPointBeyondBoard());
-		final int[] survivals = new int[board.getCoordinateSystem()
-				.getFirstPointBeyondBoard()];
-		for (int i = 0; i < runs; i++) {
-			// Temporarily set passes to 0 so that we can run playouts beyond
-			// this point
-			short passes = board.getPasses();
-			board.setPasses((short)0);
-			runnable.performMcRun(false);
-			board.setPasses(passes);
-			for (final short p : board.getCoordinateSystem()
-					.getAllPointsOnBoard()) {
-				if (runnableBoard.getColorAt(p) == board.getColorAt(p)) {
-					survivals[p]++;
-				}
-			}
-		}
-		// Gather all of the dead stones into a list to return
-		for (final short p : board.getCoordinateSystem().getAllPointsOnBoard()) {
+		final int[][] ownership = new int[2][coords.getFirstPointBeyondBoard()];
+		final int runs = gatherOwnership(ownership);
+		final int[] survivals = ownership[color.index()];
+		final ShortSet deadStones = new ShortSet(coords.getFirstPointBeyondBoard());
+		for (final short p : coords.getAllPointsOnBoard()) {
 			if (board.getColorAt(p) == color) {
 				if (survivals[p] < runs * threshold) {
 					deadStones.add(p);
 				}
 			}
 		}
-		// Restart the threads if appropriate
+		if (isLoggable()) {
+			log("Dead stones: " + deadStones.toString(coords));
+		}
+		return deadStones;
+	}
+
+	/**
+	 * 把所有McRunnable对当前棋盘的所有权统计加到ownership中, 返回棋局数. 先停下线程, 使统计不再改变; 如果不到
+	 * MIN_OWNERSHIP_PLAYOUTS, 在第一个McRunnable上补下不足的棋局. 线程原来在运行时再启动它们.
+	 */
+	private int gatherOwnership(int[][] ownership) {
+		final boolean threadsWereRunning = keepRunning;
+		stopThreads();
+		int runs = mergeOwnership(ownership);
+		if (runs < MIN_OWNERSHIP_PLAYOUTS) {
+			final McRunnable runnable = getMcRunnable(0);
+			// 暂时设置虚手数为0, 使棋局能超越此点
+			final short passes = board.getPasses();
+			board.setPasses((short) 0);
+			// 补下的棋局不截断, 每局都计入
+			for (int i = runs; i < MIN_OWNERSHIP_PLAYOUTS; i++) {
+				runnable.performMcRun(false, true);
+			}
+			board.setPasses(passes);
+			for (final int[] counts : ownership) {
+				Arrays.fill(counts, 0);
+			}
+			runs = mergeOwnership(ownership);
+		}
 		if (threadsWereRunning) {
 			startThreads();
 		}
-		// Return the list of dead stones
-		log("Dead stones: " + deadStones.toString(board.getCoordinateSystem()));
-		return deadStones;
+		return runs;
+	}
+
+	/**
+	 * 把统计不超过McRunnable.OWNERSHIP_HORIZON手之前的McRunnable的所有权统计加到ownership中, 返回棋局数.
+	 * 只在线程停止时调用.
+	 */
+	private int mergeOwnership(int[][] ownership) {
+		int runs = 0;
+		for (final McRunnable runnable : runnables) {
+			final int age = board.getTurn() - runnable.getOwnershipTurn();
+			if (age < 0 || age > McRunnable.OWNERSHIP_HORIZON) {
+				continue;
+			}
+			runs += runnable.getOwnershipPlayouts();
+			final int[][] counts = runnable.getOwnership();
+			for (int c = 0; c < ownership.length; c++) {
+				for (final short p : coords.getAllPointsOnBoard()) {
+					ownership[c][p] += counts[c][p];
+				}
+			}
+		}
+		return runs;
 	}
 
 	/** 返回棋手关联的棋盘. */
@@ -334,6 +429,15 @@ public final class Player {
 		return updater.getRoot();
 	}
 
+	/** 返回性能计数器的汇总. */
+	public SearchStatistics getStatistics() {
+		return statistics;
+	}
+
+	public Clock getClock() {
+		return clock;
+	}
+
 	public TimeManager getTimeManager() {
 		return timeManager;
 	}
@@ -353,6 +457,11 @@ public final class Player {
 		this.ponder = pondering;
 	}
 
+	/** 设置集群模式下的工作者进程. */
+	public void setCluster(Cluster cluster) {
+		this.cluster = cluster;
+	}
+
 	/** 设置清理模式，GTP标准需要. */
 	public void setCleanupMode(boolean cleanup) {
 		cleanupMode = cleanup;
@@ -372,6 +481,15 @@ public final class Player {
 		coupDeGrace = enabled;
 	}
 
+	/**
+	 * 让McRunnables在共享的线程池中运行, 而不是每次搜索创建新的线程池. 线程池应当有足够的线程同时运行所有正在搜索的棋手的McRunnables.
+	 */
+	public void setExecutor(ExecutorService executor) {
+		stopThreads();
+		this.executor = executor;
+		sharedExecutor = true;
+	}
+
 	/** 设置每次着子分配的毫秒数. */
 	public void setMsecPerMove(int msec) {
 		msecPerMove = msec;
@@ -384,8 +502,33 @@ public final class Player {
 
 	/** 处理来自GTP的剩余时间信号. */
 	public void setRemainingTime(int seconds) {
+		setRemainingTime(seconds, 0);
+	}
+
+	/**
+	 * 处理来自GTP的剩余时间信号.
+	 *
+	 * @param stones
+	 *            0如果在基本时间中; 否则为读秒剩下的次数或着数.
+	 */
+	public void setRemainingTime(int seconds, int stones) {
 		timeLeftWasSent = true;
-		timeManager.setRemainingSeconds(seconds);
+		clock.setTimeLeft(seconds, stones);
+		timeManager.setClock(clock);
+	}
+
+	/**
+	 * 处理来自GTP的时间设置. 如果没有时间限制, 每着用msecPerMove.
+	 *
+	 * @param stones
+	 *            日本式读秒的次数, 或加拿大式每段的着数.
+	 */
+	public void setTimeSettings(Clock.Type type, int mainSeconds, int overtimeSeconds, int stones) {
+		clock.setTimeSettings(type, mainSeconds, overtimeSeconds, stones);
+		timeLeftWasSent = clock.isLimited();
+		if (timeLeftWasSent) {
+			timeManager.setClock(clock);
+		}
 	}
 
 	public void setTimeManager(TimeManager time) {
@@ -406,15 +549,25 @@ public final class Player {
 	public void setUpHandicap(int handicapSize) {
 		clear();
 		board.setUpHandicap(handicapSize);
+		if (cluster != null) {
+			cluster.broadcast("fixed_handicap " + handicapSize);
+		}
 	}
 
 	/** 放置从SGF游戏读来的着子. */
 	public void setUpSgfGame(List<Short> moves) {
 		board.clear();
+		if (cluster != null) {
+			cluster.broadcast("clear_board");
+		}
 		for (final Short move : moves) {
+			final StoneColor color = board.getColorToPlay();
 			if (board.play(move) != OK) {
 				throw new IllegalArgumentException("SGF包含非法着子");
 			}
+			if (cluster != null) {
+				cluster.broadcast("play " + color + " " + coords.toString(move));
+			}
 		}
 	}
 
@@ -435,14 +588,22 @@ public final class Player {
 			getMcRunnable(0).copyDataFrom(board);
 			root.updateBias(getMcRunnable(0));
 		}
+		final StartThreads event = new StartThreads();
+		event.begin();
 		keepRunning = true;
 		int n = runnables.length; // # of threads
 		latch = new CountDownLatch(n);
-		executor = Executors.newFixedThreadPool(n);
+		if (!sharedExecutor) {
+			executor = Executors.newFixedThreadPool(n);
+		}
 		for (int i = 0; i < n; i++) {
 			executor.execute(runnables[i]);
 		}
-		executor.shutdown();
+		if (!sharedExecutor) {
+			executor.shutdown();
+		}
+		event.threads = n;
+		event.commit();
 	}
 
 	/** 停止McRunnables线程. */
@@ -452,6 +613,8 @@ public final class Player {
 			return; // If the threads were not running, do nothing
 		}
 		log("停止线程");
+		final StopThreads event = new StopThreads();
+		event.begin();
 		try {
 			keepRunning = false;
 			latch.await();
@@ -459,6 +622,71 @@ public final class Player {
 			e.printStackTrace();
 			System.exit(1);
 		}
+		event.threads = runnables.length;
+		event.commit();
+	}
+
+	/**
+	 * 作为集群工作者开始搜索当前位置. 浅层树的快照被重置，因此只有此次搜索的运行被交换.
+	 */
+	public void startClusterSearch() {
+		stopThreads();
+		if (clusterStatistics == null) {
+			// Same threshold as the coordinator, so that rarely visited nodes are not sent
+			clusterStatistics = new ClusterStatistics(coords, updater.getGestation() * 10);
+		}
+		clusterStatistics.reset(getRoot());
+		startThreads();
+	}
+
+	/** 作为集群工作者停止搜索. */
+	public void stopClusterSearch() {
+		stopThreads();
+	}
+
+	/**
+	 * 作为集群工作者合并协调者发来的增量，并返回本进程自上次同步以来的增量.
+	 */
+	public String synchronizeCluster(String deltas) {
+		if (clusterStatistics == null) {
+			return "";
+		}
+		final SearchNode root = getRoot();
+		clusterStatistics.merge(root, deltas);
+		return clusterStatistics.collect(root);
+	}
+
+	/**
+	 * 运行McRunnables msec毫秒. 在集群模式下，工作者同时搜索，并且每隔一段时间同步一次.
+	 */
+	private void think(int msec) {
+		final TimeSlice event = new TimeSlice();
+		event.begin();
+		startThreads();
+		try {
+			if (cluster == null) {
+				Thread.sleep(msec);
+			} else {
+				final SearchNode root = getRoot();
+				cluster.startSearch(root);
+				final long end = System.currentTimeMillis() + msec;
+				long remaining = msec;
+				while (remaining > 0) {
+					Thread.sleep(Math.min(remaining, cluster.getSyncInterval()));
+					cluster.synchronize(root);
+					remaining = end - System.currentTimeMillis();
+				}
+				cluster.stopSearch(root);
+			}
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		stopThreads();
+		event.turn = board.getTurn();
+		event.allocated = msec;
+		event.playouts = getPlayoutCount();
+		event.commit();
 	}
 
 	@Override
@@ -485,9 +713,13 @@ public final class Player {
 		// Now replay the moves
 		board.clearPreservingInitialStones();
 		updater.clear();
+		clearOwnership();
 		for (int i = 0; i < movesList.size(); i++) {
 			board.play(movesList.get(i));
 		}
+		if (cluster != null) {
+			cluster.broadcast("undo");
+		}
 		if (alreadyRunning) {
 			startThreads();
 		}
@@ -512,10 +744,29 @@ public final class Player {
 				liveStones.add(p);
 			}
 		}
-		log("Live stones: " + liveStones.toString(board.getCoordinateSystem()));
+		if (isLoggable()) {
+			log("Live stones: " + liveStones.toString(board.getCoordinateSystem()));
+		}
 		return liveStones;
 	}
 
+	/**
+	 * 返回GoGui信息显示每个点的所有权: 1为总属于黑棋, -1为总属于白棋.
+	 */
+	public String goguiOwnership() {
+		final int[][] ownership = new int[2][coords.getFirstPointBeyondBoard()];
+		final int runs = gatherOwnership(ownership);
+		if (runs == 0) {
+			return "";
+		}
+		final StringBuilder result = new StringBuilder("INFLUENCE");
+		for (final short p : coords.getAllPointsOnBoard()) {
+			final double value = (double) (ownership[BLACK.index()][p] - ownership[WHITE.index()][p]) / runs;
+			result.append(String.format(" %s %.2f", coords.toString(p), value));
+		}
+		return result.toString();
+	}
+
 	/** 返回GoGui信息显示搜索值. */
 	public String goguiSearchValues() {
 		// TODO Encapsulate this normalization in a single place, called by all
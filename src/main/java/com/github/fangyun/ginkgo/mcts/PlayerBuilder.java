@@ -1,13 +1,22 @@
 package com.github.fangyun.ginkgo.mcts;
 
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.Double.parseDouble;
+import static java.lang.Float.parseFloat;
+import static java.lang.Integer.parseInt;
+
 import com.github.fangyun.ginkgo.book.FusekiBook;
+import com.github.fangyun.ginkgo.book.MappedFusekiBook;
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.feature.LgrfTable;
 import com.github.fangyun.ginkgo.patterns.ShapeTable;
+import com.github.fangyun.ginkgo.score.InfluenceEvaluator;
 import com.github.fangyun.ginkgo.time.ExitingTimeManager;
+import com.github.fangyun.ginkgo.time.PlayoutTimeManager;
 import com.github.fangyun.ginkgo.time.SimpleTimeManager;
 import com.github.fangyun.ginkgo.time.UniformTimeManager;
+import com.github.fangyun.ginkgo.util.Xoroshiro128PlusPlus;
 import static com.github.fangyun.ginkgo.experiment.Logging.log;
 
 /** 构建一个棋手. */
@@ -17,14 +26,34 @@ public final class PlayerBuilder {
 
 	private boolean book;
 
+	/** 可映射的布局棋谱文件. 如果为null，19路棋盘用内置的棋谱. */
+	private String bookPath;
+
+	/** 集群工作者的地址，以逗号分隔. 如果为null，不用集群. */
+	private String clusterAddresses;
+
+	/** 已连接的集群，在重新构建棋手时被重用. */
+	private Cluster cluster;
+
+	private int clusterSyncInterval;
+
 	private boolean coupDeGrace;
 
+	/** 如果true，棋局中用PolicyMover代替SuggesterMover链. */
+	private boolean fusedPolicy;
+
 	private int gestation;
 
 	private double komi;
 
+	/** 如果true，读征子: 不建议被征吃的长出, 并用征子给节点偏置. */
+	private boolean ladders;
+
 	private boolean lgrf2;
 
+	/** 如果true，每个线程使用自己的LGRF表而不是共享的表. */
+	private boolean lgrfPerThread;
+
 	private boolean liveShape;
 
 	private String managerType;
@@ -34,18 +63,42 @@ public final class PlayerBuilder {
 
 	private int msecPerMove;
 
+	/** 棋局超出树至少这么多着后截断, 0表示不截断. */
+	private int playoutCutoff;
+
+	/** PolicyMover中每个建议器的权重, 或者null表示按优先级抽样. */
+	private int[] playoutWeights;
+
+	/** 策略网络偏置的模拟次数. */
+	private int policyBias;
+
+	/** 策略网络的权重文件, 如果为null则不用策略网络. */
+	private String policyPath;
+
 	private boolean ponder;
 
+	/** 棋局使用的随机数发生器, "mersenne"或"xoroshiro". */
+	private String random;
+
 	private boolean rave;
 
 	private boolean shape;
 
 	private int shapeBias;
 
+	/** 在线形状学习时每个线程合并到形状表之前积累的棋局数. */
+	private int shapeMergeInterval;
+
 	private int shapePatternSize;
 
 	private float shapeScalingFactor;
 
+	/** 形状表文件. 如果为null，用缺省的文件. */
+	private String shapeTablePath;
+
+	/** 每步着子写入性能统计的CSV文件. 如果为null，不写. */
+	private String statsFile;
+
 	private int threads;
 
 	private int width;
@@ -62,12 +115,116 @@ public final class PlayerBuilder {
 		ponder = false;
 		book = true;
 		managerType = "uniform";
+		random = "mersenne";
+		policyBias = 20;
 		coupDeGrace = false;
 		lgrf2 = true;
 		rave = true;
 		shapeScalingFactor = .95f;
 		shapePatternSize = 5;
 		shapeBias = 20;
+		shapeMergeInterval = ShapeUpdater.DEFAULT_MERGE_INTERVAL;
+		clusterSyncInterval = 100;
+	}
+
+	/**
+	 * 按Ginkgo的命令行参数name=value设置构建器, 例如"threads", "4". 参数的意义见Ginkgo.
+	 *
+	 * @throws IllegalArgumentException
+	 *             如果name不是已知的参数.
+	 */
+	public PlayerBuilder argument(String name, String value) {
+		if (name.equals("biasdelay")) {
+			biasDelay(parseInt(value));
+		} else if (name.equals("boardsize")) {
+			boardWidth(parseInt(value));
+		} else if (name.equals("book")) {
+			openingBook(parseBoolean(value));
+		} else if (name.equals("book-file")) {
+			openingBookFile(value);
+		} else if (name.equals("cluster")) {
+			cluster(value);
+		} else if (name.equals("cluster-sync")) {
+			clusterSyncInterval(parseInt(value));
+		} else if (name.equals("fused-policy")) {
+			fusedPolicy(parseBoolean(value));
+		} else if (name.equals("grace")) {
+			coupDeGrace(parseBoolean(value));
+		} else if (name.equals("gestation")) {
+			gestation(parseInt(value));
+		} else if (name.equals("komi")) {
+			komi(parseDouble(value));
+		} else if (name.equals("ladders")) {
+			ladders(parseBoolean(value));
+		} else if (name.equals("lgrf2")) {
+			lgrf2(parseBoolean(value));
+		} else if (name.equals("lgrf-per-thread")) {
+			lgrfPerThread(parseBoolean(value));
+		} else if (name.equals("liveshape")) {
+			liveShape(parseBoolean(value));
+		} else if (name.equals("memory")) {
+			memorySize(parseInt(value));
+		} else if (name.equals("msec")) {
+			msecPerMove(parseInt(value));
+		} else if (name.equals("playout-cutoff")) {
+			playoutCutoff(parseInt(value));
+		} else if (name.equals("playout-weights")) {
+			final String[] fields = value.split(",");
+			final int[] weights = new int[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				weights[i] = parseInt(fields[i].trim());
+			}
+			playoutWeights(weights);
+		} else if (name.equals("policy-bias")) {
+			policyBias(parseInt(value));
+		} else if (name.equals("policy-file")) {
+			policyFile(value);
+		} else if (name.equals("ponder")) {
+			ponder(parseBoolean(value));
+		} else if (name.equals("random")) {
+			random(value);
+		} else if (name.equals("rave")) {
+			rave(parseBoolean(value));
+		} else if (name.equals("shape")) {
+			shape(parseBoolean(value));
+		} else if (name.equals("shape-bias")) {
+			shapeBias(parseInt(value));
+		} else if (name.equals("shape-merge")) {
+			shapeMergeInterval(parseInt(value));
+		} else if (name.equals("shape-minstones")) {
+			shapeMinStones(parseInt(value));
+		} else if (name.equals("shape-table")) {
+			shapeTable(value);
+		} else if (name.equals("shape-scaling-factor")) {
+			shapeScalingFactor(parseFloat(value));
+		} else if (name.equals("stats-file")) {
+			statsFile(value);
+		} else if (name.equals("threads")) {
+			threads(parseInt(value));
+		} else if (name.equals("time-management")) {
+			timeManagement(value);
+		} else {
+			throw new IllegalArgumentException("未知的命令行参数: " + name);
+		}
+		return this;
+	}
+
+	/**
+	 * 按以空白分隔的一串Ginkgo命令行参数设置构建器, 例如"threads=4 rave=false". 没有'='的参数的值为true.
+	 */
+	public PlayerBuilder arguments(String arguments) {
+		for (final String argument : arguments.trim().split("\\s+")) {
+			if (argument.isEmpty()) {
+				continue;
+			}
+			final int j = argument.indexOf('=');
+			if (j > 0) {
+				argument(argument.substring(0, j), argument.substring(j + 1));
+			} else {
+				argument(argument, "true");
+			}
+		}
+		return this;
 	}
 
 	public PlayerBuilder biasDelay(int biasDelay) {
@@ -80,11 +237,28 @@ public final class PlayerBuilder {
 		return this;
 	}
 
+	/** 设置集群工作者的地址，例如"localhost:5001,localhost:5002". */
+	public PlayerBuilder cluster(String addresses) {
+		this.clusterAddresses = addresses;
+		return this;
+	}
+
+	/** 设置集群模式下同步之间的毫秒数. */
+	public PlayerBuilder clusterSyncInterval(int msec) {
+		this.clusterSyncInterval = msec;
+		return this;
+	}
+
 	public PlayerBuilder coupDeGrace(boolean grace) {
 		this.coupDeGrace = grace;
 		return this;
 	}
 
+	public PlayerBuilder fusedPolicy(boolean fused) {
+		this.fusedPolicy = fused;
+		return this;
+	}
+
 	public PlayerBuilder gestation(int gestation) {
 		this.gestation = gestation;
 		return this;
@@ -95,11 +269,21 @@ public final class PlayerBuilder {
 		return this;
 	}
 
+	public PlayerBuilder ladders(boolean ladders) {
+		this.ladders = ladders;
+		return this;
+	}
+
 	public PlayerBuilder lgrf2(boolean lgrf2) {
 		this.lgrf2 = lgrf2;
 		return this;
 	}
 
+	public PlayerBuilder lgrfPerThread(boolean perThread) {
+		this.lgrfPerThread = perThread;
+		return this;
+	}
+
 	public PlayerBuilder liveShape(boolean liveShape) {
 		this.liveShape = liveShape;
 		return this;
@@ -120,11 +304,49 @@ public final class PlayerBuilder {
 		return this;
 	}
 
+	/** 设置可映射的布局棋谱文件(见FusekiBookConverter), 其中可以有多种棋盘宽度的棋谱. */
+	public PlayerBuilder openingBookFile(String path) {
+		this.bookPath = path;
+		return this;
+	}
+
+	/** 设置截断棋局的着数, 截断的棋局由InfluenceEvaluator估计结果. 缺省0, 不截断. */
+	public PlayerBuilder playoutCutoff(int moves) {
+		this.playoutCutoff = moves;
+		return this;
+	}
+
+	/**
+	 * 设置PolicyMover中每个建议器的权重: 有LGRF时为LGRF、逃跑、模式、吃子, 否则为后三个. 缺省null, 按优先级抽样.
+	 */
+	public PlayerBuilder playoutWeights(int... weights) {
+		this.playoutWeights = weights;
+		return this;
+	}
+
+	/** 设置策略网络偏置的模拟次数. */
+	public PlayerBuilder policyBias(int bias) {
+		this.policyBias = bias;
+		return this;
+	}
+
+	/** 设置策略网络的权重文件. 缺省不用策略网络. */
+	public PlayerBuilder policyFile(String path) {
+		this.policyPath = path;
+		return this;
+	}
+
 	public PlayerBuilder ponder(boolean ponder) {
 		this.ponder = ponder;
 		return this;
 	}
 
+	/** 设置棋局使用的随机数发生器, "mersenne"(缺省)或"xoroshiro". */
+	public PlayerBuilder random(String random) {
+		this.random = random;
+		return this;
+	}
+
 	public PlayerBuilder rave(boolean rave) {
 		this.rave = rave;
 		return this;
@@ -140,22 +362,48 @@ public final class PlayerBuilder {
 		return this;
 	}
 
+	/**
+	 * 设置在线形状学习时每个线程合并到形状表之前积累的棋局数.
+	 *
+	 * @throws IllegalArgumentException
+	 *             如果playouts不是正数.
+	 */
+	public PlayerBuilder shapeMergeInterval(int playouts) {
+		if (playouts < 1) {
+			throw new IllegalArgumentException("shape-merge必须是正数: " + playouts);
+		}
+		this.shapeMergeInterval = playouts;
+		return this;
+	}
+
 	public PlayerBuilder shapeMinStones(int shapePatternSize) {
 		this.shapePatternSize = shapePatternSize;
 		return this;
 	}
 
+	/** 设置形状表文件, 可以是序列化的或可映射的二进制格式. */
+	public PlayerBuilder shapeTable(String path) {
+		this.shapeTablePath = path;
+		return this;
+	}
+
 	public PlayerBuilder shapeScalingFactor(float shapeScalingFactor) {
 		this.shapeScalingFactor = shapeScalingFactor;
 		return this;
 	}
 
+	/** 设置每步着子写入性能统计的CSV文件. */
+	public PlayerBuilder statsFile(String path) {
+		this.statsFile = path;
+		return this;
+	}
+
 	public PlayerBuilder threads(int threads) {
 		this.threads = threads;
 		return this;
 	}
 
-	/** 设置使用的时间管理类型，例如"exiting" or "uniform". */
+	/** 设置使用的时间管理类型，例如"exiting", "playouts" or "uniform". */
 	public PlayerBuilder timeManagement(String managerType) {
 		this.managerType = managerType;
 		return this;
@@ -164,14 +412,22 @@ public final class PlayerBuilder {
 	/** 创建棋手. */
 	public Player build() {
 		log("开始构建棋手");
+		final StructureOptions options = new StructureOptions().fused(fusedPolicy).ladders(ladders)
+				.policyWeights(playoutWeights).shapeTablePath(shapeTablePath);
 		CopiableStructure copyStructure;
 		if (shape) {
 			copyStructure = CopiableStructureFactory.shape(width, komi, shapeBias, shapePatternSize,
-					shapeScalingFactor);
+					shapeScalingFactor, options);
 		} else if (lgrf2) {
-			copyStructure = CopiableStructureFactory.lgrfWithBias(width, komi);
+			copyStructure = CopiableStructureFactory.lgrfWithBias(width, komi, options);
 		} else {
-			copyStructure = CopiableStructureFactory.useWithBias(width, komi);
+			copyStructure = CopiableStructureFactory.useWithBias(width, komi, options);
+		}
+		if (policyPath != null) {
+			CopiableStructureFactory.policy(copyStructure, policyPath, policyBias, threads);
+		}
+		if (playoutCutoff > 0) {
+			copyStructure.add(new InfluenceEvaluator(copyStructure.get(Board.class), komi));
 		}
 		final Player result = new Player(threads, copyStructure);
 		final Board board = result.getBoard();
@@ -186,8 +442,29 @@ public final class PlayerBuilder {
 			result.setTreeDescender(new UctDescender(board, table, biasDelay));
 		}
 		log("转换表创建完毕");
+		result.getStatistics().setTable(table);
+		if (statsFile != null) {
+			result.getStatistics().setLogFile(statsFile);
+		}
+		if (random.equals("xoroshiro")) {
+			for (int i = 0; i < threads; i++) {
+				result.getMcRunnable(i).setRandom(new Xoroshiro128PlusPlus());
+			}
+		} else if (!random.equals("mersenne")) {
+			throw new IllegalArgumentException("未知的随机数发生器: " + random);
+		}
+		for (int i = 0; i < threads; i++) {
+			result.getMcRunnable(i).setPlayoutCutoff(playoutCutoff);
+		}
 		TreeUpdater updater;
-		if (lgrf2) {
+		if (lgrf2 && lgrfPerThread) {
+			final LgrfTable[] tables = new LgrfTable[threads];
+			for (int i = 0; i < threads; i++) {
+				tables[i] = new LgrfTable(board.getCoordinateSystem());
+				result.getMcRunnable(i).setLgrfTable(tables[i]);
+			}
+			updater = new LgrfUpdater(new SimpleTreeUpdater(board, table, gestation), tables);
+		} else if (lgrf2) {
 			updater = new LgrfUpdater(new SimpleTreeUpdater(board, table, gestation),
 					copyStructure.get(LgrfTable.class));
 		} else {
@@ -196,10 +473,12 @@ public final class PlayerBuilder {
 		if (liveShape) {
 			assert shape;
 			ShapeTable shapeTable = copyStructure.get(ShapeTable.class);
-			updater = new ShapeUpdater(updater, shapeTable);
+			updater = new ShapeUpdater(updater, shapeTable, shapeMergeInterval);
 		}
 		if (managerType.equals("exiting")) {
 			result.setTimeManager(new ExitingTimeManager(result));
+		} else if (managerType.equals("playouts")) {
+			result.setTimeManager(new PlayoutTimeManager(result));
 		} else if (managerType.equals("uniform")) {
 			result.setTimeManager(new UniformTimeManager(result.getBoard()));
 		} else {
@@ -207,7 +486,9 @@ public final class PlayerBuilder {
 		}
 		result.setCoupDeGrace(coupDeGrace);
 		log("准备创建公开棋谱");
-		if (book && width == 19) {
+		if (book && bookPath != null) {
+			result.setOpeningBook(new MappedFusekiBook(bookPath));
+		} else if (book && width == 19) {
 			result.setOpeningBook(new FusekiBook());
 		} else {
 			result.setOpeningBook(new DoNothing());
@@ -216,6 +497,13 @@ public final class PlayerBuilder {
 		result.setMsecPerMove(msecPerMove);
 		result.ponder(ponder);
 		result.clear();
+		if (clusterAddresses != null) {
+			if (cluster == null) {
+				cluster = new Cluster(clusterAddresses, clusterSyncInterval, gestation * 10, coords);
+			}
+			cluster.configure(width, komi);
+			result.setCluster(cluster);
+		}
 		log("棋手构建完毕");
 		return result;
 	}
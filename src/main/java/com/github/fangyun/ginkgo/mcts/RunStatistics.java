@@ -0,0 +1,204 @@
+package com.github.fangyun.ginkgo.mcts;
+
+import java.util.Arrays;
+
+/**
+ * 一个McRunnable的性能计数器. 只被拥有它的线程写入，因此不需要同步; 在线程停止后读取才是精确的.
+ *
+ * @see SearchStatistics
+ */
+public final class RunStatistics {
+
+	/** 深度分布的桶数. 最后一个桶包含所有更深的运行. */
+	public static final int DEPTH_BUCKETS = 32;
+
+	/** 被截断而用评估器估计结果的棋局数. */
+	private long cutoffPlayouts;
+
+	/** 在树中下降所用的纳秒. */
+	private long descendNanos;
+
+	/** 每个树深度的运行数. */
+	private final long[] depthCounts;
+
+	/** 等待转换表锁的纳秒. */
+	private long lockWaitNanos;
+
+	/** 因为一方棋子远多于另一方而放弃的棋局数. */
+	private long mercyPlayouts;
+
+	/** 超出树的着子总数. */
+	private long playoutMoves;
+
+	/** 在树外下棋所用的纳秒. */
+	private long playoutNanos;
+
+	/** 完成的运行数. */
+	private long runs;
+
+	/** 线程运行的纳秒. */
+	private long runningNanos;
+
+	/** 最近一次startRunning的时间. */
+	private long runningSince;
+
+	/** 双方虚手后被计分的棋局数. */
+	private long scoredPlayouts;
+
+	/** 更新树所用的纳秒. */
+	private long updateNanos;
+
+	public RunStatistics() {
+		depthCounts = new long[DEPTH_BUCKETS];
+	}
+
+	/** 把that的计数加到此对象上. */
+	void add(RunStatistics that) {
+		cutoffPlayouts += that.cutoffPlayouts;
+		descendNanos += that.descendNanos;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			depthCounts[i] += that.depthCounts[i];
+		}
+		lockWaitNanos += that.lockWaitNanos;
+		mercyPlayouts += that.mercyPlayouts;
+		playoutMoves += that.playoutMoves;
+		playoutNanos += that.playoutNanos;
+		runs += that.runs;
+		runningNanos += that.runningNanos;
+		scoredPlayouts += that.scoredPlayouts;
+		updateNanos += that.updateNanos;
+	}
+
+	/** 把所有计数置零. */
+	public void clear() {
+		cutoffPlayouts = 0;
+		descendNanos = 0;
+		Arrays.fill(depthCounts, 0);
+		lockWaitNanos = 0;
+		mercyPlayouts = 0;
+		playoutMoves = 0;
+		playoutNanos = 0;
+		runs = 0;
+		runningNanos = 0;
+		scoredPlayouts = 0;
+		updateNanos = 0;
+	}
+
+	/** 返回平均每次棋局超出树的着子数. */
+	public double getAveragePlayoutLength() {
+		return runs == 0 ? 0 : (double) playoutMoves / runs;
+	}
+
+	/** 返回平均树深度. */
+	public double getAverageDepth() {
+		long sum = 0;
+		for (int i = 0; i < DEPTH_BUCKETS; i++) {
+			sum += i * depthCounts[i];
+		}
+		return runs == 0 ? 0 : (double) sum / runs;
+	}
+
+	public long getCutoffPlayouts() {
+		return cutoffPlayouts;
+	}
+
+	public long getDescendNanos() {
+		return descendNanos;
+	}
+
+	/** 返回深度为depth的运行数. */
+	public long getDepthCount(int depth) {
+		return depthCounts[depth];
+	}
+
+	public long getLockWaitNanos() {
+		return lockWaitNanos;
+	}
+
+	/** 返回最大的非空深度桶. */
+	public int getMaxDepth() {
+		for (int i = DEPTH_BUCKETS - 1; i > 0; i--) {
+			if (depthCounts[i] > 0) {
+				return i;
+			}
+		}
+		return 0;
+	}
+
+	public long getMercyPlayouts() {
+		return mercyPlayouts;
+	}
+
+	public long getPlayoutNanos() {
+		return playoutNanos;
+	}
+
+	/** 返回每秒运行数. */
+	public double getPlayoutsPerSecond() {
+		return runningNanos == 0 ? 0 : runs * 1e9 / runningNanos;
+	}
+
+	public long getRuns() {
+		return runs;
+	}
+
+	public long getRunningNanos() {
+		return runningNanos;
+	}
+
+	public long getScoredPlayouts() {
+		return scoredPlayouts;
+	}
+
+	public long getUpdateNanos() {
+		return updateNanos;
+	}
+
+	/** 记录一次被截断的棋局. */
+	void recordCutoff() {
+		cutoffPlayouts++;
+	}
+
+	/** 记录等待转换表锁的纳秒. */
+	void recordLockWait(long nanos) {
+		lockWaitNanos += nanos;
+	}
+
+	/** 记录一次因mercy而结束的棋局. */
+	void recordMercy() {
+		mercyPlayouts++;
+	}
+
+	/**
+	 * 记录一次完整的运行.
+	 *
+	 * @param depth
+	 *            在树中下降的着子数.
+	 * @param moves
+	 *            超出树的着子数.
+	 */
+	void recordRun(int depth, int moves, long descend, long playout, long update) {
+		depthCounts[Math.min(depth, DEPTH_BUCKETS - 1)]++;
+		playoutMoves += moves;
+		descendNanos += descend;
+		playoutNanos += playout;
+		updateNanos += update;
+		runs++;
+	}
+
+	/** 记录一次被计分的棋局. */
+	void recordScored() {
+		scoredPlayouts++;
+	}
+
+	/** 在线程开始运行时调用. */
+	void startRunning() {
+		runningSince = System.nanoTime();
+	}
+
+	/** 在线程停止运行时调用. */
+	void stopRunning() {
+		runningNanos += System.nanoTime() - runningSince;
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.github.fangyun.ginkgo.mcts;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * 汇总棋手所有McRunnable和转换表的性能计数器. 通过GTP命令ginkgo-stats查询, 并可在每步着子后作为CSV的一行写入文件.
+ *
+ * @see RunStatistics
+ */
+public final class SearchStatistics {
+
+	/** CSV文件的表头. */
+	private static final String CSV_HEADER = "turn,thread,runs,playouts_per_sec,avg_playout_length,"
+			+ "mercy_playouts,scored_playouts,avg_depth,max_depth,descend_ms,playout_ms,update_ms,"
+			+ "lock_wait_ms,nodes_allocated,nodes_refused,nodes_in_use,capacity,depths";
+
+	/** 每步着子写入一行的CSV文件，如果没有打开则为null. */
+	private PrintWriter csv;
+
+	private final McRunnable[] runnables;
+
+	/** 转换表，如果棋手还没有转换表则为null. */
+	private TranspositionTable table;
+
+	SearchStatistics(McRunnable[] runnables) {
+		this.runnables = runnables;
+	}
+
+	/** 把所有计数器置零. 在每次产生着子开始时调用. */
+	public void clear() {
+		for (final McRunnable runnable : runnables) {
+			runnable.getStatistics().clear();
+		}
+		if (table != null) {
+			table.clearCounts();
+		}
+	}
+
+	/** 返回所有McRunnable的计数之和. */
+	public RunStatistics getTotal() {
+		final RunStatistics result = new RunStatistics();
+		for (final McRunnable runnable : runnables) {
+			result.add(runnable.getStatistics());
+		}
+		return result;
+	}
+
+	/** 把此次着子的统计写入CSV文件, 每个线程一行, 再加一行合计. */
+	public void logMove(int turn) {
+		if (csv == null) {
+			return;
+		}
+		for (int i = 0; i < runnables.length; i++) {
+			csv.println(toCsv(turn, "" + i, runnables[i].getStatistics()));
+		}
+		csv.println(toCsv(turn, "all", getTotal()));
+		csv.flush();
+	}
+
+	/**
+	 * 打开每步着子写入统计的CSV文件. 如果文件已存在，则追加.
+	 */
+	public void setLogFile(String path) {
+		try {
+			final boolean exists = new File(path).exists();
+			csv = new PrintWriter(new FileWriter(path, true));
+			if (!exists) {
+				csv.println(CSV_HEADER);
+				csv.flush();
+			}
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	void setTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/** 返回统计的CSV行. */
+	private String toCsv(int turn, String thread, RunStatistics s) {
+		final StringBuilder result = new StringBuilder();
+		result.append(turn).append(',').append(thread).append(',').append(s.getRuns()).append(',')
+				.append(String.format(Locale.ROOT, "%.1f", s.getPlayoutsPerSecond())).append(',')
+				.append(String.format(Locale.ROOT, "%.2f", s.getAveragePlayoutLength())).append(',')
+				.append(s.getMercyPlayouts()).append(',').append(s.getScoredPlayouts()).append(',')
+				.append(String.format(Locale.ROOT, "%.2f", s.getAverageDepth())).append(',').append(s.getMaxDepth())
+				.append(',').append(s.getDescendNanos() / 1000000).append(',')
+				.append(s.getPlayoutNanos() / 1000000).append(',').append(s.getUpdateNanos() / 1000000)
+				.append(',').append(s.getLockWaitNanos() / 1000000).append(',');
+		if (table != null) {
+			result.append(table.getNodesAllocated()).append(',').append(table.getNodesRefused()).append(',')
+					.append(table.getNodesInUse()).append(',').append(table.getCapacity());
+		} else {
+			result.append(",,,");
+		}
+		result.append(',');
+		for (int d = 0; d <= s.getMaxDepth(); d++) {
+			if (d > 0) {
+				result.append('|');
+			}
+			result.append(s.getDepthCount(d));
+		}
+		return result.toString();
+	}
+
+	/** 返回可读的统计报告, 用于GTP命令ginkgo-stats. */
+	@Override
+	public String toString() {
+		final RunStatistics total = getTotal();
+		final StringBuilder result = new StringBuilder();
+		result.append(String.format("运行数 %d, 平均棋局长度 %.2f, mercy结束 %d, 计分结束 %d, 截断 %d", total.getRuns(),
+				total.getAveragePlayoutLength(), total.getMercyPlayouts(), total.getScoredPlayouts(),
+				total.getCutoffPlayouts()));
+		for (int i = 0; i < runnables.length; i++) {
+			final RunStatistics s = runnables[i].getStatistics();
+			result.append(String.format("\n线程 %d: %d 运行, %.1f 运行/秒", i, s.getRuns(),
+					s.getPlayoutsPerSecond()));
+		}
+		result.append(String.format("\n用时(毫秒): 下降 %d, 棋局 %d, 更新树 %d, 等锁 %d",
+				total.getDescendNanos() / 1000000, total.getPlayoutNanos() / 1000000,
+				total.getUpdateNanos() / 1000000, total.getLockWaitNanos() / 1000000));
+		result.append(String.format("\n树深度: 平均 %.2f, 分布", total.getAverageDepth()));
+		for (int d = 0; d <= total.getMaxDepth(); d++) {
+			result.append(' ').append(total.getDepthCount(d));
+		}
+		if (table != null) {
+			result.append("\n转换表: 分配 " + table.getNodesAllocated() + ", 拒绝 " + table.getNodesRefused()
+					+ ", 在用 " + table.getNodesInUse() + "/" + table.getCapacity());
+		}
+		return result.toString();
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.github.fangyun.ginkgo.mcts;
+
+import com.github.fangyun.ginkgo.patterns.ShapeTable;
+
+/**
+ * 一个McRunnable的在线形状学习的本地缓冲. 积累若干次棋局的(哈希, 结果)对, 然后一次合并到共享的形状表中.
+ * 所有数组预先分配, 因此积累和重放都不分配内存.
+ */
+final class ShapeLearningBuffer {
+
+	/** 积累的哈希. */
+	private final long[] hashes;
+
+	/** 合并前积累的棋局数. */
+	private final int interval;
+
+	/** 重放用的着子, moves[0]为实际棋盘上一着. */
+	private final short[] moves;
+
+	/** 自上次合并以来积累的棋局数. */
+	private int playouts;
+
+	/** 积累的(哈希, 结果)对数. */
+	private int size;
+
+	/** 积累的结果. */
+	private final boolean[] wins;
+
+	/**
+	 * @param interval
+	 *            合并前积累的棋局数.
+	 * @param depth
+	 *            每次棋局最多学习的着子数.
+	 */
+	ShapeLearningBuffer(int interval, int depth) {
+		this.interval = interval;
+		hashes = new long[interval * depth];
+		wins = new boolean[interval * depth];
+		moves = new short[depth + 1];
+	}
+
+	/** 积累一对哈希和结果. */
+	void add(long hash, boolean win) {
+		hashes[size] = hash;
+		wins[size] = win;
+		size++;
+	}
+
+	/** 丢弃积累的数据. */
+	synchronized void clear() {
+		size = 0;
+		playouts = 0;
+	}
+
+	/** 把积累的数据合并到表中并清空. */
+	synchronized void flush(ShapeTable table) {
+		if (size > 0) {
+			table.update(hashes, wins, size);
+		}
+		size = 0;
+		playouts = 0;
+	}
+
+	/** 返回重放用的着子数组. */
+	short[] getMoves() {
+		return moves;
+	}
+
+	/** 记录一次棋局结束. 如果积累了足够的棋局，合并到表中. */
+	void playoutFinished(ShapeTable table) {
+		playouts++;
+		if (playouts >= interval) {
+			flush(table);
+		}
+	}
+
+}
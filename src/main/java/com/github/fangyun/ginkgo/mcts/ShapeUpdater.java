@@ -1,29 +1,92 @@
 package com.github.fangyun.ginkgo.mcts;
 
 import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
 import com.github.fangyun.ginkgo.patterns.PatternFinder;
+import com.github.fangyun.ginkgo.patterns.ShapeObserver;
 import com.github.fangyun.ginkgo.patterns.ShapeTable;
 
-/** 在进行了一次棋局之后，更新形状表(和树). */
+/**
+ * 在进行了一次棋局之后，更新形状表(和树).
+ * <p>
+ * 每个McRunnable把更新积累在自己的ShapeLearningBuffer中, 每mergeInterval次棋局在表的锁内合并一次,
+ * 所以线程之间不会丢失更新. 接受着子时(线程都已停止)合并所有剩余的更新. clear把表恢复到创建此更新器时的内容.
+ */
 public class ShapeUpdater implements TreeUpdater {
 
+	/** 每次棋局最多学习的着子数. */
+	private static final int DEPTH = 20;
+
+	/** 缺省的合并间隔(棋局数). */
+	public static final int DEFAULT_MERGE_INTERVAL = 32;
+
+	/** 所有McRunnable的缓冲. */
+	private final List<ShapeLearningBuffer> buffers;
+
+	private final int mergeInterval;
+
 	private final TreeUpdater updater;
 
 	private final ShapeTable shapeTable;
 
 	public ShapeUpdater(TreeUpdater updater, ShapeTable shapeTable) {
+		this(updater, shapeTable, DEFAULT_MERGE_INTERVAL);
+	}
+
+	/**
+	 * @param mergeInterval
+	 *            每个线程合并到表之前积累的棋局数. 1相当于每次棋局后立即更新.
+	 * @throws IllegalArgumentException
+	 *             如果mergeInterval不是正数.
+	 */
+	public ShapeUpdater(TreeUpdater updater, ShapeTable shapeTable, int mergeInterval) {
+		if (mergeInterval < 1) {
+			throw new IllegalArgumentException("合并间隔必须是正数: " + mergeInterval);
+		}
 		this.updater = updater;
 		this.shapeTable = shapeTable;
+		this.mergeInterval = mergeInterval;
+		buffers = new ArrayList<>();
+		shapeTable.markClean();
 	}
 
 	@Override
 	public void clear() {
 		updater.clear();
-		// TODO What do we do here? Re-load the SHAPE tables from memory?
-		// If so, some sort of "still clean" flag is probably in order.
+		synchronized (buffers) {
+			for (final ShapeLearningBuffer buffer : buffers) {
+				buffer.clear();
+			}
+		}
+		shapeTable.reset();
+	}
+
+	/** 把所有线程积累的更新合并到表中. 只在搜索线程停止时调用. */
+	public void flush() {
+		synchronized (buffers) {
+			for (final ShapeLearningBuffer buffer : buffers) {
+				buffer.flush(shapeTable);
+			}
+		}
+	}
+
+	/** 返回runnable的缓冲, 第一次时创建. */
+	private ShapeLearningBuffer getBuffer(McRunnable runnable) {
+		ShapeLearningBuffer buffer = runnable.getShapeLearningBuffer();
+		if (buffer == null) {
+			buffer = new ShapeLearningBuffer(mergeInterval, DEPTH);
+			runnable.setShapeLearningBuffer(buffer);
+			synchronized (buffers) {
+				buffers.add(buffer);
+			}
+		}
+		return buffer;
 	}
 
 	@Override
@@ -38,39 +101,40 @@ public class ShapeUpdater implements TreeUpdater {
 
 	@Override
 	public void updateForAcceptMove() {
+		flush();
 		updater.updateForAcceptMove();
 	}
 
 	@Override
 	public void updateTree(Color winner, McRunnable runnable) {
 		updater.updateTree(winner, runnable);
-		if (winner != VACANT) {
-			Board playerBoard = runnable.getPlayer().getBoard();
-//			HistoryObserver history = new HistoryObserver(playerBoard.getCoordinateSystem());
+		if (winner != VACANT && runnable.isResultDecisive()) {
+			final Board playerBoard = runnable.getPlayer().getBoard();
 			boolean win = winner == playerBoard.getColorToPlay();
-			int turn = runnable.getTurn();
-			Board board = runnable.getBoard();
-			HistoryObserver history = new HistoryObserver(board.getCoordinateSystem());
-			history.copyDataFrom(runnable.getHistoryObserver());
+			final ShapeLearningBuffer buffer = getBuffer(runnable);
+			// 复制棋盘会覆盖runnable的历史, 所以先把要重放的着子存起来
+			final short[] moves = buffer.getMoves();
+			final HistoryObserver history = runnable.getHistoryObserver();
+			final int start = playerBoard.getTurn();
+			final int n = Math.min(runnable.getTurn() - start, DEPTH);
+			for (int i = 0; i <= n; i++) {
+				moves[i] = history.get(start - 1 + i);
+			}
+			final Board board = runnable.getBoard();
 			board.copyDataFrom(playerBoard);
-			int k = 0; // Don't gather data beyond a certain depth
-			for (int t = playerBoard.getTurn(); t < turn; t++) {
-				if (k == 20) {
-					break;
-				}
-				k++;
-				short p = history.get(t);
+			final ShapeObserver shapes = runnable.getShapeObserver();
+			for (int i = 1; i <= n; i++) {
+				final short p = moves[i];
 				// TODO Get rid of magic number 3
-				long hash = PatternFinder.getHash(board, p, 3,
-						history.get(t - 1));
+				final long hash = shapes != null ? shapes.getHash(p, 3, moves[i - 1])
+						: PatternFinder.getHash(board, p, 3, moves[i - 1]);
 				// TODO Make win a double or float, so we can incorporate
 				// ties (winner == VACANT above).
-				shapeTable.update(hash, win);
-				// System.out.println("Playing " +
-				// board.getCoordinateSystem().toString(p));
+				buffer.add(hash, win);
 				board.play(p);
 				win = !win;
 			}
+			buffer.playoutFinished(shapeTable);
 		}
 	}
 
@@ -1,8 +1,10 @@
 package com.github.fangyun.ginkgo.mcts;
 
 import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.Color;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.TreeMaintenance;
 import com.github.fangyun.ginkgo.feature.HistoryObserver;
 
 /** 使用运行结果更新树. */
@@ -26,7 +28,11 @@ public final class SimpleTreeUpdater implements TreeUpdater {
 
 	@Override
 	public void clear() {
+		final TreeMaintenance event = new TreeMaintenance();
+		event.begin();
 		table.sweep();
+		event.nodesInUse = table.getNodesInUse();
+		event.commit();
 	}
 
 	@Override
@@ -52,9 +58,13 @@ public final class SimpleTreeUpdater implements TreeUpdater {
 
 	@Override
 	public void updateForAcceptMove() {
+		final TreeMaintenance event = new TreeMaintenance();
+		event.begin();
 		SearchNode root = getRoot();
-		table.markNodesReachableFrom(root);
+		event.marked = table.markNodesReachableFrom(root);
 		table.sweep();
+		event.nodesInUse = table.getNodesInUse();
+		event.commit();
 		root = getRoot();
 		assert root != null;
 	}
@@ -70,6 +80,11 @@ public final class SimpleTreeUpdater implements TreeUpdater {
 		if (winner == VACANT) {
 			winProportion = 0.5f;
 		}
+		final float evaluation = runnable.getEvaluation();
+		if (evaluation >= 0) {
+			// The playout was cut off; use the estimated probability
+			winProportion = board.getColorToPlay() == BLACK ? evaluation : 1 - evaluation;
+		}
 		for (int t = board.getTurn(); t < turn; t++) {
 			assert node != null : "Board turn " + board.getTurn()
 					+ ", runnable turn: " + turn + ", t: " + t
@@ -78,7 +93,9 @@ public final class SimpleTreeUpdater implements TreeUpdater {
 					+ (((double) table.getNodesInUse()) / table.getCapacity());
 			node.recordPlayout(winProportion, runnable, t);
 			final long fancyHash = fancyHashes[t + 1];
+			final long waitStart = System.nanoTime();
 			synchronized (table) {
+				runnable.getStatistics().recordLockWait(System.nanoTime() - waitStart);
 				SearchNode child = table.findIfPresent(fancyHash);
 				if (child == null) {
 					final short p = history.get(t);
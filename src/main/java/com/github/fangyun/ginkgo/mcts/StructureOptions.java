@@ -0,0 +1,59 @@
+package com.github.fangyun.ginkgo.mcts;
+
+/**
+ * CopiableStructureFactory的可选设置, 代替一串布尔参数的重载. 缺省值与不带选项的工厂方法相同.
+ */
+public final class StructureOptions {
+
+	/** 如果true，棋局中用一个PolicyMover代替SuggesterMover链. */
+	private boolean fused;
+
+	/** 如果true，逃跑建议器不建议被征吃的长出, 并用LadderRater给节点偏置. */
+	private boolean ladders;
+
+	/** PolicyMover中每个建议器的权重, 或者null表示按优先级抽样. */
+	private int[] policyWeights;
+
+	/** 形状表文件, 或者null表示用GINKGO_ROOT/patterns下的缺省文件. */
+	private String shapeTablePath;
+
+	public StructureOptions fused(boolean fused) {
+		this.fused = fused;
+		return this;
+	}
+
+	boolean isFused() {
+		return fused;
+	}
+
+	boolean isLadders() {
+		return ladders;
+	}
+
+	int[] getPolicyWeights() {
+		return policyWeights;
+	}
+
+	String getShapeTablePath() {
+		return shapeTablePath;
+	}
+
+	public StructureOptions ladders(boolean ladders) {
+		this.ladders = ladders;
+		return this;
+	}
+
+	/**
+	 * 设置PolicyMover中每个建议器(逃跑、模式、吃子, 有LGRF时LGRF在最前)的权重. null(缺省)表示按优先级抽样, 与SuggesterMover链相同.
+	 */
+	public StructureOptions policyWeights(int... weights) {
+		this.policyWeights = weights;
+		return this;
+	}
+
+	public StructureOptions shapeTablePath(String path) {
+		this.shapeTablePath = path;
+		return this;
+	}
+
+}
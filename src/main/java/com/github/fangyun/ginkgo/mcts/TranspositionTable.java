@@ -17,8 +17,14 @@ public final class TranspositionTable {
 	/** 哈希表自己. */
 	private final SearchNode[] table;
 
+	/** 自上次clearCounts以来分配的节点数. */
+	private long nodesAllocated;
+
 	private int nodesInUse;
 
+	/** 自上次clearCounts以来因为表已满而没能分配的次数. */
+	private long nodesRefused;
+
 	public TranspositionTable(int megabytes, SearchNodeBuilder builder, CoordinateSystem coords) {
 		final int size = megabytes * 1024 * 16 / Math.max(81, coords.getArea());
 		table = new SearchNode[size];
@@ -41,6 +47,12 @@ public final class TranspositionTable {
 		parent.setChildren(node);
 	}
 
+	/** 把分配和拒绝的计数置零. */
+	synchronized void clearCounts() {
+		nodesAllocated = 0;
+		nodesRefused = 0;
+	}
+
 	/**
 	 * 慢 -- 测试用. 返回从根能到的节点个数.
 	 */
@@ -87,10 +99,12 @@ public final class TranspositionTable {
 			} else {
 				n.clear(fancyHash, coords);
 				nodesInUse++;
+				nodesAllocated++;
 				return n;
 			}
 			slot = (slot + 1) % table.length;
 		} while (slot != start);
+		nodesRefused++;
 		return null;
 	}
 
@@ -118,6 +132,16 @@ public final class TranspositionTable {
 		return sum;
 	}
 
+	/** @return 自上次clearCounts以来分配的节点数. */
+	long getNodesAllocated() {
+		return nodesAllocated;
+	}
+
+	/** @return 自上次clearCounts以来因为表已满而没能分配的次数. */
+	long getNodesRefused() {
+		return nodesRefused;
+	}
+
 	/** @return 返回表节点当前在用的数目. */
 	int getNodesInUse() {
 		return nodesInUse;
@@ -128,8 +152,9 @@ public final class TranspositionTable {
 	 * (标识它们因为没有在用)和关联的ListNodes (返回它们到池中).
 	 */
 	void sweep() {
-		Logging.log(
-				"在用节点数 " + nodesInUse + "/" + table.length + " (" + (nodesInUse * 100) / table.length + "%)");
+		if (Logging.isLoggable()) {
+			Logging.log("在用节点数 " + nodesInUse + "/" + table.length + " (" + (nodesInUse * 100) / table.length + "%)");
+		}
 		for (int i = 0; i < table.length; i++) {
 			final SearchNode node = table[i];
 			if (node.isInUse()) {
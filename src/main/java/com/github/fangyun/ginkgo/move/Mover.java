@@ -2,7 +2,8 @@ package com.github.fangyun.ginkgo.move;
 
 import java.io.Serializable;
 
-import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
+
 
 /** 落子. */
 public interface Mover extends Serializable {
@@ -12,6 +13,6 @@ public interface Mover extends Serializable {
 	 *
 	 * @param fast 如果true，采用playFast而不是play.
 	 */
-	public short selectAndPlayOneMove(MersenneTwisterFast random, boolean fast);
+	public short selectAndPlayOneMove(RandomSource random, boolean fast);
 
 }
\ No newline at end of file
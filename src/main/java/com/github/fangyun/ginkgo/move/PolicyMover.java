@@ -0,0 +1,236 @@
+package com.github.fangyun.ginkgo.move;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.NO_POINT;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
+import static com.github.fangyun.ginkgo.core.Legality.OK;
+import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+
+import java.util.Arrays;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.feature.Predicate;
+import com.github.fangyun.ginkgo.feature.Suggester;
+import com.github.fangyun.ginkgo.util.RandomSource;
+import com.github.fangyun.ginkgo.util.ShortList;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 把一串SuggesterMover和最后的PredicateMover合并为一个落子器. 建议器的建议放入一个候选列表, 每个点只出现一次,
+ * 属于第一个建议它的建议器. 在列表中就地抽样, 不合法的候选与末尾交换后删除, 不再拷贝; 没有合法的候选时,
+ * 在满足过滤器的空点中随机落子, 最后虚手.
+ * <p>
+ * 缺省(没有权重)时按优先级抽样: 依次询问建议器, 在它的新候选中均匀地选择, 只有都不合法时才询问下一个,
+ * 所以与对应的链产生相同的着子分布, 而且优先的建议器有着子时不计算后面的建议器. 给了权重时, 每着询问所有建议器,
+ * 每个候选被选中的概率与建议它的建议器的权重成正比.
+ */
+public final class PolicyMover implements Mover {
+	private static final long serialVersionUID = -4650867096587640451L;
+
+	private final Board board;
+
+	/** 已询问的建议器的候选, 按建议器分段. 后备随机落子时也用作临时列表. */
+	private final ShortList candidates;
+
+	/** candidates中每个候选的权重, 只在有权重时使用. */
+	private final int[] candidateWeights;
+
+	/** 在建议器都没有合法着子时，只考虑满足此过滤器的空点. */
+	private final Predicate filter;
+
+	/** 点p已经在这一着的候选中, 如果marks[p] == mark. */
+	private final int[] marks;
+
+	/** 这一着的标记. */
+	private int mark;
+
+	/** 按优先级排列的建议器. */
+	private final Suggester[] suggesters;
+
+	/** 每个建议器的权重, 或者null表示按优先级抽样. */
+	private final int[] weights;
+
+	/**
+	 * 按优先级抽样的落子器.
+	 *
+	 * @param filter
+	 *            后备随机着子的过滤器.
+	 * @param suggesters
+	 *            按优先级排列的建议器, 相当于从外到内的SuggesterMover链.
+	 */
+	public PolicyMover(Board board, Predicate filter, Suggester... suggesters) {
+		this(board, filter, null, suggesters);
+	}
+
+	/**
+	 * @param filter
+	 *            后备随机着子的过滤器.
+	 * @param weights
+	 *            每个建议器的正权重, 或者null表示按优先级抽样.
+	 * @param suggesters
+	 *            建议器. 一个点被几个建议器建议时属于第一个.
+	 * @throws IllegalArgumentException
+	 *             如果权重数与建议器数不同, 或者有权重不是正数.
+	 */
+	public PolicyMover(Board board, Predicate filter, int[] weights, Suggester... suggesters) {
+		if (weights != null && weights.length != suggesters.length) {
+			throw new IllegalArgumentException("权重数与建议器数不同");
+		}
+		if (weights != null) {
+			for (final int w : weights) {
+				if (w <= 0) {
+					throw new IllegalArgumentException("权重必须是正数: " + w);
+				}
+			}
+		}
+		this.board = board;
+		this.filter = filter;
+		this.weights = weights;
+		this.suggesters = suggesters;
+		final int area = board.getCoordinateSystem().getArea();
+		candidates = new ShortList(area);
+		candidateWeights = new int[area];
+		marks = new int[board.getCoordinateSystem().getFirstPointBeyondBoard()];
+	}
+
+	/** 清空candidates, 开始新的一着. */
+	private void clearCandidates() {
+		candidates.clear();
+		mark++;
+		if (mark == Integer.MAX_VALUE) {
+			Arrays.fill(marks, 0);
+			mark = 1;
+		}
+	}
+
+	/** 把第s个建议器的还不是候选的建议加到candidates的末尾. */
+	private void addCandidates(int s) {
+		final ShortSet moves = suggesters[s].getMoves();
+		for (int i = 0; i < moves.size(); i++) {
+			final short p = moves.get(i);
+			if (marks[p] != mark) {
+				marks[p] = mark;
+				if (weights != null) {
+					candidateWeights[candidates.size()] = weights[s];
+				}
+				candidates.add(p);
+			}
+		}
+	}
+
+	/**
+	 * 在candidates的[start, end)段中不放回地均匀选择, 直到下了一个合法着子. 返回着子，或者NO_POINT如果没有合法着子.
+	 */
+	private short playFromSegment(int start, int end, RandomSource random, boolean fast) {
+		int n = end - start;
+		while (n > 0) {
+			final int i = start + random.nextInt(n);
+			final short p = candidates.get(i);
+			if (tryPlay(p, fast, false)) {
+				return p;
+			}
+			n--;
+			candidates.set(i, candidates.get(start + n));
+		}
+		return NO_POINT;
+	}
+
+	/**
+	 * 在所有候选中按权重不放回地选择, 直到下了一个合法着子. 返回着子，或者NO_POINT如果没有合法着子.
+	 */
+	private short playWeighted(RandomSource random, boolean fast) {
+		int n = candidates.size();
+		int total = 0;
+		for (int i = 0; i < n; i++) {
+			total += candidateWeights[i];
+		}
+		while (n > 0) {
+			int r = random.nextInt(total);
+			int i = 0;
+			while (r >= candidateWeights[i]) {
+				r -= candidateWeights[i];
+				i++;
+			}
+			final short p = candidates.get(i);
+			if (tryPlay(p, fast, false)) {
+				return p;
+			}
+			total -= candidateWeights[i];
+			n--;
+			candidates.set(i, candidates.get(n));
+			candidateWeights[i] = candidateWeights[n];
+		}
+		return NO_POINT;
+	}
+
+	/**
+	 * 在moves中不放回地随机选择, 直到下了一个合法着子. 返回着子，或者NO_POINT如果没有合法着子.
+	 *
+	 * @param filtered
+	 *            如果true，只下空的且满足过滤器的点(moves为所有空点时).
+	 */
+	private short playRandom(ShortSet moves, RandomSource random, boolean fast, boolean filtered) {
+		final int n = moves.size();
+		if (n == 0) {
+			return NO_POINT;
+		}
+		// 第一次选择与ShortList.removeRandom相同，但不拷贝
+		final int first = random.nextInt(n);
+		short p = moves.get(first);
+		if (tryPlay(p, fast, filtered)) {
+			return p;
+		}
+		candidates.clear();
+		candidates.addAll(moves);
+		final short last = candidates.removeLast();
+		if (first < candidates.size()) {
+			candidates.set(first, last);
+		}
+		while (candidates.size() > 0) {
+			p = candidates.removeRandom(random);
+			if (tryPlay(p, fast, filtered)) {
+				return p;
+			}
+		}
+		return NO_POINT;
+	}
+
+	@Override
+	public short selectAndPlayOneMove(RandomSource random, boolean fast) {
+		clearCandidates();
+		short p = NO_POINT;
+		if (weights != null) {
+			for (int s = 0; s < suggesters.length; s++) {
+				addCandidates(s);
+			}
+			p = playWeighted(random, fast);
+		} else {
+			for (int s = 0; s < suggesters.length && p == NO_POINT; s++) {
+				final int start = candidates.size();
+				addCandidates(s);
+				p = playFromSegment(start, candidates.size(), random, fast);
+			}
+		}
+		if (p != NO_POINT) {
+			return p;
+		}
+		p = playRandom(board.getVacantPoints(), random, fast, true);
+		if (p != NO_POINT) {
+			return p;
+		}
+		board.pass();
+		return PASS;
+	}
+
+	/** 试着在p落子. 返回true如果落子成功. */
+	private boolean tryPlay(short p, boolean fast, boolean filtered) {
+		if (filtered) {
+			if (board.getColorAt(p) != VACANT || !filter.at(p)) {
+				return false;
+			}
+		} else {
+			assert board.getColorAt(p) == VACANT;
+		}
+		return (fast ? board.playFast(p) : board.play(p)) == OK;
+	}
+
+}
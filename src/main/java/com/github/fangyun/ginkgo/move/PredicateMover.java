@@ -6,7 +6,7 @@ import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.Legality;
 import com.github.fangyun.ginkgo.feature.Predicate;
-import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
 import com.github.fangyun.ginkgo.util.ShortList;
 
 /**
@@ -32,7 +32,7 @@ public final class PredicateMover implements Mover {
 	}
 	
 	@Override
-	public short selectAndPlayOneMove(MersenneTwisterFast random, boolean fast) {
+	public short selectAndPlayOneMove(RandomSource random, boolean fast) {
 		candidates.clear();
 		candidates.addAll(board.getVacantPoints());
 		while (candidates.size() > 0) {
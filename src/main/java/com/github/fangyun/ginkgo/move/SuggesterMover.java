@@ -5,7 +5,7 @@ import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.Legality;
 import com.github.fangyun.ginkgo.feature.Suggester;
-import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
+import com.github.fangyun.ginkgo.util.RandomSource;
 import com.github.fangyun.ginkgo.util.ShortList;
 
 /** 这是一些建议器的建议着子. */
@@ -33,7 +33,7 @@ public final class SuggesterMover implements Mover {
 	}
 
 	@Override
-	public short selectAndPlayOneMove(MersenneTwisterFast random, boolean fast) {
+	public short selectAndPlayOneMove(RandomSource random, boolean fast) {
 		candidates.clear();
 		candidates.addAll(suggester.getMoves());
 		while (candidates.size() > 0) {
@@ -6,17 +6,19 @@ import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import com.github.fangyun.ginkgo.core.Board;
-import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.core.Legality;
-import com.github.fangyun.ginkgo.sgf.SgfParser;
+import com.github.fangyun.ginkgo.feature.PatternObserver;
+import com.github.fangyun.ginkgo.sgf.SgfStream;
 import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
 import com.github.fangyun.ginkgo.util.ShortList;
 
@@ -24,7 +26,7 @@ import com.github.fangyun.ginkgo.util.ShortList;
 public class PatternExtractor {
 
 	/** Number of possible patterns. */
-	private final static int PATTERN_COUNT = Character.MAX_VALUE + 1;
+	final static int PATTERN_COUNT = Character.MAX_VALUE + 1;
 
 	private final ShortList candidates;
 
@@ -106,10 +108,17 @@ public class PatternExtractor {
 
 	final CoordinateSystem coords;
 
-	private final SgfParser parser;
+	/** Streams the games out of the SGF files. */
+	private final SgfStream stream;
+
+	/** Maintains the 3x3 pattern around each point. */
+	private final PatternObserver patterns;
 
 	private final MersenneTwisterFast random;
 
+	/** Time of construction, in nanoseconds, for reporting throughput. */
+	private final long startTime;
+
 	/** runs[i] is the number of times move i was selected. */
 	private final int[] runs;
 
@@ -127,18 +136,19 @@ public class PatternExtractor {
 
 	/**
 	 * Analyzes 3x3 patterns in SGF files and stores a win rate for each in an
-	 * array. Does not support varying board sizes because SgfParser does not
-	 * currently support board sizes other than 19.
+	 * array. Only 19x19 games are analyzed.
 	 */
 	public PatternExtractor(boolean verbose) {
 		board = new Board(19);
 		coords = board.getCoordinateSystem();
+		patterns = new PatternObserver(board);
 		runs = new int[PATTERN_COUNT];
 		wins = new int[PATTERN_COUNT];
 		random = new MersenneTwisterFast();
-		parser = new SgfParser(coords, true);
+		stream = new SgfStream(coords, true, Integer.MAX_VALUE);
 		this.verbose = verbose;
 		candidates = new ShortList(coords.getArea());
+		startTime = System.nanoTime();
 	}
 
 	/**
@@ -156,36 +166,54 @@ public class PatternExtractor {
 			}
 		} else {
 			if (file.getPath().endsWith(".sgf")) {
-				List<List<Short>> games = parser.parseGamesFromFile(file,
-						Integer.MAX_VALUE);
-				try {
-					analyzeGames(games);
-				} catch (IllegalArgumentException e) {
-					e.printStackTrace();
-					System.err.println(file.getPath());
-					System.exit(1);
-				}
+				analyzeFile(file);
 			}
 		}
 	}
 
-	/** Analyzes all the games in one SGF file. */
-	void analyzeGames(List<List<Short>> games) {
-		for (List<Short> game : games) {
-			for (Short move : game) {
-				analyzeMove(move);
-				Legality legality = board.play(move);
-				if (legality == Legality.KO_VIOLATION) {
-					break;
-				} else if (legality == Legality.SUICIDE) {
-					throw new IllegalArgumentException(
-							"SGF contained illegal move at "
-									+ coords.toString(move) + " on turn "
-									+ board.getTurn() + "\n" + board);
-				}
+	/** Processes all the games in one SGF file. */
+	void analyzeFile(File file) {
+		try {
+			stream.parseFile(file, this::analyzeGame);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+			System.err.println(file.getPath());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Adds the counts gathered so far to totalRuns and totalWins, then clears
+	 * them. Used to merge the counts of parallel workers.
+	 */
+	void addCountsTo(int[] totalRuns, int[] totalWins) {
+		for (int i = 0; i < PATTERN_COUNT; i++) {
+			totalRuns[i] += runs[i];
+			totalWins[i] += wins[i];
+		}
+		Arrays.fill(runs, 0);
+		Arrays.fill(wins, 0);
+	}
+
+	/**
+	 * Analyzes one game. The first length elements of moves are the moves of
+	 * the game; the array is reused by the stream.
+	 */
+	void analyzeGame(short[] moves, int length) {
+		for (int i = 0; i < length; i++) {
+			final short move = moves[i];
+			analyzeMove(move);
+			Legality legality = board.play(move);
+			if (legality == Legality.KO_VIOLATION) {
+				break;
+			} else if (legality == Legality.SUICIDE) {
+				throw new IllegalArgumentException(
+						"SGF contained illegal move at "
+								+ coords.toString(move) + " on turn "
+								+ board.getTurn() + "\n" + board);
 			}
-			board.clear();
 		}
+		board.clear();
 	}
 
 	/**
@@ -206,8 +234,15 @@ public class PatternExtractor {
 	 */
 	void buildPatternData(File file) {
 		analyzeFiles(file);
-		try (FileOutputStream out = new FileOutputStream(
-				"patterns/patterns3x3.data");
+		reportThroughput();
+		writePatternData("patterns/patterns3x3.data", runs, wins);
+	}
+
+	/**
+	 * Writes runs and wins in the format PatternSuggester loads.
+	 */
+	static void writePatternData(String filePath, int[] runs, int[] wins) {
+		try (FileOutputStream out = new FileOutputStream(filePath);
 				ObjectOutputStream oos = new ObjectOutputStream(out)) {
 			oos.writeObject(runs);
 			oos.writeObject(wins);
@@ -217,10 +252,28 @@ public class PatternExtractor {
 		}
 	}
 
+	/**
+	 * Prints the number of games analyzed since construction and the rate, if
+	 * verbose.
+	 */
+	void reportThroughput() {
+		if (verbose) {
+			final double seconds = (System.nanoTime() - startTime) / 1e9;
+			System.out.printf("%d games in %d files (%d rejected), %.0f games/sec%n",
+					stream.getGameCount(), stream.getFileCount(),
+					stream.getRejectedCount(), stream.getGameCount() / seconds);
+		}
+	}
+
 	Board getBoard() {
 		return board;
 	}
 
+	/** Returns the number of games analyzed since construction. */
+	long getGameCount() {
+		return stream.getGameCount();
+	}
+
 	/** For testing. */
 	float getWinRate(int colors) {
 		if (runs[colors] == 0) {
@@ -278,21 +331,11 @@ public class PatternExtractor {
 	 * not, only runs is updated.
 	 */
 	void updateTables(boolean winner, short move) {
-		short[] neighbors = coords.getNeighbors(move);
+		final char pattern = patterns.getPattern(move, board.getColorToPlay());
 		int[] colors = new int[8];
-		for (int i = 0; i < neighbors.length; i++) {
-			// Color of neighbor
-			Color color = board.getColorAt(neighbors[i]);
-			if (color == board.getColorToPlay()) {
-				// Friendly stone
-				colors[i] = 1;
-			} else if (color == board.getColorToPlay().opposite()) {
-				// Enemy stone
-				colors[i] = 0;
-			} else {
-				// Vacant or off board
-				colors[i] = color.index();
-			}
+		for (int i = 0; i < colors.length; i++) {
+			// 1 friendly, 0 enemy, 2 vacant, 3 off board
+			colors[i] = pattern >> i * 2 & 3;
 		}
 		updateRotations(winner, colors);
 		updateRotations(winner, reflectAcrossDiagonal(colors));
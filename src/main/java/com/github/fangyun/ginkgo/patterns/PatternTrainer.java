@@ -0,0 +1,310 @@
+package com.github.fangyun.ginkgo.patterns;
+
+import static com.github.fangyun.ginkgo.experiment.PropertyPaths.GINKGO_ROOT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.github.fangyun.ginkgo.sgf.SgfStream;
+
+/**
+ * 并行地从(可能嵌套的)SGF文件目录中提取3x3模式或形状.
+ * <p>
+ * 文件按路径排序后分批处理. 每批分成与线程数相同的连续的段, 每个线程用自己的PatternExtractor(或ShapeExtractor)处理一段,
+ * 它有自己的棋盘和计数表. 一批完成后合并到总表: 模式的计数直接相加; 形状的赢率是指数衰减的, 所以每个线程更新自己的增量表
+ * (见{@link ShapeTable#createDelta(float)}), 按段的顺序接到总表上, 结果与按文件顺序串行地更新相同(随机选的对照着子除外).
+ * <p>
+ * 每批之后把总表和进度写入检查点文件(先写临时文件再改名). 如果检查点存在, 从它记录的下一个文件继续; 完成后写出结果并删除检查点.
+ * 模式写为PatternSuggester载入的patterns3x3.data, 形状写为ShapeTable可映射的二进制格式, 文件名与ShapeExtractor的相同.
+ * <p>
+ * 用法: PatternTrainer SGF目录 patterns|shapes [线程数 [每批文件数 [最少棋子数 [伸缩因子]]]], 缺省为可用处理器数, 1000, 3和0.999.
+ * 结果写到ginkgo.root下的patterns目录.
+ */
+public final class PatternTrainer {
+
+	/** 检查点文件的魔数, "GKPC". */
+	private static final int MAGIC = 0x474B5043;
+
+	/** 检查点文件的版本. */
+	private static final int VERSION = 1;
+
+	public static void main(String[] args) {
+		if (args.length < 2 || !args[1].equals("patterns") && !args[1].equals("shapes")) {
+			System.err.println("用法: PatternTrainer SGF目录 patterns|shapes [线程数 [每批文件数 [最少棋子数 [伸缩因子]]]]");
+			System.exit(1);
+		}
+		final boolean shapes = args[1].equals("shapes");
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		final int minStones = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+		final float scalingFactor = args.length > 5 ? Float.parseFloat(args[5]) : 0.999f;
+		final PatternTrainer trainer = new PatternTrainer(shapes, minStones, scalingFactor, threads, batchSize,
+				true);
+		try {
+			trainer.train(new File(args[0]));
+		} catch (final IOException | InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/** 每批的文件数. */
+	private final int batchSize;
+
+	/** 检查点文件. */
+	private final File checkpoint;
+
+	/** 每个工作者的增量表. 只用于形状. */
+	private final ShapeTable[] deltas;
+
+	/** 从检查点继续时, 之前的运行处理的棋局数. */
+	private long earlierGames;
+
+	/** 形状的最少棋子数. */
+	private final int minStones;
+
+	/** 结果文件. */
+	private final File output;
+
+	/** 模式的总计数. 只用于模式. */
+	private int[] runs;
+
+	private final float scalingFactor;
+
+	/** 提取形状而不是3x3模式. */
+	private final boolean shapes;
+
+	/** 形状的总表. 只用于形状. */
+	private ShapeTable table;
+
+	private final int threads;
+
+	/** 如果为真, 每批之后打印进度. */
+	private final boolean verbose;
+
+	/** 模式的总计数. 只用于模式. */
+	private int[] wins;
+
+	/** 每个线程的提取器. */
+	private final PatternExtractor[] workers;
+
+	/**
+	 * @param shapes
+	 *            如果为真提取形状, 否则提取3x3模式.
+	 * @param minStones
+	 *            形状的最少棋子数.
+	 * @param scalingFactor
+	 *            形状表的伸缩因子.
+	 */
+	public PatternTrainer(boolean shapes, int minStones, float scalingFactor, int threads, int batchSize,
+			boolean verbose) {
+		this.shapes = shapes;
+		this.minStones = minStones;
+		this.scalingFactor = scalingFactor;
+		this.threads = threads;
+		this.batchSize = batchSize;
+		this.verbose = verbose;
+		final File directory = new File(GINKGO_ROOT + "patterns");
+		directory.mkdir();
+		if (shapes) {
+			String sfString = Float.toString(scalingFactor);
+			sfString = sfString.substring(sfString.indexOf('.') + 1);
+			output = new File(directory, "patterns" + minStones + "stones-SHAPE-sf" + sfString + ".data");
+		} else {
+			output = new File(directory, "patterns3x3.data");
+		}
+		checkpoint = new File(output.getPath() + ".checkpoint");
+		workers = new PatternExtractor[threads];
+		deltas = shapes ? new ShapeTable[threads] : null;
+		for (int i = 0; i < threads; i++) {
+			if (shapes) {
+				deltas[i] = ShapeTable.createDelta(scalingFactor);
+				workers[i] = new ShapeExtractor(false, deltas[i], minStones);
+			} else {
+				workers[i] = new PatternExtractor(false);
+			}
+		}
+	}
+
+	/** 返回文件列表的指纹, 用来检查检查点是否属于同样的输入. */
+	private static long fingerprint(List<File> files) {
+		long result = files.size();
+		for (final File file : files) {
+			result = result * 0x9E3779B97F4A7C15L + file.getPath().hashCode();
+		}
+		return result;
+	}
+
+	/** 返回所有工作者处理的棋局数. */
+	private long getGameCount() {
+		long result = earlierGames;
+		for (final PatternExtractor worker : workers) {
+			result += worker.getGameCount();
+		}
+		return result;
+	}
+
+	/** 把每个工作者的结果按段的顺序合并到总表, 并清空工作者的表. */
+	private void merge() {
+		for (int i = 0; i < threads; i++) {
+			if (shapes) {
+				table.apply(deltas[i]);
+				deltas[i].clearDelta();
+			} else {
+				workers[i].addCountsTo(runs, wins);
+			}
+		}
+	}
+
+	/**
+	 * 读检查点, 恢复总表. 返回下一个要处理的文件的下标.
+	 *
+	 * @throws IOException
+	 *             如果检查点不属于同样的输入和参数.
+	 */
+	private int readCheckpoint(long fingerprint) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(checkpoint), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readBoolean() != shapes
+					|| in.readInt() != minStones || in.readFloat() != scalingFactor || in.readLong() != fingerprint) {
+				throw new IOException("检查点与输入或参数不符, 删除它以重新开始: " + checkpoint);
+			}
+			final int next = in.readInt();
+			earlierGames = in.readLong();
+			if (shapes) {
+				for (final float[] section : table.getWinRateTables()) {
+					for (int j = 0; j < section.length; j++) {
+						section[j] = in.readFloat();
+					}
+				}
+			} else {
+				for (int i = 0; i < runs.length; i++) {
+					runs[i] = in.readInt();
+				}
+				for (int i = 0; i < wins.length; i++) {
+					wins[i] = in.readInt();
+				}
+			}
+			return next;
+		}
+	}
+
+	/**
+	 * 处理目录中的所有SGF文件, 把结果写到patterns目录. 返回结果文件.
+	 */
+	public File train(File directory) throws IOException, InterruptedException {
+		final long start = System.nanoTime();
+		final List<File> files = new ArrayList<>();
+		SgfStream.collectFiles(directory, files);
+		final long fingerprint = fingerprint(files);
+		if (shapes) {
+			table = new ShapeTable(scalingFactor);
+		} else {
+			runs = new int[PatternExtractor.PATTERN_COUNT];
+			wins = new int[PatternExtractor.PATTERN_COUNT];
+		}
+		int next = 0;
+		if (checkpoint.exists()) {
+			next = readCheckpoint(fingerprint);
+			if (verbose) {
+				System.out.println("从检查点继续: " + next + "/" + files.size() + " 个文件, " + earlierGames + " 局");
+			}
+		} else if (verbose) {
+			System.out.println("找到 " + files.size() + " 个SGF文件, 用 " + threads + " 个线程");
+		}
+		final long resumedGames = earlierGames;
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			while (next < files.size()) {
+				final int end = Math.min(files.size(), next + batchSize);
+				final List<Future<?>> slices = new ArrayList<>();
+				for (int i = 0; i < threads; i++) {
+					final PatternExtractor worker = workers[i];
+					final List<File> slice = files.subList(next + (end - next) * i / threads,
+							next + (end - next) * (i + 1) / threads);
+					slices.add(pool.submit((Callable<Void>) () -> {
+						for (final File file : slice) {
+							worker.analyzeFile(file);
+						}
+						return null;
+					}));
+				}
+				for (final Future<?> slice : slices) {
+					try {
+						slice.get();
+					} catch (final ExecutionException e) {
+						throw new IllegalStateException(e.getCause());
+					}
+				}
+				merge();
+				next = end;
+				writeCheckpoint(next, fingerprint);
+				if (verbose) {
+					final long games = getGameCount();
+					System.out.printf("%d/%d 个文件, %d 局, %.0f 局/秒%n", next, files.size(), games,
+							(games - resumedGames) * 1e9 / (System.nanoTime() - start));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		if (shapes) {
+			table.write(output.getPath(), 32);
+		} else {
+			PatternExtractor.writePatternData(output.getPath(), runs, wins);
+		}
+		Files.deleteIfExists(checkpoint.toPath());
+		if (verbose) {
+			System.out.printf("写入 %s, 用时 %.1f 秒%n", output, (System.nanoTime() - start) / 1e9);
+		}
+		return output;
+	}
+
+	/** 把参数、进度和总表写入检查点. 先写临时文件再改名, 所以中断时不会留下写了一半的检查点. */
+	private void writeCheckpoint(int next, long fingerprint) throws IOException {
+		final File temporary = new File(checkpoint.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(shapes);
+			out.writeInt(minStones);
+			out.writeFloat(scalingFactor);
+			out.writeLong(fingerprint);
+			out.writeInt(next);
+			out.writeLong(getGameCount());
+			if (shapes) {
+				for (final float[] section : table.getWinRateTables()) {
+					for (final float rate : section) {
+						out.writeFloat(rate);
+					}
+				}
+			} else {
+				for (final int run : runs) {
+					out.writeInt(run);
+				}
+				for (final int win : wins) {
+					out.writeInt(win);
+				}
+			}
+		}
+		Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -6,7 +6,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
-import java.util.List;
 
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
@@ -30,10 +29,18 @@ public class ShapeExtractor extends PatternExtractor {
 	}
 
 	public ShapeExtractor(boolean verbose, float scalingFactor, int minStones) {
+		this(verbose, new ShapeTable(scalingFactor), minStones);
+	}
+
+	/**
+	 * Creates an extractor that updates shapeTable, which may be a delta table
+	 * owned by one worker of a PatternTrainer.
+	 */
+	ShapeExtractor(boolean verbose, ShapeTable shapeTable, int minStones) {
 		super(verbose);
 		this.minStones = minStones;
-		this.scalingFactor = scalingFactor;
-		shapeTable = new ShapeTable(scalingFactor);
+		this.scalingFactor = shapeTable.getScalingFactor();
+		this.shapeTable = shapeTable;
 		boards = new Board[8];
 		for (int i = 0; i < 8; i++) {
 			boards[i] = new Board(19);
@@ -56,6 +63,7 @@ public class ShapeExtractor extends PatternExtractor {
 
 	void buildPatternData(String inputFile, String outputFile) {
 		analyzeFiles(new File(inputFile));
+		reportThroughput();
 		try (FileOutputStream out = new FileOutputStream(outputFile);
 				ObjectOutputStream oos = new ObjectOutputStream(out)) {
 			oos.writeObject(shapeTable.getWinRateTables());
@@ -86,42 +94,41 @@ public class ShapeExtractor extends PatternExtractor {
 	}
 
 	@Override
-	void analyzeGames(List<List<Short>> games) {
-		for (List<Short> game : games) {
-			short[] lastMoves = new short[8];
-			Arrays.fill(lastMoves, CoordinateSystem.NO_POINT);
-			for (Board board : boards) {
-				board.clear();
-			}
-			for (Short move : game) {
-				final short[] transformations = new short[8];
-				transformations[0] = move;
-				transformations[1] = rotate90(move);
-				transformations[2] = rotate90(transformations[1]);
-				transformations[3] = rotate90(transformations[2]);
-				transformations[4] = reflect(move);
-				transformations[5] = rotate90(transformations[4]);
-				transformations[6] = rotate90(transformations[5]);
-				transformations[7] = rotate90(transformations[6]);
-				Legality legality = Legality.OK;
-				for (int i = 0; i < transformations.length; i++) {
-					analyzeMove(transformations[i], boards[i], lastMoves[i]);
-					legality = boards[i].play(transformations[i]);
-					if (legality == Legality.KO_VIOLATION) {
-						break;
-					} else if (legality == Legality.SUICIDE) {
-						throw new IllegalArgumentException(
-								"SGF contained illegal move at "
-										+ coords.toString(transformations[i]) + " on turn "
-										+ boards[i].getTurn() + "\n" + boards[i]);
-					}
-				}
-				if(legality == Legality.KO_VIOLATION){
+	void analyzeGame(short[] moves, int length) {
+		short[] lastMoves = new short[8];
+		Arrays.fill(lastMoves, CoordinateSystem.NO_POINT);
+		for (Board board : boards) {
+			board.clear();
+		}
+		final short[] transformations = new short[8];
+		for (int m = 0; m < length; m++) {
+			final short move = moves[m];
+			transformations[0] = move;
+			transformations[1] = rotate90(move);
+			transformations[2] = rotate90(transformations[1]);
+			transformations[3] = rotate90(transformations[2]);
+			transformations[4] = reflect(move);
+			transformations[5] = rotate90(transformations[4]);
+			transformations[6] = rotate90(transformations[5]);
+			transformations[7] = rotate90(transformations[6]);
+			Legality legality = Legality.OK;
+			for (int i = 0; i < transformations.length; i++) {
+				analyzeMove(transformations[i], boards[i], lastMoves[i]);
+				legality = boards[i].play(transformations[i]);
+				if (legality == Legality.KO_VIOLATION) {
 					break;
+				} else if (legality == Legality.SUICIDE) {
+					throw new IllegalArgumentException(
+							"SGF contained illegal move at "
+									+ coords.toString(transformations[i]) + " on turn "
+									+ boards[i].getTurn() + "\n" + boards[i]);
 				}
-				for(int i = 0; i<transformations.length; i++){
-					lastMoves[i] = transformations[i];
-				}
+			}
+			if(legality == Legality.KO_VIOLATION){
+				break;
+			}
+			for(int i = 0; i<transformations.length; i++){
+				lastMoves[i] = transformations[i];
 			}
 		}
 	}
@@ -0,0 +1,224 @@
+package com.github.fangyun.ginkgo.patterns;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.FIRST_ORTHOGONAL_NEIGHBOR;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.LAST_ORTHOGONAL_NEIGHBOR;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.MAX_POSSIBLE_BOARD_WIDTH;
+import static com.github.fangyun.ginkgo.patterns.PatternFinder.LAST_MOVE_INCREASE;
+import static com.github.fangyun.ginkgo.patterns.PatternFinder.OFF_BOARD;
+import static com.github.fangyun.ginkgo.patterns.PatternFinder.POINT_HASHES;
+
+import java.util.Arrays;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.feature.BoardObserver;
+import com.github.fangyun.ginkgo.util.ShortList;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 为每个点维护PatternFinder.getHash所用的同心环的Zobrist哈希, 最多到给定的环数.
+ * <p>
+ * 每个点每个环存储该环中棋子(按气数分类)和棋盘外点的哈希以及棋子数. 落子或提子后只有类别改变的棋子
+ * (新棋子、被提的子、气数改变的链)才更新它们半径内的点, 因此查询只需把环依次异或直到棋子数足够.
+ * 哈希与getHash完全相同: 己方和敌方棋子在POINT_HASHES中用相同下标, 所以存储的环哈希与轮到哪方无关,
+ * 只有上一着子的加成在查询时调整. 如果给定环数内的棋子不够, 就退回到PatternFinder.getHash.
+ */
+public final class ShapeObserver implements BoardObserver {
+	private static final long serialVersionUID = 3284517708541176590L;
+
+	/** 缺省的环数, 覆盖距离约4.5以内的点. */
+	public static final int DEFAULT_RINGS = 12;
+
+	/** 偏移表中行列偏移的范围. */
+	private static final int SPAN = 2 * MAX_POSSIBLE_BOARD_WIDTH + 1;
+
+	private final Board board;
+
+	/** 每个点的类别: 0为空, 1、2、3为所在链有1、2、3或更多口气. */
+	private final byte[] classes;
+
+	/** 临时存储类别可能改变的链. */
+	private final ShortSet chains;
+
+	private final CoordinateSystem coords;
+
+	/** 只有棋盘外点的环哈希, 用来清空. */
+	private final long[] emptyHashes;
+
+	/** hashes[p * rings + k]为点p第k个环的哈希. */
+	private final long[] hashes;
+
+	/** 每个偏移的列偏移. */
+	private final int[] offsetColumns;
+
+	/** offsetIndices[(行偏移 + 19) * SPAN + 列偏移 + 19]为该偏移的下标, 超出环数则为-1. */
+	private final int[] offsetIndices;
+
+	/** 每个偏移的行偏移. */
+	private final int[] offsetRows;
+
+	/** 每个偏移所在的环. */
+	private final int[] ringOf;
+
+	/** 维护的环数. */
+	private final int rings;
+
+	/** stones[p * rings + k]为点p第k个环中的棋子数. */
+	private final byte[] stones;
+
+	/**
+	 * @param rings
+	 *            维护的同心环数, 不超过PatternFinder的环数.
+	 */
+	public ShapeObserver(Board board, int rings) {
+		this.board = board;
+		this.rings = rings;
+		coords = board.getCoordinateSystem();
+		final short[][] offsets = PatternFinder.getOffsets();
+		final int[] patternSizes = PatternFinder.getPatternSizes();
+		final int offsetCount = patternSizes[rings];
+		offsetRows = new int[offsetCount];
+		offsetColumns = new int[offsetCount];
+		ringOf = new int[offsetCount];
+		offsetIndices = new int[SPAN * SPAN];
+		Arrays.fill(offsetIndices, -1);
+		for (int k = 0; k < rings; k++) {
+			for (int j = patternSizes[k]; j < patternSizes[k + 1]; j++) {
+				offsetRows[j] = offsets[j][0];
+				offsetColumns[j] = offsets[j][1];
+				ringOf[j] = k;
+				offsetIndices[(offsets[j][0] + MAX_POSSIBLE_BOARD_WIDTH) * SPAN + offsets[j][1]
+						+ MAX_POSSIBLE_BOARD_WIDTH] = j;
+			}
+		}
+		final int n = coords.getFirstPointBeyondBoard();
+		classes = new byte[n];
+		chains = new ShortSet(n);
+		hashes = new long[n * rings];
+		stones = new byte[n * rings];
+		emptyHashes = new long[n * rings];
+		for (final short p : coords.getAllPointsOnBoard()) {
+			for (int j = 0; j < offsetCount; j++) {
+				if (!coords.isValidOneDimensionalCoordinate(coords.row(p) + offsetRows[j])
+						|| !coords.isValidOneDimensionalCoordinate(coords.column(p) + offsetColumns[j])) {
+					emptyHashes[p * rings + ringOf[j]] ^= POINT_HASHES[OFF_BOARD][j];
+				}
+			}
+		}
+		board.addObserver(this);
+		clear();
+	}
+
+	/** 如果点p的类别改为c，则更新它半径内的所有点. */
+	private void change(short p, int c) {
+		final int old = classes[p];
+		if (old == c) {
+			return;
+		}
+		classes[p] = (byte) c;
+		final int row = coords.row(p);
+		final int column = coords.column(p);
+		final int stoneChange = (c == 0 ? 0 : 1) - (old == 0 ? 0 : 1);
+		for (int j = 0; j < ringOf.length; j++) {
+			// p是q的第j个偏移
+			final int r = row - offsetRows[j];
+			final int col = column - offsetColumns[j];
+			if (coords.isValidOneDimensionalCoordinate(r) && coords.isValidOneDimensionalCoordinate(col)) {
+				final int i = coords.at(r, col) * rings + ringOf[j];
+				hashes[i] ^= hashFor(old, j) ^ hashFor(c, j);
+				stones[i] += stoneChange;
+			}
+		}
+	}
+
+	/** 检查链上所有棋子的类别. */
+	private void checkChain(short chain) {
+		final int c = classOf(chain);
+		short s = chain;
+		do {
+			change(s, c);
+			s = board.getChainNextPoint(s);
+		} while (s != chain);
+	}
+
+	/** 返回在p的棋子的类别. */
+	private int classOf(short p) {
+		return Math.min(board.getLiberties(p).size(), 3);
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(classes, (byte) 0);
+		System.arraycopy(emptyHashes, 0, hashes, 0, hashes.length);
+		Arrays.fill(stones, (byte) 0);
+	}
+
+	@Override
+	public void copyDataFrom(BoardObserver that) {
+		final ShapeObserver original = (ShapeObserver) that;
+		System.arraycopy(original.classes, 0, classes, 0, classes.length);
+		System.arraycopy(original.hashes, 0, hashes, 0, hashes.length);
+		System.arraycopy(original.stones, 0, stones, 0, stones.length);
+	}
+
+	/**
+	 * 返回与PatternFinder.getHash(board, p, minStones, lastMove)相同的哈希.
+	 */
+	public long getHash(short p, int minStones, short lastMove) {
+		int last = -1;
+		if (coords.isOnBoard(lastMove) && board.getColorAt(lastMove) == board.getColorToPlay().opposite()) {
+			last = offsetIndices[(coords.row(lastMove) - coords.row(p) + MAX_POSSIBLE_BOARD_WIDTH) * SPAN
+					+ coords.column(lastMove) - coords.column(p) + MAX_POSSIBLE_BOARD_WIDTH];
+		}
+		long result = 0L;
+		int stonesSeen = 0;
+		for (int k = 0; k < rings; k++) {
+			result ^= hashes[p * rings + k];
+			stonesSeen += stones[p * rings + k];
+			if (last >= 0 && ringOf[last] == k) {
+				final int c = classes[lastMove];
+				result ^= POINT_HASHES[c - 1][last] ^ POINT_HASHES[c - 1 + LAST_MOVE_INCREASE][last];
+			}
+			if (stonesSeen >= minStones) {
+				return result;
+			}
+		}
+		return PatternFinder.getHash(board, p, minStones, lastMove);
+	}
+
+	/** 返回类别为c的点在第j个偏移的哈希. */
+	private static long hashFor(int c, int j) {
+		return c == 0 ? 0L : POINT_HASHES[c - 1][j];
+	}
+
+	@Override
+	public void update(StoneColor color, short location, ShortList capturedStones) {
+		if (location == PASS) {
+			return;
+		}
+		chains.clear();
+		chains.add(board.getChainRoot(location));
+		short[] neighbors = coords.getNeighbors(location);
+		for (int i = FIRST_ORTHOGONAL_NEIGHBOR; i <= LAST_ORTHOGONAL_NEIGHBOR; i++) {
+			if (board.getColorAt(neighbors[i]) == color.opposite()) {
+				chains.add(board.getChainRoot(neighbors[i]));
+			}
+		}
+		for (int c = 0; c < capturedStones.size(); c++) {
+			final short s = capturedStones.get(c);
+			change(s, 0);
+			neighbors = coords.getNeighbors(s);
+			for (int i = FIRST_ORTHOGONAL_NEIGHBOR; i <= LAST_ORTHOGONAL_NEIGHBOR; i++) {
+				if (board.getColorAt(neighbors[i]) == color) {
+					chains.add(board.getChainRoot(neighbors[i]));
+				}
+			}
+		}
+		for (int i = 0; i < chains.size(); i++) {
+			checkChain(chains.get(i));
+		}
+	}
+
+}
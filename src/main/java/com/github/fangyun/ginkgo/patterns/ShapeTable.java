@@ -1,33 +1,109 @@
 package com.github.fangyun.ginkgo.patterns;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-/** 对模式哈希存赢率. */
+/**
+ * 对模式哈希存赢率.
+ * <p>
+ * 表可以从两种文件载入. 旧格式是序列化的float[3][2097152]. 新的二进制格式(见{@link #write(String, int)})被只读地内存映射,
+ * 因此同一主机上的多个进程共享同一份物理内存, 载入也几乎不花时间; 赢率可以存为32位浮点数, 或量化为16位或8位.
+ * 对映射的表调用update时，只把被更新的页(每页{@value #PAGE_SIZE}个条目)复制到堆中, 其余的页仍然与其它进程共享映射.
+ * {@link #getWinRateTables()}才把整个表复制到堆中, 只用于训练和转换等离线工具, 不在搜索中调用. {@link #markClean()}记录当前内容, {@link #reset()}恢复到记录的内容;
+ * 记录不拷贝表, 只在markClean之后第一次更新某页时保存这一页原来的内容.
+ * <p>
+ * 增量表(见{@link #createDelta(float)})用于并行训练: 每个线程更新自己的增量表, 再按顺序用{@link #apply(ShapeTable)}接到总表上.
+ */
 public final class ShapeTable implements Serializable {
 	private static final long serialVersionUID = -3915546434380921804L;
 
-	private final float[][] winRateTables;
+	/** 二进制格式的魔数, "GKST". */
+	private static final int MAGIC = 0x474B5354;
+
+	/** 二进制格式的版本. */
+	private static final int VERSION = 1;
+
+	/** 二进制格式文件头的字节数. */
+	private static final int HEADER_BYTES = 32;
+
+	/** 表的节数. */
+	private static final int SECTIONS = 3;
+
+	/** 每节的条目数. */
+	private static final int ENTRIES = 2097152;
+
+	/** 每页条目数的对数. */
+	private static final int PAGE_BITS = 12;
+
+	/** 映射的表更新时复制到堆中的单位(条目数). */
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+	/** 每节的页数. */
+	private static final int PAGES = ENTRIES / PAGE_SIZE;
+
+	/** 映射的表中每个赢率的位数: 32, 16或8. */
+	private int bits;
+
+	/**
+	 * markClean之后每页第一次更新前的内容, 以(节 * PAGES + 页)为下标. null条目表示此页没有保存的内容, 恢复时从映射读取.
+	 */
+	private transient float[][] cleanPages;
+
+	/** 自上次markClean或reset以来是否有过update. */
+	private volatile boolean dirty;
+
+	/**
+	 * 增量表中每个条目自clearDelta以来的总衰减, 即伸缩因子的(更新次数)次幂. 如果不是增量表则为null.
+	 */
+	private transient float[][] decays;
+
+	/** 映射的二进制文件，如果表从来没有映射则为null. 整个表复制到堆中后不再使用, 但也不清除, 以免与读者竞争. */
+	private transient ByteBuffer mapped;
+
+	/** 映射的文件的路径，在反序列化时重新映射. */
+	private String mappedPath;
+
+	/**
+	 * 映射的表中被更新过的页的堆拷贝, 以(节 * PAGES + 页)为下标; null表示此页没有更新过, 从映射读取. 如果表从来没有映射则为null.
+	 */
+	private transient AtomicReferenceArray<float[]> pages;
+
+	/** markClean之后更新过的页, 以(节 * PAGES + 页)为下标. 如果从未调用markClean则为null. */
+	private transient BitSet touched;
 
 	private float scalingFactor;
 
+	/** 堆中的表，如果表是映射的则为null. */
+	private volatile float[][] winRateTables;
+
 	/** 创建空白型表，其中每个条目等于0.5. */
 	public ShapeTable() {
 		this(0.99f);
 	}
 
-	/** 创建ShapeTable，用指定文件填充数据. */
+	/**
+	 * 创建ShapeTable，用指定文件填充数据. 文件可以是二进制格式(被映射)或序列化的数组.
+	 */
 	public ShapeTable(String filePath, float scalingFactor) {
-		float[][] fake = null;
+		this.scalingFactor = scalingFactor;
+		if (isBinary(filePath)) {
+			mappedPath = filePath;
+			map();
+			return;
+		}
 		try (ObjectInputStream objectInputStream = new ObjectInputStream(
 				new FileInputStream(filePath))) {
-			fake = (float[][]) objectInputStream.readObject();
+			winRateTables = (float[][]) objectInputStream.readObject();
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
-		winRateTables = fake;
-		this.scalingFactor = scalingFactor;
 	}
 
 	/**
@@ -35,16 +111,214 @@ public final class ShapeTable implements Serializable {
 	 */
 	public ShapeTable(float scalingFactor) {
 		this.scalingFactor = scalingFactor;
-		winRateTables = new float[3][2097152];
+		winRateTables = new float[SECTIONS][ENTRIES];
 		for (float[] table : winRateTables) {
 			Arrays.fill(table, 0.5f);
 		}
 	}
 
+	/**
+	 * 创建增量表. 增量表的赢率从0开始更新, 并记录每个条目的总衰减. 因为每次更新都是赢率的仿射变换,
+	 * 把增量表接到另一个表上的结果与在那个表上依次做同样的更新相同.
+	 */
+	public static ShapeTable createDelta(float scalingFactor) {
+		final ShapeTable result = new ShapeTable(scalingFactor);
+		result.decays = new float[SECTIONS][ENTRIES];
+		result.clearDelta();
+		return result;
+	}
+
+	/**
+	 * 把增量表delta记录的更新接到这个表上: 每个条目x变为decay * x + delta, 相当于在这个表上依次做那些更新. 不改变delta.
+	 */
+	public synchronized void apply(ShapeTable delta) {
+		if (delta.decays == null) {
+			throw new IllegalArgumentException("不是增量表");
+		}
+		if (delta.scalingFactor != scalingFactor) {
+			throw new IllegalArgumentException("伸缩因子不同: " + delta.scalingFactor + ", " + scalingFactor);
+		}
+		final float[][] tables = getWinRateTables();
+		for (int i = 0; i < SECTIONS; i++) {
+			for (int page = 0; page < PAGES; page++) {
+				remember(i, page);
+			}
+			final float[] table = tables[i];
+			final float[] decay = delta.decays[i];
+			final float[] rates = delta.winRateTables[i];
+			for (int j = 0; j < ENTRIES; j++) {
+				table[j] = decay[j] * table[j] + rates[j];
+			}
+		}
+		dirty = true;
+	}
+
+	/** 把增量表恢复为没有更新. */
+	public synchronized void clearDelta() {
+		for (int i = 0; i < SECTIONS; i++) {
+			Arrays.fill(winRateTables[i], 0);
+			Arrays.fill(decays[i], 1);
+		}
+	}
+
+	/** 返回true如果文件以二进制格式的魔数开头. */
+	private static boolean isBinary(String filePath) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(filePath))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/** 只读地映射mappedPath, 并检查文件头. */
+	private void map() {
+		try (RandomAccessFile file = new RandomAccessFile(mappedPath, "r");
+				FileChannel channel = file.getChannel()) {
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != SECTIONS
+					|| buffer.getInt(16) != ENTRIES) {
+				throw new IOException("不支持的形状表文件: " + mappedPath);
+			}
+			bits = buffer.getInt(8);
+			if (bits != 32 && bits != 16 && bits != 8) {
+				throw new IOException("不支持的赢率位数: " + bits);
+			}
+			if (channel.size() != HEADER_BYTES + (long) SECTIONS * ENTRIES * (bits / 8)) {
+				throw new IOException("形状表文件长度错误: " + mappedPath);
+			}
+			mapped = buffer;
+			pages = new AtomicReferenceArray<>(SECTIONS * PAGES);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/** 把整个映射的表(包括更新过的页)复制到堆中. 返回堆中的表. */
+	private synchronized float[][] materialize() {
+		if (winRateTables == null) {
+			final float[][] tables = new float[SECTIONS][ENTRIES];
+			for (int i = 0; i < SECTIONS; i++) {
+				for (int j = 0; j < ENTRIES; j++) {
+					tables[i][j] = pagedRate(i, j);
+				}
+			}
+			winRateTables = tables;
+		}
+		return winRateTables;
+	}
+
+	/** 返回映射的表第i节第page页的堆拷贝, 第一次时从映射复制. 只在持有表的锁时调用. */
+	private float[] page(int i, int page) {
+		float[] result = pages.get(i * PAGES + page);
+		if (result == null) {
+			result = new float[PAGE_SIZE];
+			final int start = page << PAGE_BITS;
+			for (int j = 0; j < PAGE_SIZE; j++) {
+				result[j] = mappedRate(i, start + j);
+			}
+			pages.set(i * PAGES + page, result);
+		}
+		return result;
+	}
+
+	/** 返回映射的表第i节第j个条目的当前赢率: 此页更新过时读堆中的拷贝, 否则读映射. */
+	private float pagedRate(int i, int j) {
+		final float[] page = pages.get(i * PAGES + (j >> PAGE_BITS));
+		return page != null ? page[j & (PAGE_SIZE - 1)] : mappedRate(i, j);
+	}
+
+	/** 返回映射的文件中第i节第j个条目的赢率. */
+	private float mappedRate(int i, int j) {
+		final int index = i * ENTRIES + j;
+		switch (bits) {
+		case 8:
+			return (mapped.get(HEADER_BYTES + index) & 0xFF) / 255.0f;
+		case 16:
+			return (mapped.getChar(HEADER_BYTES + 2 * index)) / 65535.0f;
+		default:
+			return mapped.getFloat(HEADER_BYTES + 4 * index);
+		}
+	}
+
+	/**
+	 * 把当前内容记录为reset恢复的内容. 不拷贝表, 只清除更新过的页的记录.
+	 */
+	public synchronized void markClean() {
+		if (touched == null) {
+			touched = new BitSet(SECTIONS * PAGES);
+			cleanPages = new float[SECTIONS * PAGES][];
+		} else {
+			touched.clear();
+			Arrays.fill(cleanPages, null);
+		}
+		dirty = false;
+	}
+
+	/**
+	 * 如果第i节第page页是markClean之后第一次更新, 保存它现在的内容. 映射的表中没有更新过的页不需要保存. 只在持有表的锁时调用.
+	 */
+	private void remember(int i, int page) {
+		final int k = i * PAGES + page;
+		if (touched == null || touched.get(k)) {
+			return;
+		}
+		touched.set(k);
+		final float[][] tables = winRateTables;
+		if (tables != null) {
+			final int start = page << PAGE_BITS;
+			cleanPages[k] = Arrays.copyOfRange(tables[i], start, start + PAGE_SIZE);
+		} else {
+			final float[] current = pages.get(k);
+			cleanPages[k] = current == null ? null : current.clone();
+		}
+	}
+
+	/**
+	 * 恢复到markClean记录的内容(从未调用markClean时恢复到映射的文件). 只恢复更新过的页. 如果此后没有update，什么也不做.
+	 */
+	public synchronized void reset() {
+		if (!dirty) {
+			return;
+		}
+		if (touched != null) {
+			final float[][] tables = winRateTables;
+			for (int k = touched.nextSetBit(0); k >= 0; k = touched.nextSetBit(k + 1)) {
+				final int i = k / PAGES;
+				final int start = (k % PAGES) << PAGE_BITS;
+				final float[] clean = cleanPages[k];
+				if (tables == null) {
+					pages.set(k, clean);
+				} else if (clean != null) {
+					System.arraycopy(clean, 0, tables[i], start, PAGE_SIZE);
+				} else {
+					for (int j = 0; j < PAGE_SIZE; j++) {
+						tables[i][start + j] = mappedRate(i, start + j);
+					}
+				}
+				cleanPages[k] = null;
+			}
+			touched.clear();
+		} else if (mapped != null) {
+			winRateTables = null;
+			for (int k = 0; k < SECTIONS * PAGES; k++) {
+				pages.set(k, null);
+			}
+		}
+		dirty = false;
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (mappedPath != null) {
+			map();
+		}
+	}
+
 	public void getRates() {
 		// TODO What is this specific filename doing here?
 		try (PrintWriter writer = new PrintWriter(new File("test-books/patterns5x5.csv"))) {
-			for (float winRate : winRateTables[0]) {
+			for (float winRate : getWinRateTables()[0]) {
 				writer.println(winRate + ",");
 			}
 		} catch (FileNotFoundException e) {
@@ -52,44 +326,120 @@ public final class ShapeTable implements Serializable {
 			System.exit(1);
 		}
 	}
-	
+
 	public float getScalingFactor(){
 		return scalingFactor;
 	}
 
 	public double testGetRate(int index) {
-		return winRateTables[1][index];
+		final float[][] tables = winRateTables;
+		return tables != null ? tables[1][index] : pagedRate(1, index);
 	}
 
+	/** 返回堆中的表. 如果表是映射的，先把整个表复制到堆中, 所以不要在搜索中调用. */
 	public float[][] getWinRateTables() {
-		return winRateTables;
+		final float[][] tables = winRateTables;
+		return tables != null ? tables : materialize();
 	}
 
 	/** 更新表对给定的哈希用新的赢率. */
-	public void update(long hash, boolean win) {
+	public synchronized void update(long hash, boolean win) {
+		updateEntries(hash, win);
+	}
+
+	/**
+	 * 依次用前n个哈希和结果更新表, 相当于依次调用update(hashes[i], wins[i]). 整批在表的锁内应用,
+	 * 所以多个线程的批次不会丢失更新, 每个条目的衰减等同于按合并顺序串行地更新.
+	 */
+	public synchronized void update(long[] hashes, boolean[] wins, int n) {
+		for (int i = 0; i < n; i++) {
+			updateEntries(hashes[i], wins[i]);
+		}
+	}
+
+	/** 更新给定哈希在每一节的条目. 映射的表只复制被更新的页. 只在持有表的锁时调用. */
+	private void updateEntries(long hash, boolean win) {
+		dirty = true;
+		final float[][] tables = winRateTables;
 		for (int i = 0; i < 3; i++) {
 			// TODO Get rid of this ridiculous magic number
 			int index = (int) (hash >> (21 * i) & 2097151);
-			winRateTables[i][index] = scalingFactor * winRateTables[i][index]
-					+ (win ? (1.0f - scalingFactor) : 0);
+			remember(i, index >> PAGE_BITS);
+			final float[] table;
+			final int j;
+			if (tables != null) {
+				table = tables[i];
+				j = index;
+			} else {
+				table = page(i, index >> PAGE_BITS);
+				j = index & (PAGE_SIZE - 1);
+			}
+			table[j] = scalingFactor * table[j] + (win ? (1.0f - scalingFactor) : 0);
+			if (decays != null) {
+				decays[i][index] *= scalingFactor;
+			}
 		}
 	}
 
 	/** 返回给定模式的赢率. */
 	public float getWinRate(long hash) {
 		float result = 0;
-		for (int i = 0; i < 3; i++) {
-			int index = (int) (hash >> (21 * i) & 2097151);
-			result += winRateTables[i][index];
+		final float[][] tables = winRateTables;
+		if (tables != null) {
+			for (int i = 0; i < 3; i++) {
+				int index = (int) (hash >> (21 * i) & 2097151);
+				result += tables[i][index];
+			}
+		} else {
+			for (int i = 0; i < 3; i++) {
+				result += pagedRate(i, (int) (hash >> (21 * i) & 2097151));
+			}
 		}
 		return result / 3;
 	}
-	
+
 	/** 打印存在表的每一节赢率. */
 	public void printIndividualWinRates(long hash){
 		for (int i = 0; i < 3; i++) {
 			int index = (int) (hash >> (21 * i) & 2097151);
-			System.out.println("Section " + i + ": " + winRateTables[i][index]);
+			final float[][] tables = winRateTables;
+			System.out.println("Section " + i + ": " + (tables != null ? tables[i][index] : pagedRate(i, index)));
+		}
+	}
+
+	/**
+	 * 把表写为可映射的二进制格式. 文件头为魔数、版本、位数、节数、每节条目数和伸缩因子(32字节, 大端),
+	 * 其后按节依次是每个赢率: 32位浮点数, 或量化为round(赢率 * 65535)的16位无符号数, 或round(赢率 * 255)的8位无符号数.
+	 *
+	 * @param bits
+	 *            每个赢率的位数: 32, 16或8.
+	 */
+	public void write(String filePath, int bits) throws IOException {
+		if (bits != 32 && bits != 16 && bits != 8) {
+			throw new IllegalArgumentException("位数必须是32, 16或8: " + bits);
+		}
+		final float[][] tables = getWinRateTables();
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(bits);
+			out.writeInt(SECTIONS);
+			out.writeInt(ENTRIES);
+			out.writeFloat(scalingFactor);
+			out.write(new byte[HEADER_BYTES - 24]);
+			for (final float[] table : tables) {
+				for (final float rate : table) {
+					final float clamped = Math.max(0, Math.min(1, rate));
+					if (bits == 8) {
+						out.writeByte(Math.round(clamped * 255));
+					} else if (bits == 16) {
+						out.writeChar(Math.round(clamped * 65535));
+					} else {
+						out.writeFloat(rate);
+					}
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,26 @@
+package com.github.fangyun.ginkgo.patterns;
+
+import java.io.IOException;
+
+/**
+ * 把序列化的形状表文件(patterns*-SHAPE-sf*.data)转换为ShapeTable可内存映射的二进制格式.
+ * <p>
+ * 用法: ShapeTableConverter 输入文件 输出文件 [位数 [伸缩因子]], 位数为32(缺省), 16或8; 伸缩因子记录在文件头中, 缺省0.99.
+ */
+public final class ShapeTableConverter {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("用法: ShapeTableConverter 输入文件 输出文件 [32|16|8 [伸缩因子]]");
+			System.exit(1);
+		}
+		final int bits = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+		final long start = System.currentTimeMillis();
+		final float scalingFactor = args.length > 3 ? Float.parseFloat(args[3]) : 0.99f;
+		final ShapeTable table = new ShapeTable(args[0], scalingFactor);
+		table.write(args[1], bits);
+		System.out.println("写入 " + args[1] + " (" + bits + "位), 用时 " + (System.currentTimeMillis() - start)
+				+ " 毫秒");
+	}
+
+}
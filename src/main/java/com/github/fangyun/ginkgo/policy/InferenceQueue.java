@@ -0,0 +1,141 @@
+package com.github.fangyun.ginkgo.policy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 把所有搜索线程的策略网络请求交给一个专门的推理线程. 推理线程取出当前所有等待的请求(最多maxBatch个), 作为一批计算,
+ * 再唤醒提交它们的线程. 线程越多, 同时等待的请求越多, 每批越大, 网络权重的读取就分摊得越好.
+ * <p>
+ * 提交请求的线程阻塞到结果算好. 请求对象由每个使用者重用, 所以稳定状态下不分配内存. 推理线程是守护线程, 在第一个请求时启动,
+ * 由{@link #shutdown()}停止(例如对局结束时), 此后的请求再启动一个.
+ */
+public final class InferenceQueue {
+
+	/** 一个局面的输入和输出. 每个使用者重用自己的请求, 不能同时提交两次. */
+	public static final class Request {
+
+		/** 结果是否已经算好. */
+		private volatile boolean done;
+
+		/** 输入平面, 见{@link PolicyNetwork#encode}. */
+		public final float[] input;
+
+		/** 每个点的对数几率, 见{@link PolicyNetwork#index(int, int)}. */
+		public final float[] output;
+
+		/** 等待结果的线程. */
+		private Thread waiter;
+
+		Request(PolicyNetwork network) {
+			input = new float[network.getInputSize()];
+			output = new float[network.getOutputSize()];
+		}
+
+	}
+
+	/** 计算的批数. 只有推理线程修改它. */
+	private volatile long batches;
+
+	/** 每批最多的请求数. */
+	private final int maxBatch;
+
+	private final PolicyNetwork network;
+
+	/** 等待计算的请求. */
+	private final BlockingQueue<Request> pending;
+
+	/** 计算的请求数. 只有推理线程修改它. */
+	private volatile long requests;
+
+	/** 推理线程, 如果还没有启动则为null. */
+	private Thread worker;
+
+	public InferenceQueue(PolicyNetwork network, int maxBatch) {
+		this.network = network;
+		this.maxBatch = maxBatch;
+		pending = new ArrayBlockingQueue<>(1024);
+	}
+
+	/** 返回每批的平均请求数. */
+	public double getAverageBatchSize() {
+		final long b = batches;
+		return b == 0 ? 0 : (double) requests / b;
+	}
+
+	public PolicyNetwork getNetwork() {
+		return network;
+	}
+
+	/** 返回一个新的请求. */
+	public Request newRequest() {
+		return new Request(network);
+	}
+
+	/**
+	 * 计算请求的局面, 阻塞到结果写入request.output.
+	 */
+	public void evaluate(Request request) {
+		synchronized (this) {
+			if (worker == null) {
+				worker = new Thread(this::run, "ginkgo-inference");
+				worker.setDaemon(true);
+				worker.start();
+			}
+		}
+		request.done = false;
+		request.waiter = Thread.currentThread();
+		try {
+			pending.put(request);
+		} catch (final InterruptedException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		while (!request.done) {
+			LockSupport.park(this);
+		}
+	}
+
+	/**
+	 * 停止推理线程. 只在没有请求等待时(搜索线程都已停止)调用. 下一个请求再启动推理线程.
+	 */
+	public synchronized void shutdown() {
+		if (worker != null) {
+			worker.interrupt();
+			worker = null;
+		}
+	}
+
+	/** 推理线程的循环. */
+	private void run() {
+		final List<Request> batch = new ArrayList<>(maxBatch);
+		final float[][] inputs = new float[maxBatch][];
+		final float[][] outputs = new float[maxBatch][];
+		while (true) {
+			try {
+				batch.add(pending.take());
+			} catch (final InterruptedException e) {
+				return;
+			}
+			pending.drainTo(batch, maxBatch - 1);
+			final int count = batch.size();
+			for (int i = 0; i < count; i++) {
+				inputs[i] = batch.get(i).input;
+				outputs[i] = batch.get(i).output;
+			}
+			network.evaluate(inputs, outputs, count);
+			batches++;
+			requests += count;
+			for (final Request request : batch) {
+				final Thread waiter = request.waiter;
+				request.done = true;
+				LockSupport.unpark(waiter);
+			}
+			batch.clear();
+		}
+	}
+
+}
@@ -0,0 +1,369 @@
+package com.github.fangyun.ginkgo.policy;
+
+import static com.github.fangyun.ginkgo.core.NonStoneColor.VACANT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.Color;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.feature.HistoryObserver;
+
+/**
+ * 在CPU上运行的小型卷积策略网络, 用纯Java实现. 输入是{@link #PLANES}个特征平面, 经过若干层3x3卷积(ReLU)和一层1x1卷积,
+ * 输出每个点的对数几率.
+ * <p>
+ * 每个平面存为(宽度+2)x(宽度+2)的数组, 边框为0, 所以3x3卷积对每个核位置只是一个连续区间上的乘加, 即时编译器可以把它向量化.
+ * 一批局面一起计算时, 按权重的顺序循环, 每个权重对批中所有局面使用, 减少权重的重复读取.
+ * <p>
+ * 权重文件是DataOutputStream写的二进制格式: 魔数"GKPN", 版本, 宽度, 过滤器数, 卷积层数, 然后依次是每层的权重[输出][输入][9]和偏置,
+ * 最后是1x1层的权重和偏置. 训练不在这里做; 没有权重文件时可以用{@link #main(String[])}创建随机的权重来测试速度.
+ * <p>
+ * 一个实例不是线程安全的: 中间结果的缓冲区被重用. 多个线程应该通过{@link InferenceQueue}使用它.
+ * <p>
+ * 用法: PolicyNetwork 权重文件 [宽度 过滤器数 层数], 如果文件不存在则用给定的尺寸创建随机的权重, 然后报告各种批大小下每秒的局面数.
+ */
+public final class PolicyNetwork {
+
+	/** 权重文件的魔数, "GKPN". */
+	private static final int MAGIC = 0x474B504E;
+
+	/** 权重文件的版本. */
+	private static final int VERSION = 1;
+
+	/**
+	 * 输入平面数: 己方棋子, 对方棋子, 空点, 己方一气, 对方一气, 己方两气, 对方两气, 上一着, 上上一着.
+	 */
+	public static final int PLANES = 9;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1 && args.length != 4) {
+			System.err.println("用法: PolicyNetwork 权重文件 [宽度 过滤器数 层数]");
+			System.exit(1);
+		}
+		if (!new File(args[0]).exists()) {
+			new PolicyNetwork(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), 0L)
+					.write(args[0]);
+		}
+		final PolicyNetwork network = new PolicyNetwork(args[0]);
+		final Random random = new Random(0L);
+		System.out.println("批大小\t局面/秒");
+		for (int batch = 1; batch <= 64; batch *= 4) {
+			final float[][] inputs = new float[batch][network.getInputSize()];
+			final float[][] outputs = new float[batch][network.getOutputSize()];
+			for (final float[] input : inputs) {
+				for (int i = 0; i < input.length; i++) {
+					input[i] = random.nextInt(4) == 0 ? network.mask[i % network.size] : 0;
+				}
+			}
+			// 预热
+			for (int i = 0; i < 200 / batch + 1; i++) {
+				network.evaluate(inputs, outputs, batch);
+			}
+			int evaluated = 0;
+			final long start = System.nanoTime();
+			while (System.nanoTime() - start < 2000000000L) {
+				network.evaluate(inputs, outputs, batch);
+				evaluated += batch;
+			}
+			System.out.printf("%d\t%.0f%n", batch, evaluated * 1e9 / (System.nanoTime() - start));
+		}
+	}
+
+	/** 中间结果, 两组轮流作为一层的输入和输出. */
+	private float[][] activations0, activations1;
+
+	/** 卷积层的偏置[层][输出]. */
+	private final float[][] biases;
+
+	/** 输出的1x1层的偏置. */
+	private float headBias;
+
+	/** 输出的1x1层的权重[输入]. */
+	private final float[] headWeights;
+
+	/** 卷积层数. */
+	private final int layers;
+
+	/** 每层的过滤器数. */
+	private final int filters;
+
+	/** 第一个和最后一个棋盘上的点的下标. */
+	private final int first, last;
+
+	/** 每个下标是否在棋盘上(1或0). */
+	private final float[] mask;
+
+	/** 3x3核的每个位置相对中心的下标差. */
+	private final int[] offsets;
+
+	/** 每个平面的大小, (宽度+2)^2. */
+	private final int size;
+
+	/** 每行的下标数, 宽度+2. */
+	private final int stride;
+
+	/** 卷积层的权重[层][(输出 * 输入 + 输入通道) * 9 + 核位置]. */
+	private final float[][] weights;
+
+	private final int width;
+
+	/** 用He初始化的随机权重创建网络. */
+	public PolicyNetwork(int width, int filters, int layers, long seed) {
+		this.width = width;
+		this.filters = filters;
+		this.layers = layers;
+		stride = width + 2;
+		size = stride * stride;
+		first = stride + 1;
+		last = size - stride - 2;
+		mask = createMask();
+		offsets = createOffsets();
+		weights = new float[layers][];
+		biases = new float[layers][filters];
+		final Random random = new Random(seed);
+		for (int layer = 0; layer < layers; layer++) {
+			final int inputs = layer == 0 ? PLANES : filters;
+			weights[layer] = new float[filters * inputs * 9];
+			final double scale = Math.sqrt(2.0 / (inputs * 9));
+			for (int i = 0; i < weights[layer].length; i++) {
+				weights[layer][i] = (float) (random.nextGaussian() * scale);
+			}
+		}
+		headWeights = new float[filters];
+		for (int i = 0; i < filters; i++) {
+			headWeights[i] = (float) (random.nextGaussian() * Math.sqrt(2.0 / filters));
+		}
+	}
+
+	/** 从权重文件载入网络. */
+	public PolicyNetwork(String filePath) {
+		int width = 0, filters = 0, layers = 0;
+		float[][] weights = null, biases = null;
+		float[] headWeights = null;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(filePath), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("不是策略网络的权重文件: " + filePath);
+			}
+			width = in.readInt();
+			filters = in.readInt();
+			layers = in.readInt();
+			weights = new float[layers][];
+			biases = new float[layers][filters];
+			for (int layer = 0; layer < layers; layer++) {
+				weights[layer] = new float[filters * (layer == 0 ? PLANES : filters) * 9];
+				readFloats(in, weights[layer]);
+				readFloats(in, biases[layer]);
+			}
+			headWeights = new float[filters];
+			readFloats(in, headWeights);
+			headBias = in.readFloat();
+		} catch (final IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+		this.width = width;
+		this.filters = filters;
+		this.layers = layers;
+		this.weights = weights;
+		this.biases = biases;
+		this.headWeights = headWeights;
+		stride = width + 2;
+		size = stride * stride;
+		first = stride + 1;
+		last = size - stride - 2;
+		mask = createMask();
+		offsets = createOffsets();
+	}
+
+	private static void readFloats(DataInputStream in, float[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readFloat();
+		}
+	}
+
+	private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+		for (final float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+	/**
+	 * 一层3x3卷积加ReLU. in[b]有inChannels个平面, out[b]有filters个平面.
+	 */
+	private void convolve(float[][] in, int inChannels, float[][] out, float[] w, float[] b, int count) {
+		for (int n = 0; n < count; n++) {
+			final float[] dst = out[n];
+			for (int o = 0; o < filters; o++) {
+				final int base = o * size;
+				final float bias = b[o];
+				for (int i = first; i <= last; i++) {
+					dst[base + i] = bias;
+				}
+			}
+		}
+		for (int o = 0; o < filters; o++) {
+			final int outBase = o * size;
+			for (int c = 0; c < inChannels; c++) {
+				final int weightBase = (o * inChannels + c) * 9;
+				for (int k = 0; k < 9; k++) {
+					final float weight = w[weightBase + k];
+					if (weight == 0) {
+						continue;
+					}
+					final int inBase = c * size + offsets[k];
+					for (int n = 0; n < count; n++) {
+						final float[] src = in[n];
+						final float[] dst = out[n];
+						for (int i = first; i <= last; i++) {
+							dst[outBase + i] += weight * src[inBase + i];
+						}
+					}
+				}
+			}
+		}
+		for (int n = 0; n < count; n++) {
+			final float[] dst = out[n];
+			for (int o = 0; o < filters; o++) {
+				final int base = o * size;
+				for (int i = first; i <= last; i++) {
+					// 边框必须保持为0, 才能作为下一层的填充
+					dst[base + i] = Math.max(0, dst[base + i]) * mask[i];
+				}
+			}
+		}
+	}
+
+	/** 返回每个下标是否在棋盘上. */
+	private float[] createMask() {
+		final float[] result = new float[size];
+		for (int r = 0; r < width; r++) {
+			for (int c = 0; c < width; c++) {
+				result[index(r, c)] = 1;
+			}
+		}
+		return result;
+	}
+
+	/** 返回3x3核的每个位置相对中心的下标差. */
+	private int[] createOffsets() {
+		final int[] result = new int[9];
+		for (int dr = -1, k = 0; dr <= 1; dr++) {
+			for (int dc = -1; dc <= 1; dc++, k++) {
+				result[k] = dr * stride + dc;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 把轮到下的一方看到的局面写入input, 大小为{@link #getInputSize()}.
+	 */
+	public void encode(Board board, HistoryObserver history, float[] input) {
+		final CoordinateSystem coords = board.getCoordinateSystem();
+		assert coords.getWidth() == width;
+		Arrays.fill(input, 0);
+		final StoneColor us = board.getColorToPlay();
+		for (final short p : coords.getAllPointsOnBoard()) {
+			final int i = index(coords.row(p), coords.column(p));
+			final Color color = board.getColorAt(p);
+			if (color == VACANT) {
+				input[2 * size + i] = 1;
+			} else {
+				final int side = color == us ? 0 : 1;
+				input[side * size + i] = 1;
+				final int liberties = board.getLiberties(p).size();
+				if (liberties <= 2) {
+					input[(1 + 2 * liberties + side) * size + i] = 1;
+				}
+			}
+		}
+		final int turn = board.getTurn();
+		for (int t = 1; t <= 2 && turn - t >= 0; t++) {
+			final short p = history.get(turn - t);
+			if (coords.isOnBoard(p)) {
+				input[(6 + t) * size + index(coords.row(p), coords.column(p))] = 1;
+			}
+		}
+	}
+
+	/**
+	 * 计算count个局面的每个点的对数几率. inputs[b]由{@link #encode}填写, outputs[b]的点下标见{@link #index(int, int)}.
+	 */
+	public void evaluate(float[][] inputs, float[][] outputs, int count) {
+		if (activations0 == null || activations0.length < count) {
+			activations0 = new float[count][filters * size];
+			activations1 = new float[count][filters * size];
+		}
+		float[][] in = inputs;
+		float[][] out = activations0;
+		for (int layer = 0; layer < layers; layer++) {
+			convolve(in, layer == 0 ? PLANES : filters, out, weights[layer], biases[layer], count);
+			in = out;
+			out = out == activations0 ? activations1 : activations0;
+		}
+		for (int n = 0; n < count; n++) {
+			final float[] src = in[n];
+			final float[] dst = outputs[n];
+			for (int i = first; i <= last; i++) {
+				dst[i] = headBias;
+			}
+			for (int c = 0; c < filters; c++) {
+				final float weight = headWeights[c];
+				final int base = c * size;
+				for (int i = first; i <= last; i++) {
+					dst[i] += weight * src[base + i];
+				}
+			}
+		}
+	}
+
+	/** 返回输入的大小. */
+	public int getInputSize() {
+		return PLANES * size;
+	}
+
+	/** 返回输出的大小. */
+	public int getOutputSize() {
+		return size;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	/** 返回行r列c在平面中的下标. */
+	public int index(int r, int c) {
+		return (r + 1) * stride + c + 1;
+	}
+
+	/** 把权重写入文件, 格式见{@link PolicyNetwork}. */
+	public void write(String filePath) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(filePath), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(filters);
+			out.writeInt(layers);
+			for (int layer = 0; layer < layers; layer++) {
+				writeFloats(out, weights[layer]);
+				writeFloats(out, biases[layer]);
+			}
+			writeFloats(out, headWeights);
+			out.writeFloat(headBias);
+		}
+	}
+
+}
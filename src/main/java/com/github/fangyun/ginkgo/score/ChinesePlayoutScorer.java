@@ -8,7 +8,10 @@ import com.github.fangyun.ginkgo.core.Color;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 
 /**
- * 用中国规则计分.
+ * 用中国规则计分. 棋盘增量地维护黑白子数之差和每方的单点眼数, 所以score不必扫描棋盘.
+ * <p>
+ * 在验证模式下, 每次score还用逐点扫描的旧方法计分, 两者不同时抛出IllegalStateException.
+ * 验证模式缺省在断言开启(-ea)时打开.
  */
 public final class ChinesePlayoutScorer implements PlayoutScorer {
 	private static final long serialVersionUID = -6053051581794964985L;
@@ -20,18 +23,21 @@ public final class ChinesePlayoutScorer implements PlayoutScorer {
 	 */
 	private final double komi;
 
+	/** 如果为true，用扫描棋盘的计分检查增量的计分. */
+	private boolean validating;
+
 	public ChinesePlayoutScorer(Board board, double komi) {
-		this.board = board;
-		this.komi = -komi;
+		this(board, komi, ChinesePlayoutScorer.class.desiredAssertionStatus());
 	}
 
-	@Override
-	public double getKomi() {
-		return -komi;
+	public ChinesePlayoutScorer(Board board, double komi, boolean validating) {
+		this.board = board;
+		this.komi = -komi;
+		this.validating = validating;
 	}
 
-	@Override
-	public double score() {
+	/** 逐点扫描棋盘计分. 这是增量计分的参照. */
+	public double countScore() {
 		final CoordinateSystem coords = board.getCoordinateSystem();
 		double result = komi;
 		for (final short p : coords.getAllPointsOnBoard()) {
@@ -51,6 +57,33 @@ public final class ChinesePlayoutScorer implements PlayoutScorer {
 		return result;
 	}
 
+	@Override
+	public double getKomi() {
+		return -komi;
+	}
+
+	public boolean isValidating() {
+		return validating;
+	}
+
+	@Override
+	public double score() {
+		final double result = komi + board.getStoneDifference() + board.getEyeCount(BLACK)
+				- board.getEyeCount(WHITE);
+		if (validating) {
+			final double expected = countScore();
+			if (result != expected) {
+				throw new IllegalStateException("增量计分" + result + "不等于扫描计分" + expected + ":\n" + board);
+			}
+		}
+		return result;
+	}
+
+	/** 设置是否用扫描棋盘的计分检查每次计分. */
+	public void setValidating(boolean validating) {
+		this.validating = validating;
+	}
+
 	@Override
 	public Color winner() {
 		final double score = score();
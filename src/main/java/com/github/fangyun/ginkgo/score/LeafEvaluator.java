@@ -0,0 +1,16 @@
+package com.github.fangyun.ginkgo.score;
+
+import java.io.Serializable;
+
+/**
+ * 不下完棋局而估计结果的静态评估器. McRunnable在棋局超出树若干着后, 在第一个平静的局面上用它截断棋局, 以较短的棋局换取更多的棋局.
+ */
+public interface LeafEvaluator extends Serializable {
+
+	/** 返回当前局面黑棋赢的概率(从0.0到1.0). */
+	public float getBlackWinProbability();
+
+	/** 返回当前局面是否平静得可以截断, 例如没有可以立即提的子. */
+	public boolean isQuiet();
+
+}
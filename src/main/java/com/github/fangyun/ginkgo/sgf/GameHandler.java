@@ -0,0 +1,15 @@
+package com.github.fangyun.ginkgo.sgf;
+
+/** 接收SgfStream解析出的棋局. */
+@FunctionalInterface
+public interface GameHandler {
+
+	/**
+	 * 处理一局棋.
+	 *
+	 * @param moves
+	 *            前length个元素为棋局的着子. 数组在下一局时被重用, 所以不能保存它.
+	 */
+	void handleGame(short[] moves, int length);
+
+}
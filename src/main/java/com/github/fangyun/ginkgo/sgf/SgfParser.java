@@ -7,6 +7,7 @@ import static java.lang.Integer.MAX_VALUE;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
@@ -108,55 +109,6 @@ public final class SgfParser {
 		}
 	}
 
-	/**
-	 * 从StringTokenizer中解析落子.
-	 * 
-	 * @param maxBookDepth 查看多少落子，没有限制则使用Integer.MAX_VALUE;
-	 * @return 落子的列表 (以shorts).
-	 */
-	private List<Short> parseGame(StringTokenizer stoken, int maxBookDepth) {
-		final List<Short> game = new ArrayList<>();
-		int turn = 0;
-		while (turn <= maxBookDepth) {
-			if (!stoken.hasMoreTokens()) {
-				return game;
-			}
-			String token = stoken.nextToken();
-			if (token.equals("HA")) {
-				// 让子棋，丢弃.
-				return null;
-			} else if (token.equals("SZ")) {
-				token = stoken.nextToken();
-				final int intToken = Integer.parseInt(token);
-				if (intToken != 19) {
-					// 棋局不是正确尺寸，丢弃.
-					return null;
-				}
-			} else if (token.equals("AB") || token.equals("AW")) {
-				// 棋局已经落子，丢弃.
-				return null;
-			} else if (token.equals("PL")) {
-				// 棋局换颜色落子，丢弃.
-				return null;
-			} else if (token.equals("B") || token.equals("W")) {
-				token = stoken.nextToken();
-				final short move = sgfToPoint(token);
-				if (maxBookDepth != MAX_VALUE && move == PASS) {
-					// 从棋谱中读到怪异的虚着，弃局
-					return null;
-				}
-				if (breakOnFirstPass && move == PASS) {
-					return game;
-				}
-				game.add(move);
-				turn++;
-			} else if (token.equals(")")) {
-				return game;
-			}
-		}
-		return game;
-	}
-
 	/**
 	 * 解析棋局并返回它.读入棋局来响应GTP命令.
 	 */
@@ -166,32 +118,23 @@ public final class SgfParser {
 	}
 
 	/**
-	 * 从文件中读入所有棋局，并以列表返回.列表中每个元素是落子的列表(shorts).
+	 * 从文件中读入所有棋局，并以列表返回.列表中每个元素是落子的列表(shorts). 用SgfStream解析.
 	 * 
 	 * @param maxBookDepth 查看每局棋的最大步数，或者Integer.MAX_VALUE表示无限制.
 	 */
 	public List<List<Short>> parseGamesFromFile(File file, int maxBookDepth) {
 		final List<List<Short>> games = new ArrayList<>();
-		String input = "";
-		try (Scanner s = new Scanner(file)) {
-			while (s.hasNextLine()) {
-				input += s.nextLine();
-			}
-			input = input.replace("W[]", "W[tt]");
-			input = input.replace("B[]", "B[tt]");
-			final StringTokenizer stoken = new StringTokenizer(input, ")[];");
-			while (stoken.hasMoreTokens()) {
-				final String token = stoken.nextToken();
-				if (token.equals("(")) {
-					final List<Short> game = parseGame(stoken, maxBookDepth);
-					if (game != null) {
-						games.add(game);
-					}
+		try {
+			new SgfStream(coords, breakOnFirstPass, maxBookDepth).parseFile(file, (moves, length) -> {
+				final List<Short> game = new ArrayList<>(length);
+				for (int i = 0; i < length; i++) {
+					game.add(moves[i]);
 				}
-			}
+				games.add(game);
+			});
 			return games;
-		} catch (final FileNotFoundException e) {
-			System.err.println("文件没找到!");
+		} catch (final IOException e) {
+			System.err.println("读取" + file.getPath() + "失败: " + e.getMessage());
 			e.printStackTrace();
 			System.exit(1);
 		}
@@ -0,0 +1,383 @@
+package com.github.fangyun.ginkgo.sgf;
+
+import static com.github.fangyun.ginkgo.core.CoordinateSystem.PASS;
+import static java.lang.Integer.MAX_VALUE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+
+/**
+ * 流式的SGF解析器, 用于大量的棋谱. 文件被只读地内存映射, 按字节扫描, 不创建中间的字符串; 每局棋的着子放在一个重用的short数组中,
+ * 交给{@link GameHandler}. 一个文件可以包含多局棋; 有变化的棋局只取主线(每个分支的第一个变化). 属性值中的括号和转义的']'不影响解析.
+ * <p>
+ * 与SgfParser一样, 丢弃让子(HA大于0)、摆子(AB, AW)、指定落子方(PL)和尺寸不对的棋局. 虚着是"tt"(宽度不超过19时)或空值;
+ * 限制了手数时, 丢弃有虚着的棋局.
+ * <p>
+ * 解析器的状态跨越缓冲区保持, 所以大于2GB的文件按窗口依次映射. 一个实例不是线程安全的, 每个线程应该有自己的实例.
+ * <p>
+ * 用法: SgfStream 文件或目录 [宽度], 报告每秒的棋局数.
+ */
+public final class SgfStream {
+
+	/** 每次映射的字节数. */
+	private static final int WINDOW = 1 << 28;
+
+	private static final int B = id('B', 0);
+
+	private static final int W = id('W', 0);
+
+	private static final int AB = id('A', 'B');
+
+	private static final int AW = id('A', 'W');
+
+	private static final int HA = id('H', 'A');
+
+	private static final int PL = id('P', 'L');
+
+	private static final int SZ = id('S', 'Z');
+
+	/** 返回一个或两个大写字母的属性名的编码. */
+	private static int id(int first, int second) {
+		final int result = first - 'A' + 1;
+		return second == 0 ? result : result << 5 | second - 'A' + 1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("用法: SgfStream 文件或目录 [宽度]");
+			System.exit(1);
+		}
+		final int width = args.length > 1 ? Integer.parseInt(args[1]) : 19;
+		final SgfStream stream = new SgfStream(CoordinateSystem.forWidth(width), true, MAX_VALUE);
+		final List<File> files = new ArrayList<>();
+		collectFiles(new File(args[0]), files);
+		final long[] moves = new long[1];
+		final long start = System.nanoTime();
+		for (final File file : files) {
+			stream.parseFile(file, (game, length) -> moves[0] += length);
+		}
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d 个文件, %d 局(丢弃 %d 局), %d 着, %.1f MB, 用时 %.2f 秒%n", stream.getFileCount(),
+				stream.getGameCount(), stream.getRejectedCount(), moves[0], stream.getByteCount() / 1e6, seconds);
+		System.out.printf("%.0f 局/秒, %.1f MB/秒%n", stream.getGameCount() / seconds,
+				stream.getByteCount() / 1e6 / seconds);
+	}
+
+	/** 把file(如果是目录则递归地找)中的sgf文件按路径顺序加入files. 顺序是确定的, 所以可以用下标记录进度. */
+	public static void collectFiles(File file, List<File> files) {
+		if (file.isDirectory()) {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (final File child : children) {
+					collectFiles(child, files);
+				}
+			}
+		} else if (file.getName().toLowerCase().endsWith(".sgf")) {
+			files.add(file);
+		}
+	}
+
+	/** 已解析的字节数. */
+	private long byteCount;
+
+	private final boolean breakOnFirstPass;
+
+	private final CoordinateSystem coords;
+
+	/** 当前的括号深度. 0表示在棋局之外. */
+	private int depth;
+
+	/** 当前的棋局是否已被丢弃. */
+	private boolean discarded;
+
+	/** 属性值中上一个字符是否是转义符. */
+	private boolean escaped;
+
+	/** 已解析的文件数. */
+	private int fileCount;
+
+	/** 当前棋局的主线是否已经结束. 此后只找棋局的结束括号. */
+	private boolean finished;
+
+	/** 交给处理者的棋局数. */
+	private long gameCount;
+
+	/** 当前的处理者. */
+	private GameHandler handler;
+
+	/** 当前属性名的编码, 或者-1如果属性名多于两个字母. */
+	private int ident;
+
+	/** 当前属性名是否已有值. 如果是, 下一个大写字母开始新的属性名. */
+	private boolean identClosed;
+
+	/** 当前属性名的大写字母数. */
+	private int identLength;
+
+	/** 是否在属性值中. */
+	private boolean inValue;
+
+	/** 当前棋局的着子数. */
+	private int length;
+
+	/** 每局最多取的着子数, 或者Integer.MAX_VALUE表示无限制. */
+	private final int maxMoves;
+
+	/** 当前棋局的着子. */
+	private short[] moves;
+
+	/** 当前属性值开头的十进制数. */
+	private int number;
+
+	/** 当前属性值是否到目前为止都是数字. */
+	private boolean numeric;
+
+	/** 丢弃的棋局数. */
+	private long rejectedCount;
+
+	/** 当前属性值的前两个字符. */
+	private int value0, value1;
+
+	/** 当前属性值的字符数. */
+	private int valueLength;
+
+	/**
+	 * @param breakOnFirstPass
+	 *            如果为真, 棋局在第一个虚着结束.
+	 * @param maxMoves
+	 *            每局最多取的着子数, 或者Integer.MAX_VALUE表示无限制.
+	 */
+	public SgfStream(CoordinateSystem coords, boolean breakOnFirstPass, int maxMoves) {
+		this.coords = coords;
+		this.breakOnFirstPass = breakOnFirstPass;
+		this.maxMoves = maxMoves;
+		moves = new short[Math.max(1, Math.min(maxMoves, 1024))];
+	}
+
+	/** 处理属性值中的一个字符. */
+	private void consumeValue(int c) {
+		if (valueLength == 0) {
+			value0 = c;
+		} else if (valueLength == 1) {
+			value1 = c;
+		}
+		valueLength++;
+		if (numeric) {
+			if (c >= '0' && c <= '9' && number < 100000) {
+				number = number * 10 + c - '0';
+			} else {
+				numeric = false;
+			}
+		}
+	}
+
+	/** 属性值结束, 按属性名处理它. */
+	private void endValue() {
+		if (discarded || finished) {
+			return;
+		}
+		if (ident == B || ident == W) {
+			final short move = toPoint();
+			if (discarded) {
+				return;
+			}
+			if (move == PASS) {
+				if (maxMoves != MAX_VALUE) {
+					// 从棋谱中读到怪异的虚着，弃局
+					discarded = true;
+					return;
+				}
+				if (breakOnFirstPass) {
+					finished = true;
+					return;
+				}
+			}
+			if (length == moves.length) {
+				moves = Arrays.copyOf(moves, length * 2);
+			}
+			moves[length++] = move;
+			if (length == maxMoves) {
+				finished = true;
+			}
+		} else if (ident == SZ) {
+			if (number != coords.getWidth()) {
+				// 棋局不是正确尺寸，丢弃.
+				discarded = true;
+			}
+		} else if (ident == HA) {
+			if (number > 0) {
+				// 让子棋，丢弃.
+				discarded = true;
+			}
+		} else if (ident == AB || ident == AW || ident == PL) {
+			// 棋局已经落子或换颜色落子，丢弃.
+			discarded = true;
+		}
+	}
+
+	/** 结束当前的解析, 交出没有结束括号的最后一局. */
+	private void finish() {
+		if (depth > 0) {
+			endGame();
+		}
+		depth = 0;
+		inValue = false;
+		escaped = false;
+		handler = null;
+	}
+
+	/** 当前棋局结束, 交给处理者或丢弃. */
+	private void endGame() {
+		if (discarded) {
+			rejectedCount++;
+		} else {
+			gameCount++;
+			handler.handleGame(moves, length);
+		}
+	}
+
+	/** 解析缓冲区中剩下的字节, 保持跨越缓冲区的状态. */
+	private void feed(ByteBuffer buffer) {
+		final int limit = buffer.limit();
+		for (int i = buffer.position(); i < limit; i++) {
+			final int c = buffer.get(i);
+			if (inValue) {
+				if (escaped) {
+					escaped = false;
+					consumeValue(c);
+				} else if (c == '\\') {
+					escaped = true;
+				} else if (c == ']') {
+					inValue = false;
+					endValue();
+				} else {
+					consumeValue(c);
+				}
+			} else if (c == '(') {
+				if (depth == 0) {
+					startGame();
+				}
+				depth++;
+			} else if (c == ')') {
+				if (depth > 0) {
+					// 第一个结束的变化是主线的末尾
+					finished = true;
+					depth--;
+					if (depth == 0) {
+						endGame();
+					}
+				}
+			} else if (c == '[') {
+				if (depth > 0) {
+					inValue = true;
+					identClosed = true;
+					valueLength = 0;
+					number = 0;
+					numeric = true;
+				}
+			} else if (c == ';') {
+				ident = 0;
+				identLength = 0;
+			} else if (c >= 'A' && c <= 'Z') {
+				if (identClosed) {
+					ident = 0;
+					identLength = 0;
+					identClosed = false;
+				}
+				identLength++;
+				ident = identLength <= 2 ? ident << 5 | c - 'A' + 1 : -1;
+			}
+			// 旧的SGF属性名中的小写字母和空白被忽略
+		}
+		byteCount += limit - buffer.position();
+		buffer.position(limit);
+	}
+
+	/** 返回已解析的字节数. */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/** 返回已解析的文件数. */
+	public int getFileCount() {
+		return fileCount;
+	}
+
+	/** 返回交给处理者的棋局数. */
+	public long getGameCount() {
+		return gameCount;
+	}
+
+	/** 返回丢弃的棋局数. */
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	/**
+	 * 解析缓冲区中剩下的字节, 把每局棋交给handler.
+	 *
+	 * @return 交给handler的棋局数.
+	 */
+	public int parse(ByteBuffer buffer, GameHandler handler) {
+		final long before = gameCount;
+		this.handler = handler;
+		feed(buffer);
+		finish();
+		return (int) (gameCount - before);
+	}
+
+	/**
+	 * 内存映射并解析文件, 把每局棋交给handler.
+	 *
+	 * @return 交给handler的棋局数.
+	 */
+	public int parseFile(File file, GameHandler handler) throws IOException {
+		final long before = gameCount;
+		this.handler = handler;
+		try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+			final long size = channel.size();
+			for (long position = 0; position < size; position += WINDOW) {
+				feed(channel.map(MapMode.READ_ONLY, position, Math.min(WINDOW, size - position)));
+			}
+		} finally {
+			finish();
+		}
+		fileCount++;
+		return (int) (gameCount - before);
+	}
+
+	/** 开始新的棋局. */
+	private void startGame() {
+		length = 0;
+		discarded = false;
+		finished = false;
+		ident = 0;
+		identLength = 0;
+	}
+
+	/** 返回当前属性值表示的点, 或者丢弃棋局如果它不是合法的点. */
+	private short toPoint() {
+		final int width = coords.getWidth();
+		if (valueLength == 0 || valueLength == 2 && value0 == 't' && value1 == 't' && width <= 19) {
+			return PASS;
+		}
+		final int c = value0 - 'a';
+		final int r = value1 - 'a';
+		if (valueLength != 2 || c < 0 || c >= width || r < 0 || r >= width) {
+			discarded = true;
+			return PASS;
+		}
+		return coords.at(r, c);
+	}
+
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.Random;
 
+import com.github.fangyun.ginkgo.util.RandomSource;
+
 /**
  * <h3>梅森旋转算法和梅森旋转快速算法</h3>
  * <p>
@@ -135,7 +137,7 @@ import java.util.Random;
 // Twister是很容易理解的代码: 如果你试图理解代码，我强烈建议先看MersenneTwister.java.
 // -- Sean
 
-public class MersenneTwisterFast implements Serializable, Cloneable {
+public class MersenneTwisterFast implements Serializable, Cloneable, RandomSource {
 	private static final long serialVersionUID = 7062457826036112059L;
 	// Period parameters
 	private static final int N = 624;
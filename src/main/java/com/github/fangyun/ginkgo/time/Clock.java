@@ -0,0 +1,238 @@
+package com.github.fangyun.ginkgo.time;
+
+import static java.lang.Math.abs;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * 棋手的棋钟: 时间设置(包括日本式读秒和加拿大式读秒)、最近一次time_left报告的剩余时间, 以及测量到的每着的延迟.
+ * 时间管理器用它决定每着可以用的时间.
+ * <p>
+ * 每着之后, 用Ginkgo从收到genmove到发出回答之间测量的时间推算棋钟. 下一次time_left报告的剩余时间比推算的少的部分,
+ * 就是网络和服务器的延迟. 延迟的指数移动平均加上两倍的平均偏差是每着的安全余量; 只有切时制时, 另外为剩下的着子保留若干着的余量.
+ * 在测量之前, 余量是一秒.
+ * <p>
+ * 日本式读秒时, time_left在读秒中报告当前这一次读秒的剩余时间和剩下的读秒次数; 加拿大式读秒时, 报告这一段的剩余时间和剩下的着数.
+ */
+public final class Clock {
+
+	/** 时间限制的类型. */
+	public static enum Type {
+		/** 没有时间限制. */
+		NONE,
+		/** 切时制, 只有基本时间. */
+		ABSOLUTE,
+		/** 日本式读秒: 基本时间之后, 每着有若干次固定的读秒时间. */
+		BYO_YOMI,
+		/** 加拿大式读秒: 基本时间之后, 每段时间内必须下若干着. */
+		CANADIAN
+	}
+
+	/** 测量到延迟之前每着的余量, 以毫秒. */
+	private static final int INITIAL_MARGIN_MSEC = 1000;
+
+	/** 每着余量的下限, 以毫秒. */
+	private static final int MIN_MARGIN_MSEC = 100;
+
+	/** 一次延迟测量的上限, 以毫秒. 更大的差别可能是报告错了. */
+	private static final int MAX_LAG_MSEC = 10000;
+
+	/** 切时制时为剩下的着子保留的余量的着数. */
+	private static final int RESERVE_MOVES = 10;
+
+	/** 延迟的指数移动平均中新测量的权重. */
+	private static final double LAG_WEIGHT = 0.25;
+
+	private Type type = Type.NONE;
+
+	/** 读秒时间(日本式为一次读秒, 加拿大式为一段), 以毫秒. */
+	private int overtimeMsec;
+
+	/** 日本式读秒的次数, 或加拿大式每段的着数. */
+	private int overtimeStones;
+
+	/** 剩余时间(基本时间, 或读秒中当前一次读秒或一段的剩余时间), 以毫秒. */
+	private int leftMsec;
+
+	/** 0如果在基本时间中; 否则日本式为剩下的读秒次数, 加拿大式为这一段剩下的着数. */
+	private int leftStones;
+
+	/** 上一着之后按测量的用时推算的剩余时间, 或者-1如果之后没有下过着. */
+	private int predictedMsec = -1;
+
+	/** 推算的剩余时间对应的leftStones. */
+	private int predictedStones;
+
+	/** 延迟的指数移动平均, 以毫秒. */
+	private double lag;
+
+	/** 延迟的平均偏差, 以毫秒. */
+	private double lagDeviation;
+
+	/** 延迟测量的次数. */
+	private int lagSamples;
+
+	/** 返回最近的延迟的移动平均, 以毫秒. */
+	public double getLag() {
+		return lag;
+	}
+
+	/** 返回每着的安全余量, 以毫秒. */
+	public int getMarginMsec() {
+		if (lagSamples == 0) {
+			return INITIAL_MARGIN_MSEC;
+		}
+		return max(MIN_MARGIN_MSEC, (int) (lag + 2 * lagDeviation));
+	}
+
+	/** 返回这一着最多可以用的毫秒数, 超过它就会超时或失去一次读秒. */
+	public int getMaxMsecForMove() {
+		final int margin = getMarginMsec();
+		switch (type) {
+		case ABSOLUTE:
+			return max(1, leftMsec - margin * RESERVE_MOVES);
+		case BYO_YOMI:
+		case CANADIAN:
+			if (leftStones == 0) {
+				return max(1, leftMsec + getOvertimeMsecPerMove() - margin);
+			}
+			return max(1, leftMsec / (type == Type.CANADIAN ? leftStones : 1) - margin);
+		default:
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * 返回这一着应该用的毫秒数.
+	 *
+	 * @param movesLeft
+	 *            估计的我们剩下的着数.
+	 */
+	public int getMsecForMove(int movesLeft) {
+		final int margin = getMarginMsec();
+		int result;
+		if (type == Type.NONE) {
+			return Integer.MAX_VALUE;
+		} else if (type == Type.ABSOLUTE) {
+			result = (leftMsec - margin * RESERVE_MOVES) / max(1, movesLeft) - margin;
+		} else if (leftStones == 0) {
+			// 基本时间分给剩下的着子, 每着另外还有读秒
+			result = leftMsec / max(1, movesLeft) + getOvertimeMsecPerMove() - margin;
+		} else if (type == Type.CANADIAN) {
+			result = leftMsec / leftStones - margin;
+		} else {
+			result = leftMsec - margin;
+		}
+		return max(1, min(result, getMaxMsecForMove()));
+	}
+
+	/** 返回读秒中平均每着的毫秒数. */
+	private int getOvertimeMsecPerMove() {
+		if (type == Type.CANADIAN) {
+			return overtimeMsec / max(1, overtimeStones);
+		}
+		return type == Type.BYO_YOMI ? overtimeMsec : 0;
+	}
+
+	/** 返回时间限制的类型. */
+	public Type getType() {
+		return type;
+	}
+
+	/** 返回是否有时间限制. */
+	public boolean isLimited() {
+		return type != Type.NONE;
+	}
+
+	/**
+	 * 记录我们下了一着, 从收到genmove到发出回答用了msec毫秒. 按它推算棋钟, 以便下一次time_left时测量延迟.
+	 */
+	public void recordMove(int msec) {
+		if (type == Type.NONE) {
+			return;
+		}
+		if (leftStones == 0) {
+			leftMsec -= msec;
+			if (leftMsec < 0 && type != Type.ABSOLUTE) {
+				// 进入读秒, 超出的部分从第一次读秒或第一段中扣除
+				leftMsec += overtimeMsec;
+				leftStones = overtimeStones;
+				if (type == Type.CANADIAN) {
+					leftStones--;
+				}
+			}
+		} else if (type == Type.CANADIAN) {
+			leftMsec -= msec;
+			leftStones--;
+			if (leftStones == 0) {
+				leftMsec = overtimeMsec;
+				leftStones = overtimeStones;
+			}
+		} else if (msec > leftMsec) {
+			leftStones = max(1, leftStones - 1);
+			leftMsec = overtimeMsec;
+		} else {
+			leftMsec = overtimeMsec;
+		}
+		leftMsec = max(0, leftMsec);
+		predictedMsec = leftMsec;
+		predictedStones = leftStones;
+	}
+
+	/**
+	 * 处理time_left报告. 如果它与上一着之后推算的棋钟可比, 用差别更新延迟.
+	 *
+	 * @param stones
+	 *            0如果在基本时间中; 否则见{@link Clock}.
+	 */
+	public void setTimeLeft(int seconds, int stones) {
+		final int msec = seconds * 1000;
+		if (predictedMsec >= 0 && stones == predictedStones
+				&& (stones == 0 || type == Type.CANADIAN && stones != overtimeStones)) {
+			// 日本式读秒每着重新开始, 新的一段也是, 所以只比较基本时间和同一段中的时间. 报告只精确到秒, 按这一秒的中点比较.
+			final double sample = max(0, min(MAX_LAG_MSEC, predictedMsec - msec - 500));
+			if (lagSamples == 0) {
+				lag = sample;
+				lagDeviation = sample / 2;
+			} else {
+				lagDeviation = (1 - LAG_WEIGHT) * lagDeviation + LAG_WEIGHT * abs(sample - lag);
+				lag = (1 - LAG_WEIGHT) * lag + LAG_WEIGHT * sample;
+			}
+			lagSamples++;
+		}
+		predictedMsec = -1;
+		if (type == Type.NONE) {
+			// 没有time_settings, 当作切时制
+			type = Type.ABSOLUTE;
+		}
+		leftMsec = msec;
+		leftStones = stones;
+	}
+
+	/**
+	 * 设置时间限制. 剩余时间重置为整个基本时间.
+	 *
+	 * @param stones
+	 *            日本式读秒的次数, 或加拿大式每段的着数.
+	 */
+	public void setTimeSettings(Type type, int mainSeconds, int overtimeSeconds, int stones) {
+		this.type = type;
+		overtimeMsec = overtimeSeconds * 1000;
+		overtimeStones = stones;
+		leftMsec = mainSeconds * 1000;
+		leftStones = 0;
+		if (mainSeconds == 0 && type != Type.ABSOLUTE && type != Type.NONE) {
+			// 没有基本时间, 直接读秒
+			leftMsec = overtimeMsec;
+			leftStones = stones;
+		}
+		predictedMsec = -1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s 剩余 %d 毫秒 %d, 延迟 %.0f±%.0f 毫秒, 余量 %d 毫秒", type, leftMsec, leftStones, lag,
+				lagDeviation, getMarginMsec());
+	}
+
+}
@@ -2,6 +2,7 @@ package com.github.fangyun.ginkgo.time;
 
 import static com.github.fangyun.ginkgo.thirdparty.Gaussian.Phi;
 import static java.lang.Math.max;
+import static java.lang.Math.min;
 import com.github.fangyun.ginkgo.core.Board;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.mcts.Player;
@@ -22,7 +23,7 @@ public final class ExitingTimeManager implements TimeManager {
 	/**
 	 * 返回情况A比B更好的置信度(从0.0到1.0).
 	 */
-	private static double confidence(float winrateA, double runsA, float winrateB, double runsB) {
+	static double confidence(float winrateA, double runsA, float winrateB, double runsB) {
 		if (runsB == 0) {
 			// There are no other moves to consider, so this must be best
 			return 1.0;
@@ -35,10 +36,10 @@ public final class ExitingTimeManager implements TimeManager {
 	/** 用于确定剩余空点的数量. */
 	private final Board board;
 
-	private int msecPerSlice;
+	/** 剩余的时间. */
+	private Clock clock;
 
-	/**剩下的时间留给我们的落子，以毫秒. */
-	private int msecRemaining;
+	private int msecPerSlice;
 
 	/** 用于查找树的根. */
 	private final Player player;
@@ -87,7 +88,7 @@ public final class ExitingTimeManager implements TimeManager {
 	/** 设置要使用的时间片的数量和大小. */
 	private void createSlices() {
 		slicesRemaining = SLICE_COUNT;
-		msecPerSlice = (getMsecPerMove() + rollover) / SLICE_COUNT;
+		msecPerSlice = max(1, min(getMsecPerMove() + rollover, clock.getMaxMsecForMove()) / SLICE_COUNT);
 	}
 
 	@Override
@@ -108,7 +109,7 @@ public final class ExitingTimeManager implements TimeManager {
 	/** 计算分配到下一落子的总时间. */
 	private int getMsecPerMove() {
 		final int movesLeft = max(10, (int) (board.getVacantPoints().size() * TIME_CONSTANT));
-		return max(1, msecRemaining / movesLeft);
+		return clock.getMsecForMove(movesLeft);
 	}
 
 	/** 返回到下一个回合的毫秒数. */
@@ -117,14 +118,14 @@ public final class ExitingTimeManager implements TimeManager {
 	}
 
 	@Override
-	public void setRemainingSeconds(int seconds) {
-		msecRemaining = (seconds - 10) * 1000 - rollover / 1000;
+	public void setClock(Clock clock) {
+		this.clock = clock;
 		createSlices();
 	}
 
 	@Override
 	public void startNewTurn() {
-		// Does nothing; things are reset in setRemainingTime
+		// Does nothing; things are reset in setClock
 	}
 
 }
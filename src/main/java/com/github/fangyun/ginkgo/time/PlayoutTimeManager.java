@@ -0,0 +1,218 @@
+package com.github.fangyun.ginkgo.time;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+import com.github.fangyun.ginkgo.core.Board;
+import com.github.fangyun.ginkgo.core.CoordinateSystem;
+import com.github.fangyun.ginkgo.mcts.Player;
+import com.github.fangyun.ginkgo.mcts.SearchNode;
+import com.github.fangyun.ginkgo.util.ShortSet;
+
+/**
+ * 按模拟局数而不是毫秒分配时间. 每次搜索一个时间片后, 用McRunnable完成的局数测量当前每毫秒的模拟局数, 按它把每着的时间换算为目标局数;
+ * 达到目标局数或硬性的时间上限时停止.
+ * <p>
+ * 一局模拟的代价大致与空点数成正比, 所以布局时慢, 收官时快. 给剩下的每着同样的局数, 意味着现在的一着比以后的分到更多的时间:
+ * 假定以后每着空点减少2个, 剩下着子的平均空点数是现在的空点数减去剩下的着子数. 达到一半目标后, 如果最佳着子的赢率明显高于次佳的,
+ * 提前停止; 达到目标时如果两者仍难以区分, 延长到目标的1.5倍. 省下或多用的时间由以后各着的分配分摊.
+ */
+public final class PlayoutTimeManager implements TimeManager {
+
+	/** 用来估计剩余着子数的常量, 与UniformTimeManager的相同. */
+	private static final double TIME_CONSTANT = 0.2;
+
+	/** 每着最多分成的时间片数. */
+	private static final int SLICE_COUNT = 4;
+
+	/** 时间片的最短毫秒数. */
+	private static final int MIN_SLICE_MSEC = 20;
+
+	/** 模拟速率的指数移动平均中新测量的权重. */
+	private static final double RATE_WEIGHT = 0.5;
+
+	/** 硬性时间上限是分配的时间的倍数. */
+	private static final double HARD_LIMIT_FACTOR = 2.5;
+
+	/** 达到目标的这个比例后可以提前停止. */
+	private static final double EARLY_EXIT_FRACTION = 0.5;
+
+	/** 最佳着子比次佳的好的置信度超过这个值时提前停止. */
+	private static final double EARLY_EXIT_CONFIDENCE = 0.99;
+
+	/** 最佳着子比次佳的好的置信度低于这个值时延长搜索. */
+	private static final double EXTEND_CONFIDENCE = 0.8;
+
+	/** 延长时最多达到目标的倍数. */
+	private static final double EXTENSION_FACTOR = 1.5;
+
+	private final Board board;
+
+	/** 剩余的时间. */
+	private Clock clock;
+
+	/** 用于读模拟局数和树的根. */
+	private final Player player;
+
+	/** 这一着分配的毫秒数. */
+	private int allocatedMsec;
+
+	/** 这一着的硬性时间上限, 以毫秒. */
+	private int hardLimitMsec;
+
+	/** 这一着到目前为止的模拟局数. */
+	private long playouts;
+
+	/** 每毫秒的模拟局数的移动平均, 或者-1如果还没有测量. */
+	private double rate = -1;
+
+	/** 上一个时间片开始的时间, 以纳秒. */
+	private long sliceStart;
+
+	/** 是否有一个时间片正在运行(还没有测量). */
+	private boolean sliceRunning;
+
+	/** 这一着的目标模拟局数, 或者-1如果还不知道速率. */
+	private long target;
+
+	/** 这一着是否已经结束. */
+	private boolean turnFinished = true;
+
+	/** 这一着开始的时间, 以纳秒. */
+	private long turnStart;
+
+	/** 上一着的统计: 预计的局数和毫秒数, 实际的局数和毫秒数. */
+	private long lastPredictedPlayouts, lastPredictedMsec, lastPlayouts, lastMsec;
+
+	/** 累计的统计: 着数, 预计的局数和毫秒数, 实际的局数和毫秒数. */
+	private long totalMoves, totalPredictedPlayouts, totalPredictedMsec, totalPlayouts, totalMsec;
+
+	public PlayoutTimeManager(Player player) {
+		this.player = player;
+		this.board = player.getBoard();
+	}
+
+	/**
+	 * 返回最佳着子(赢的次数最多的)的赢率比次佳的高的置信度(从0.0到1.0).
+	 */
+	private double confidenceBestVsSecond() {
+		final SearchNode root = player.getRoot();
+		final CoordinateSystem coords = board.getCoordinateSystem();
+		final short best = root.getMoveWithMostWins(coords);
+		float secondWins = -1;
+		short second = CoordinateSystem.NO_POINT;
+		final ShortSet vacant = board.getVacantPoints();
+		for (int i = 0; i < vacant.size(); i++) {
+			final short p = vacant.get(i);
+			if (p != best && root.getWins(p) > secondWins) {
+				secondWins = root.getWins(p);
+				second = p;
+			}
+		}
+		if (second == CoordinateSystem.NO_POINT) {
+			return 1.0;
+		}
+		return ExitingTimeManager.confidence(root.getWinRate(best), root.getRuns(best), root.getWinRate(second),
+				root.getRuns(second));
+	}
+
+	/** 结束这一着, 记录统计. */
+	private void finishTurn(long now) {
+		turnFinished = true;
+		final int used = (int) ((now - turnStart) / 1000000);
+		lastPredictedMsec = allocatedMsec;
+		lastPredictedPlayouts = max(0, target);
+		lastPlayouts = playouts;
+		lastMsec = used;
+		totalMoves++;
+		totalPredictedMsec += lastPredictedMsec;
+		totalPredictedPlayouts += lastPredictedPlayouts;
+		totalPlayouts += lastPlayouts;
+		totalMsec += lastMsec;
+	}
+
+	@Override
+	public int getMsec() {
+		assert player.shouldKeepRunning() == false;
+		final long now = System.nanoTime();
+		if (sliceRunning) {
+			// McRunnable在每次启动时清零计数, 所以它是上一个时间片的局数
+			sliceRunning = false;
+			final long completed = player.getPlayoutCount();
+			final double elapsed = (now - sliceStart) / 1e6;
+			playouts += completed;
+			if (completed > 0 && elapsed > 0) {
+				final double measured = completed / elapsed;
+				rate = rate < 0 ? measured : (1 - RATE_WEIGHT) * rate + RATE_WEIGHT * measured;
+			}
+		}
+		if (turnFinished) {
+			return 0;
+		}
+		if (target < 0 && rate > 0) {
+			target = (long) (rate * allocatedMsec);
+		}
+		final int used = (int) ((now - turnStart) / 1000000);
+		long goal = target;
+		if (target >= 0 && playouts >= target * EARLY_EXIT_FRACTION) {
+			final double confidence = confidenceBestVsSecond();
+			if (confidence > EARLY_EXIT_CONFIDENCE) {
+				goal = 0;
+			} else if (playouts >= target && confidence < EXTEND_CONFIDENCE) {
+				goal = (long) (target * EXTENSION_FACTOR);
+			}
+		}
+		int msec;
+		if (goal < 0) {
+			// 还不知道速率, 先按时间搜索一片
+			msec = allocatedMsec - used;
+		} else {
+			msec = (int) min(Integer.MAX_VALUE, (long) ((goal - playouts) / rate));
+		}
+		msec = min(msec, hardLimitMsec - used);
+		if (msec <= 0 || goal >= 0 && playouts >= goal) {
+			finishTurn(now);
+			return 0;
+		}
+		msec = min(max(msec, MIN_SLICE_MSEC), max(MIN_SLICE_MSEC, allocatedMsec / SLICE_COUNT));
+		sliceStart = now;
+		sliceRunning = true;
+		return msec;
+	}
+
+	/** 返回当前测量的每秒模拟局数, 或者0如果还没有测量. */
+	public double getPlayoutsPerSecond() {
+		return max(0, rate * 1000);
+	}
+
+	@Override
+	public void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	@Override
+	public void startNewTurn() {
+		final int vacant = board.getVacantPoints().size();
+		final int movesLeft = max(10, (int) (vacant * TIME_CONSTANT));
+		// 以后的着子空点更少, 模拟更快, 所以同样的局数用的时间更少
+		final double averageVacant = max(vacant / 2.0, vacant - movesLeft);
+		final double phaseWeight = vacant == 0 ? 1 : vacant / averageVacant;
+		allocatedMsec = clock.getMsecForMove(max(1, (int) (movesLeft / phaseWeight)));
+		hardLimitMsec = min(clock.getMaxMsecForMove(), max(allocatedMsec, (int) (allocatedMsec * HARD_LIMIT_FACTOR)));
+		target = rate > 0 ? (long) (rate * allocatedMsec) : -1;
+		playouts = 0;
+		sliceRunning = false;
+		turnFinished = false;
+		turnStart = System.nanoTime();
+	}
+
+	/** 返回预计和实际的用量的报告. */
+	@Override
+	public String toString() {
+		return String.format(
+				"每秒模拟 %.0f 局, %s%n上一着: 预计 %d 局 %d 毫秒, 实际 %d 局 %d 毫秒%n累计 %d 着: 预计 %d 局 %d 毫秒, 实际 %d 局 %d 毫秒",
+				getPlayoutsPerSecond(), clock, lastPredictedPlayouts, lastPredictedMsec, lastPlayouts,
+				lastMsec, totalMoves, totalPredictedPlayouts, totalPredictedMsec, totalPlayouts, totalMsec);
+	}
+
+}
@@ -22,7 +22,7 @@ public final class SimpleTimeManager implements TimeManager {
 	}
 
 	@Override
-	public void setRemainingSeconds(int seconds) {
+	public void setClock(Clock clock) {
 		// Does nothing
 	}
 
@@ -8,8 +8,8 @@ public interface TimeManager {
 	 */
 	public int getMsec();
 
-	/** 设置此棋局对此棋手剩余时间. */
-	public void setRemainingSeconds(int seconds);
+	/** 收到time_settings或time_left之后, 设置此棋局对此棋手的棋钟. */
+	public void setClock(Clock clock);
 
 	/** 设置开始新一轮. */
 	public void startNewTurn();
@@ -14,8 +14,8 @@ public final class UniformTimeManager implements TimeManager {
 
 	private final Board board;
 
-	/** 整个棋局的剩余时间. */
-	private int msecRemaining;
+	/** 剩余的时间. */
+	private Clock clock;
 
 	public UniformTimeManager(Board board) {
 		this.board = board;
@@ -27,15 +27,14 @@ public final class UniformTimeManager implements TimeManager {
 			final int movesLeft = max(10,
 					(int) (board.getVacantPoints().size() * TIME_CONSTANT));
 			alreadyThought = true;
-			return max(1, msecRemaining / movesLeft);
+			return clock.getMsecForMove(movesLeft);
 		}
 		return 0;
 	}
 
 	@Override
-	public void setRemainingSeconds(int seconds) {
-		// The subtraction ensures that we don't run out of time due to lag
-		msecRemaining = max(1, (seconds - 10) * 1000);
+	public void setClock(Clock clock) {
+		this.clock = clock;
 	}
 
 	@Override
@@ -4,12 +4,12 @@ import static com.github.fangyun.ginkgo.core.CoordinateSystem.RESIGN;
 import static com.github.fangyun.ginkgo.core.StoneColor.BLACK;
 import static com.github.fangyun.ginkgo.core.StoneColor.WHITE;
 import static com.github.fangyun.ginkgo.experiment.Git.getGitCommit;
+import static com.github.fangyun.ginkgo.experiment.Logging.isLoggable;
 import static com.github.fangyun.ginkgo.experiment.Logging.log;
 import static com.github.fangyun.ginkgo.experiment.PropertyPaths.GINKGO_ROOT;
 import static java.io.File.separator;
 import static java.lang.Boolean.parseBoolean;
 import static java.lang.Double.parseDouble;
-import static java.lang.Float.parseFloat;
 import static java.lang.Integer.parseInt;
 
 import java.io.BufferedReader;
@@ -28,10 +28,13 @@ import java.util.StringTokenizer;
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
 import com.github.fangyun.ginkgo.core.Legality;
 import com.github.fangyun.ginkgo.core.StoneColor;
+import com.github.fangyun.ginkgo.experiment.FlightEvents.GtpCommand;
 import com.github.fangyun.ginkgo.experiment.Logging;
 import com.github.fangyun.ginkgo.mcts.Player;
 import com.github.fangyun.ginkgo.mcts.PlayerBuilder;
 import com.github.fangyun.ginkgo.sgf.SgfParser;
+import com.github.fangyun.ginkgo.time.Clock;
+import com.github.fangyun.ginkgo.time.PlayoutTimeManager;
 import com.github.fangyun.ginkgo.util.ShortSet;
 
 /**
@@ -43,41 +46,70 @@ import com.github.fangyun.ginkgo.util.ShortSet;
  * <dd>启发与偏见.缺省800.</dd>
  * <dt>boardsize</dt>
  * <dd>棋盘宽度，缺省19.</dd>
+ * <dt>cluster</dt>
+ * <dd>集群模式下工作者的地址，以逗号分隔，例如localhost:5001,localhost:5002。工作者是以port=参数启动的Ginkgo进程。
+ * 协调者转发改变棋盘的命令给工作者，并在搜索期间交换浅层树的统计。缺省不用集群.</dd>
+ * <dt>cluster-sync</dt>
+ * <dd>集群模式下同步之间的毫秒数。缺省100.</dd>
  * <dt>book</dt>
  * <dd>是否Ginkgo从布局棋谱开始对弈。缺省true。</dd>
+ * <dt>book-file</dt>
+ * <dd>用FusekiBookBuilder或FusekiBookConverter产生的可内存映射的布局棋谱文件，其中可以有多种棋盘宽度的棋谱。载入时不读整个文件，查找在映射的文件中进行。缺省只在19路棋盘上用内置的棋谱.</dd>
+ * <dt>fused-policy</dt>
+ * <dd>棋局中是否用单个PolicyMover代替SuggesterMover链。没有playout-weights时两者的着子分布相同。缺省false.</dd>
  * <dt>grace</dt>
  * <dd>是否采用优雅模式。当对手虚招时，Ginkgo试图清理棋盘上的对手的死棋，或者如果在当前棋盘局面上能赢的话，则同样虚招。缺省false.</dd>
  * <dt>gestation</dt>
  * <dd>下一棋子在子创建为这个棋子，需要运行的计数。缺省4.</dd>
  * <dt>komi</dt>
  * <dd>贴目数. 缺省7.5.</dd>
+ * <dt>ladders</dt>
+ * <dd>切换读征子。如果true，棋局中不从被征吃的棋串长出，新节点中这样的长出被减低而能征吃对方的打吃被提高。缺省false.</dd>
  * <dt>lgrf2</dt>
  * <dd>切换最近好的没有忘记的响应(级别2). 下棋中,
  * Ginkgo跟踪一个步棋的成功回应，或者是两步回应棋链，用以在以后的下棋中。缺省true.</dd>
+ * <dt>lgrf-per-thread</dt>
+ * <dd>如果true，每个线程使用自己的回复表而不是所有线程无锁共享的表。线程之间不再共享学到的回复，但没有任何缓存行竞争。缺省false.</dd>
  * <dt>log-file</dt>
  * <dd>切换日志记录，这会触发记录日志到特定的目录中。如果没有设置，将不会记录日志。.</dd>
  * <dt>memory</dt>
  * <dd>Ginkgo使用的内存的兆字节数，转换表以此而扩展。匹配JVM使用命令行分配的内存，例如-Xmx1024M. 缺省1024.
  * <dt>msec</dt>
  * <dd>Ginkgo决定一步棋的毫秒数。当使用时间管理是，则没有关系。缺省1000毫秒.</dd>
+ * <dt>playout-cutoff</dt>
+ * <dd>棋局超出树至少这么多着后，在第一个没有被叫吃的棋串的局面截断，用势力估计的赢的概率代替终局的胜负。以较短的棋局换取更多的棋局。缺省0，不截断.</dd>
+ * <dt>playout-weights</dt>
+ * <dd>以逗号分隔的PolicyMover中每个建议器的权重: 有LGRF时为LGRF、逃跑、模式、吃子，否则为后三个。每个候选点被选中的概率与权重成正比。给了权重时总是用PolicyMover。缺省按优先级抽样，与SuggesterMover链相同.</dd>
+ * <dt>policy-bias</dt>
+ * <dd>策略网络给每个空点的偏置模拟次数。只在设置了policy-file时有用。缺省20.</dd>
+ * <dt>policy-file</dt>
+ * <dd>策略网络的权重文件(见PolicyNetwork)，网络的宽度必须与棋盘相同。设置后用网络的概率偏置新节点，所有线程的请求成批计算。缺省不用策略网络.</dd>
  * <dt>pondering</dt>
  * <dd>切换是否Ginkgo在对手下棋时依然思考。缺省false.</dd>
+ * <dt>random</dt>
+ * <dd>棋局和树下降使用的随机数发生器: mersenne (梅森旋转, 缺省)或xoroshiro (状态更小、更快的xoroshiro128++).</dd>
  * <dt>rave</dt>
  * <dd>切换快速行为价值评估。缺省true.</dd>
  * <dt>shape</dt>
  * <dd>切换对5x5模式使用形状建议.</dd>
+ * <dt>shape-merge</dt>
+ * <dd>在线形状学习(liveshape)时，每个线程把更新积累在本地，每这么多次棋局合并到共享的形状表一次. 缺省32.</dd>
+ * <dt>shape-table</dt>
+ * <dd>形状表文件。可以是序列化的文件，或用ShapeTableConverter转换的可内存映射的二进制文件(可量化为16位或8位)，后者被同一主机上的进程共享。缺省为ginkgo.root下patterns目录中由shape-minstones和shape-scaling-factor确定的文件.</dd>
+ * <dt>stats-file</dt>
+ * <dd>每步着子后把性能统计(每线程运行/秒、棋局长度、树深度分布、各阶段用时、转换表分配等)作为CSV行追加到此文件。GTP命令ginkgo-stats返回同样的统计。缺省不写.</dd>
  * <dt>threads</dt>
  * <dd>Ginkgo用来思考的线程数.缺省2.</dd>
  * <dt>time-management</dt>
- * <dd>设置Ginkgo的时间管理的类型。如果没有设置，Ginkgo将依赖msec.类型选项有：uniform (缺省)和exiting.</dd>
+ * <dd>设置Ginkgo的时间管理的类型。如果没有设置，Ginkgo将依赖msec.类型选项有：uniform (缺省)、exiting和playouts. playouts按测量的模拟速率把时间换算为每着的模拟局数.</dd>
  * </dl>
  */
 public final class Ginkgo {
 
 	private static final String[] DEFAULT_GTP_COMMANDS = { "black", "boardsize", "clear_board", "final_score",
 			"final_status_list", "fixed_handicap", "genmove", "genmove_black", "genmove_white",
-			"gogui-analyze_commands", "gogui-get-wins", "gogui-search-values", "known_command", "kgs-game_over",
-			"kgs-genmove_cleanup", "komi", "list_commands", "loadsgf", "name", "play", "playout_count",
+			"ginkgo-cluster-start", "ginkgo-cluster-stop", "ginkgo-cluster-sync", "ginkgo-stats", "ginkgo-time", "gogui-analyze_commands", "gogui-get-wins", "gogui-ownership", "gogui-search-values", "known_command", "kgs-game_over",
+			"kgs-genmove_cleanup", "kgs-time_settings", "komi", "list_commands", "loadsgf", "name", "play", "playout_count",
 			"protocol_version", "quit", "reg_genmove", "showboard", "time_left", "time_settings", "undo", "version",
 			"white" };
 
@@ -91,6 +123,9 @@ public final class Ginkgo {
 	/** 当前命令的GTP的ID数 */
 	private int commandId;
 
+	/** True如果最新的命令以错误应答. */
+	private boolean commandFailed;
+
 	/** 命令行参数. */
 	private String commandLineArgs;
 
@@ -149,7 +184,9 @@ public final class Ginkgo {
 		} else {
 			response = "= " + message;
 		}
-		log("发送: " + response);
+		if (isLoggable()) {
+			log("发送: " + response);
+		}
 		out.println(response + "\n");
 	}
 
@@ -157,13 +194,16 @@ public final class Ginkgo {
 	 * 指出最新的命令不能被处理.
 	 */
 	private void error(String message) {
+		commandFailed = true;
 		String response;
 		if (commandId >= 0) {
 			response = "?" + commandId + " " + message;
 		} else {
 			response = "? " + message;
 		}
-		log("发送: " + response);
+		if (isLoggable()) {
+			log("发送: " + response);
+		}
 		out.println(response + "\n");
 	}
 
@@ -173,7 +213,9 @@ public final class Ginkgo {
 	 * @return true 其它都返回,除了"quit"命令.
 	 */
 	private boolean handleCommand(String command) {
-		log("收到: " + command);
+		if (isLoggable()) {
+			log("收到: " + command);
+		}
 		// Remove any comment
 		final int commentStart = command.indexOf("#");
 		if (commentStart >= 0) {
@@ -190,7 +232,14 @@ public final class Ginkgo {
 			command = token1.toLowerCase();
 		}
 		// 调用更冗长的handleCommand方法
-		return handleCommand(command, arguments);
+		final GtpCommand event = new GtpCommand();
+		event.begin();
+		commandFailed = false;
+		final boolean result = handleCommand(command, arguments);
+		event.command = command;
+		event.succeeded = !commandFailed;
+		event.commit();
+		return result;
 	}
 
 	/**
@@ -227,7 +276,7 @@ public final class Ginkgo {
 			player.clear();
 			acknowledge();
 		} else if (command.equals("final_score")) {
-			final double score = player.finalScore();
+			final double score = player.finalScore(0.75);
 			if (score > 0) {
 				acknowledge("B+" + score);
 			} else if (score < 0) {
@@ -268,6 +317,7 @@ public final class Ginkgo {
 			if (command.equals("kgs-genmove_cleanup")) {
 				player.setCleanupMode(true);
 			}
+			final long received = System.nanoTime();
 			final short point = player.bestMove();
 			if (point == RESIGN) {
 				acknowledge("resign");
@@ -277,22 +327,61 @@ public final class Ginkgo {
 					player.acceptMove(point);
 				}
 				acknowledge(coords.toString(point));
+				if (!command.equals("reg_genmove")) {
+					// 用于测量服务器在我们的用时之外扣除的延迟
+					player.getClock().recordMove((int) ((System.nanoTime() - received) / 1000000));
+				}
+			}
+		} else if (command.equals("ginkgo-cluster-start")) {
+			player.startClusterSearch();
+			acknowledge();
+		} else if (command.equals("ginkgo-cluster-stop")) {
+			player.stopClusterSearch();
+			acknowledge();
+		} else if (command.equals("ginkgo-cluster-sync")) {
+			acknowledge(player.synchronizeCluster(arguments.hasMoreTokens() ? arguments.nextToken() : ""));
+		} else if (command.equals("ginkgo-stats")) {
+			acknowledge(player.getStatistics().toString());
+		} else if (command.equals("ginkgo-time")) {
+			if (player.getTimeManager() instanceof PlayoutTimeManager) {
+				acknowledge(player.getTimeManager().toString());
+			} else {
+				error("时间管理不是playouts");
 			}
 		} else if (command.equals("gogui-analyze_commands")) {
 			acknowledge(
-					"gfx/Perform bias/gogui-perform-bias\ngfx/Search values/gogui-search-values\ngfx/Get wins/gogui-get-wins\ngfx/Get runs/gogui-get-runs\ngfx/Get winrate/gogui-get-winrate\ngfx/Perform 1000 mcruns/perform-mcruns\n");
+					"gfx/Perform bias/gogui-perform-bias\ngfx/Search values/gogui-search-values\ngfx/Get wins/gogui-get-wins\ngfx/Get runs/gogui-get-runs\ngfx/Get winrate/gogui-get-winrate\ngfx/Ownership/gogui-ownership\ngfx/Perform 1000 mcruns/perform-mcruns\n");
 		} else if (command.equals("gogui-get-runs")) {
 			acknowledge(player.goguiGetRuns());
 		} else if (command.equals("gogui-get-winrate")) {
 			acknowledge(player.goguiGetWinrate());
 		} else if (command.equals("gogui-get-wins")) {
 			acknowledge(player.goguiGetWins());
+		} else if (command.equals("gogui-ownership")) {
+			acknowledge(player.goguiOwnership());
 		} else if (command.equals("gogui-perform-bias")) {
 			player.getMcRunnable(0).copyDataFrom(player.getBoard());
 			player.getRoot().updateBias(player.getMcRunnable(0));
 			acknowledge();
 		} else if (command.equals("gogui-search-values")) {
 			acknowledge(player.goguiSearchValues());
+		} else if (command.equals("kgs-time_settings")) {
+			final String system = arguments.nextToken().toLowerCase();
+			if (system.equals("none")) {
+				player.setTimeSettings(Clock.Type.NONE, 0, 0, 0);
+			} else if (system.equals("absolute")) {
+				player.setTimeSettings(Clock.Type.ABSOLUTE, parseInt(arguments.nextToken()), 0, 0);
+			} else if (system.equals("byoyomi") || system.equals("canadian")) {
+				final int mainSeconds = parseInt(arguments.nextToken());
+				final int overtimeSeconds = parseInt(arguments.nextToken());
+				final int stones = parseInt(arguments.nextToken());
+				player.setTimeSettings(system.equals("byoyomi") ? Clock.Type.BYO_YOMI : Clock.Type.CANADIAN,
+						mainSeconds, overtimeSeconds, stones);
+			} else {
+				error("未知的计时方式: " + system);
+				return true;
+			}
+			acknowledge();
 		} else if (command.equals("kgs-game_over")) {
 			try (Scanner scanner = new Scanner(new File(GINKGO_ROOT + separator + "config" + separator + "quit.txt"))) {
 				acknowledge();
@@ -314,6 +403,7 @@ public final class Ginkgo {
 				log("完成清理棋手");
 			} else {
 				log("再建棋手");
+				player.endGame();
 				player = null;
 				playerBuilder = playerBuilder.komi(komi);
 				player = playerBuilder.build();
@@ -363,11 +453,21 @@ public final class Ginkgo {
 		} else if (command.equals("time_left")) {
 			arguments.nextToken(); // 扔掉颜色参数
 			final int secondsLeft = parseInt(arguments.nextToken());
-			player.setRemainingTime(secondsLeft);
+			final int stones = arguments.hasMoreTokens() ? parseInt(arguments.nextToken()) : 0;
+			player.setRemainingTime(secondsLeft, stones);
 			acknowledge();
 		} else if (command.equals("time_settings")) {
-			final int secondsLeft = parseInt(arguments.nextToken());
-			player.setRemainingTime(secondsLeft);
+			final int mainSeconds = parseInt(arguments.nextToken());
+			final int overtimeSeconds = arguments.hasMoreTokens() ? parseInt(arguments.nextToken()) : 0;
+			final int stones = arguments.hasMoreTokens() ? parseInt(arguments.nextToken()) : 0;
+			// GTP: 读秒时间为0表示切时制, 读秒着数为0表示没有时间限制
+			if (overtimeSeconds == 0) {
+				player.setTimeSettings(Clock.Type.ABSOLUTE, mainSeconds, 0, 0);
+			} else if (stones == 0) {
+				player.setTimeSettings(Clock.Type.NONE, 0, 0, 0);
+			} else {
+				player.setTimeSettings(Clock.Type.CANADIAN, mainSeconds, overtimeSeconds, stones);
+			}
 			acknowledge();
 		} else if (command.equals("undo")) {
 			if (player.undo()) {
@@ -414,48 +514,12 @@ public final class Ginkgo {
 			if (left.equals("port")) {
 				this.port = parseInt(right);
 				this.localModel = false;
-			} else if (left.equals("biasdelay")) {
-				playerBuilder.biasDelay(parseInt(right));
-			} else if (left.equals("boardsize")) {
-				playerBuilder.boardWidth(parseInt(right));
-			} else if (left.equals("book")) {
-				playerBuilder.openingBook(parseBoolean(right));
 			} else if (left.equals("cgtc")) {
 				cgtc = parseBoolean(right);
-			} else if (left.equals("grace")) {
-				playerBuilder.coupDeGrace(parseBoolean(right));
-			} else if (left.equals("gestation")) {
-				playerBuilder.gestation(parseInt(right));
-			} else if (left.equals("komi")) {
-				playerBuilder.komi(parseDouble(right));
-			} else if (left.equals("lgrf2")) {
-				playerBuilder.lgrf2(parseBoolean(right));
-			} else if (left.equals("liveshape")) {
-				playerBuilder.liveShape(parseBoolean(right));
 			} else if (left.equals("log-file")) {
 				Logging.setFilePath(right);
-			} else if (left.equals("memory")) {
-				playerBuilder.memorySize(parseInt(right));
-			} else if (left.equals("msec")) {
-				playerBuilder.msecPerMove(parseInt(right));
-			} else if (left.equals("ponder")) {
-				playerBuilder.ponder(parseBoolean(right));
-			} else if (left.equals("rave")) {
-				playerBuilder.rave(parseBoolean(right));
-			} else if (left.equals("shape")) {
-				playerBuilder.shape(parseBoolean(right));
-			} else if (left.equals("shape-bias")) {
-				playerBuilder.shapeBias(parseInt(right));
-			} else if (left.equals("shape-minstones")) {
-				playerBuilder.shapeMinStones(parseInt(right));
-			} else if (left.equals("shape-scaling-factor")) {
-				playerBuilder.shapeScalingFactor(parseFloat(right));
-			} else if (left.equals("threads")) {
-				playerBuilder.threads(parseInt(right));
-			} else if (left.equals("time-management")) {
-				playerBuilder.timeManagement(right);
 			} else {
-				throw new IllegalArgumentException("未知的命令行参数: " + left);
+				playerBuilder.argument(left, right);
 			}
 		}
 		player = playerBuilder.build();
@@ -0,0 +1,28 @@
+package com.github.fangyun.ginkgo.util;
+
+/**
+ * 棋局和树下降中使用的随机数发生器. 每个McRunnable有自己的实例, 所以实现不需要是线程安全的.
+ *
+ * @see com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast
+ * @see Xoroshiro128PlusPlus
+ */
+public interface RandomSource {
+
+	/** 返回均匀分布的随机布尔值. */
+	public boolean nextBoolean();
+
+	/** 返回均匀分布的32位随机整数. */
+	public int nextInt();
+
+	/**
+	 * 返回[0, n)中均匀分布的随机整数.
+	 *
+	 * @throws IllegalArgumentException
+	 *             如果n不是正数.
+	 */
+	public int nextInt(int n);
+
+	/** 返回均匀分布的64位随机整数. */
+	public long nextLong();
+
+}
@@ -3,7 +3,6 @@ package com.github.fangyun.ginkgo.util;
 import java.io.Serializable;
 
 import com.github.fangyun.ginkgo.core.CoordinateSystem;
-import com.github.fangyun.ginkgo.thirdparty.MersenneTwisterFast;
 
 /**
  * 类似于java.util.ArrayList&lt;Short&gt;, 但是避免了使用封装器的各种限制问题.
@@ -88,7 +87,7 @@ public final class ShortList implements Serializable {
 	/**
 	 * 删除并返回列表中随机元素. 列表的顺序不被维护.
 	 */
-	public short removeRandom(MersenneTwisterFast random) {
+	public short removeRandom(RandomSource random) {
 		int randomIndex = random.nextInt(size);
 		short temp = data[randomIndex];
 		size--;
@@ -0,0 +1,85 @@
+package com.github.fangyun.ginkgo.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * xoroshiro128++随机数发生器(Blackman和Vigna, 2019). 状态只有两个long, 每个数只需几次移位、异或和加法,
+ * 没有MersenneTwisterFast的624字状态和周期性的重新生成. 周期为2^128-1, 通过BigCrush测试; 不适合密码学用途.
+ * <p>
+ * 有界的整数用Lemire的乘法-移位方法生成: 32位随机数乘以上界后取高32位. 只有在概率小于n/2^32的情况下才需要一次取模来决定是否拒绝,
+ * 所以结果没有偏差, 通常也不需要除法.
+ */
+public final class Xoroshiro128PlusPlus implements RandomSource {
+
+	/** 黄金比例的64位定点表示, SplitMix64的增量. */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/** 使同时创建的实例有不同的种子. */
+	private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x2545F4914F6CDD1DL);
+
+	/** SplitMix64的输出函数, 用来把种子扩展为状态. */
+	private static long mix(long z) {
+		z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+		return z ^ z >>> 31;
+	}
+
+	private long s0;
+
+	private long s1;
+
+	/** 用时间和一个计数器作种子. */
+	public Xoroshiro128PlusPlus() {
+		this(System.nanoTime() ^ SEED_UNIQUIFIER.addAndGet(GOLDEN_GAMMA));
+	}
+
+	public Xoroshiro128PlusPlus(long seed) {
+		s0 = mix(seed + GOLDEN_GAMMA);
+		s1 = mix(seed + 2 * GOLDEN_GAMMA);
+		if ((s0 | s1) == 0) {
+			// 全零的状态是唯一的不动点
+			s0 = GOLDEN_GAMMA;
+		}
+	}
+
+	@Override
+	public boolean nextBoolean() {
+		return nextLong() < 0;
+	}
+
+	@Override
+	public int nextInt() {
+		// 高位的质量比低位好
+		return (int) (nextLong() >>> 32);
+	}
+
+	@Override
+	public int nextInt(int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException("n必须是正数: " + n);
+		}
+		long m = (nextLong() >>> 32) * n;
+		long low = m & 0xFFFFFFFFL;
+		if (low < n) {
+			// 2^32 mod n个最小的低位值会使某些结果多出一次, 拒绝它们
+			final long threshold = (0x100000000L - n) % n;
+			while (low < threshold) {
+				m = (nextLong() >>> 32) * n;
+				low = m & 0xFFFFFFFFL;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+
+	@Override
+	public long nextLong() {
+		final long a = s0;
+		long b = s1;
+		final long result = Long.rotateLeft(a + b, 17) + a;
+		b ^= a;
+		s0 = Long.rotateLeft(a, 49) ^ b ^ b << 21;
+		s1 = Long.rotateLeft(b, 28);
+		return result;
+	}
+
+}